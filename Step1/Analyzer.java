@@ -0,0 +1,241 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns text into index terms, the same way for the Hadoop mapper and for queries, so a word
+ * is looked up exactly as it was indexed. It scans UTF-8 bytes, as a Text value holds them,
+ * and writes each term into one reused buffer, so after warm-up next() allocates nothing.
+ *
+ * A term is a run of letters and digits, everything else separates terms, except that an
+ * apostrophe between letters is dropped ("don't" is "dont"). Terms are lowercased code point by
+ * code point. Two optional stages follow, in this order:
+ * - stopwords: a short list of English function words is dropped, without taking a position,
+ *   so positions and phrases stay consistent between documents and queries;
+ * - stemming: the plural-only S-stemmer (ies -> y, es -> e, s -> ""), a small step that does not
+ *   merge unrelated words.
+ * The job reads them from positional.index.analyzer.stopwords / stemming in its configuration,
+ * the query side from system properties of the same names, so both must be given alike.
+ *
+ * Not thread-safe, every mapper and query has its own.
+ */
+public class Analyzer {
+    public static final String STOPWORDS = "positional.index.analyzer.stopwords";
+    public static final String STEMMING = "positional.index.analyzer.stemming";
+
+    static final String[] ENGLISH_STOPWORDS = { "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if",
+            "in", "into", "is", "it", "no", "not", "of", "on", "or", "such", "that", "the", "their", "then", "there",
+            "these", "they", "this", "to", "was", "will", "with" };
+
+    // Open addressing table of the stopwords' bytes, looked up without building a String
+    private static final byte[][] STOPWORD_TABLE = new byte[128][];
+
+    static {
+        for (String stopword : ENGLISH_STOPWORDS) {
+            byte[] bytes = stopword.getBytes(StandardCharsets.UTF_8);
+            int slot = hash(bytes, bytes.length);
+            while (STOPWORD_TABLE[slot] != null)
+                slot = (slot + 1) & (STOPWORD_TABLE.length - 1);
+            STOPWORD_TABLE[slot] = bytes;
+        }
+    }
+
+    private final boolean stopwords, stemming;
+    private byte[] term = new byte[32];
+    private int length;
+    private byte[] input;
+    private int position, end;
+
+    /** Lowercasing and punctuation stripping only */
+    public Analyzer() {
+        this(false, false);
+    }
+
+    public Analyzer(boolean stopwords, boolean stemming) {
+        this.stopwords = stopwords;
+        this.stemming = stemming;
+    }
+
+    /** The analyzer the -D STOPWORDS / STEMMING system properties ask for */
+    public static Analyzer fromSystemProperties() {
+        return new Analyzer(Boolean.getBoolean(STOPWORDS), Boolean.getBoolean(STEMMING));
+    }
+
+    /** Start on length bytes of UTF-8 from offset, e.g. text.getBytes(), 0, text.getLength() */
+    public void reset(byte[] utf8, int offset, int length) {
+        input = utf8;
+        position = offset;
+        end = offset + length;
+    }
+
+    /** Move to the next term, false at the end of the input */
+    public boolean next() {
+        length = 0;
+        while (position < end) {
+            int b = input[position];
+            if (b >= 0) { // ASCII, the common case
+                position++;
+                if (b >= 'a' && b <= 'z' || b >= '0' && b <= '9') {
+                    append(b);
+                    continue;
+                }
+                if (b >= 'A' && b <= 'Z') {
+                    append(b + ('a' - 'A'));
+                    continue;
+                }
+                if (b == '\'' && inWord())
+                    continue;
+            } else {
+                int codePoint = decode();
+                // Combining accents stay on their letter, as in decomposed "e\u0301"
+                if (Character.isLetterOrDigit(codePoint)
+                        || length > 0 && Character.getType(codePoint) == Character.NON_SPACING_MARK) {
+                    appendUtf8(Character.toLowerCase(codePoint));
+                    continue;
+                }
+                if (codePoint == '\u2019' && inWord()) // right single quotation mark
+                    continue;
+            }
+            if (length > 0 && accept())
+                return true;
+            length = 0;
+        }
+        return length > 0 && accept();
+    }
+
+    /** The bytes of the current term are term()[0, length()), valid until the next call */
+    public byte[] term() {
+        return term;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** The current term as a String, which allocates */
+    public String termString() {
+        return new String(term, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** All terms of a string, for callers that are not on a hot path */
+    public List<String> terms(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        reset(bytes, 0, bytes.length);
+        List<String> terms = new ArrayList<>();
+        while (next())
+            terms.add(termString());
+        return terms;
+    }
+
+    /** An apostrophe continues the term only between two letters */
+    private boolean inWord() {
+        if (length == 0 || position >= end)
+            return false;
+        int b = input[position];
+        return b < 0 || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z';
+    }
+
+    /** Apply the optional stages, false if the term is dropped */
+    private boolean accept() {
+        if (stopwords && isStopword())
+            return false;
+        if (stemming)
+            length = stem(term, length);
+        return true;
+    }
+
+    private boolean isStopword() {
+        for (int slot = hash(term, length);; slot = (slot + 1) & (STOPWORD_TABLE.length - 1)) {
+            byte[] stopword = STOPWORD_TABLE[slot];
+            if (stopword == null)
+                return false;
+            if (Arrays.equals(stopword, 0, stopword.length, term, 0, length))
+                return true;
+        }
+    }
+
+    private static int hash(byte[] bytes, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + bytes[i];
+        return (hash ^ hash >>> 7) & (STOPWORD_TABLE.length - 1);
+    }
+
+    /** S-stemmer (Harman 1991) on the lowercased term, returns the new length */
+    static int stem(byte[] s, int length) {
+        if (length < 3 || s[length - 1] != 's')
+            return length;
+        switch (s[length - 2]) {
+            case 'u':
+            case 's':
+                return length;
+            case 'e':
+                if (length > 3 && s[length - 3] == 'i' && s[length - 4] != 'a' && s[length - 4] != 'e') {
+                    s[length - 3] = 'y'; // flies -> fly
+                    return length - 2;
+                }
+                if (s[length - 3] == 'i' || s[length - 3] == 'a' || s[length - 3] == 'o' || s[length - 3] == 'e')
+                    return length; // aloes, does, sees
+                return length - 1; // houses -> house
+            default:
+                return length - 1;
+        }
+    }
+
+    /** Code point of the multi-byte sequence at position, moving past it; -1 if it is malformed */
+    private int decode() {
+        int lead = input[position] & 0xff, count, codePoint = 0;
+        if (lead >= 0xf0 && lead < 0xf8) {
+            count = 4;
+            codePoint = lead & 0x07;
+        } else if (lead >= 0xe0) {
+            count = lead < 0xf0 ? 3 : 1;
+            codePoint = lead & 0x0f;
+        } else if (lead >= 0xc0) {
+            count = 2;
+            codePoint = lead & 0x1f;
+        } else
+            count = 1; // a stray continuation byte
+        if (count == 1 || position + count > end) {
+            position++;
+            return -1;
+        }
+        for (int i = 1; i < count; i++) {
+            int next = input[position + i] & 0xff;
+            if ((next & 0xc0) != 0x80) {
+                position++;
+                return -1;
+            }
+            codePoint = codePoint << 6 | next & 0x3f;
+        }
+        position += count;
+        return codePoint;
+    }
+
+    private void append(int b) {
+        if (length == term.length)
+            term = Arrays.copyOf(term, term.length * 2);
+        term[length++] = (byte) b;
+    }
+
+    private void appendUtf8(int codePoint) {
+        if (length + 4 > term.length)
+            term = Arrays.copyOf(term, term.length * 2);
+        if (codePoint < 0x80)
+            term[length++] = (byte) codePoint;
+        else if (codePoint < 0x800) {
+            term[length++] = (byte) (0xc0 | codePoint >> 6);
+            term[length++] = (byte) (0x80 | codePoint & 0x3f);
+        } else if (codePoint < 0x10000) {
+            term[length++] = (byte) (0xe0 | codePoint >> 12);
+            term[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            term[length++] = (byte) (0x80 | codePoint & 0x3f);
+        } else {
+            term[length++] = (byte) (0xf0 | codePoint >> 18);
+            term[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+            term[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            term[length++] = (byte) (0x80 | codePoint & 0x3f);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Writes the same postings as the text index and as BlockIndexFiles of a few block sizes and
+ * deflate levels, level 0 storing the blocks uncompressed, then prints the file sizes, the write
+ * times, a full scan and the time to find random terms: a seek through the block index against a
+ * scan of the text lines from the start.
+ *
+ * Usage: java BlockFormatReport <job output path or text index> [lookups]
+ */
+public class BlockFormatReport {
+    static final int[] BLOCK_BYTES = { 16 * 1024, 64 * 1024, 256 * 1024 };
+    static final int[] LEVELS = { 0, 1, 6 };
+    static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java BlockFormatReport <job output path or text index> [lookups]");
+            System.exit(2);
+        }
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path input = new Path(args[0]);
+        List<Path> parts = new ArrayList<>();
+        if (fs.getFileStatus(input).isDirectory()) {
+            for (FileStatus status : fs.globStatus(new Path(input, "part-*")))
+                parts.add(status.getPath());
+        } else
+            parts.add(input);
+
+        List<Text> terms = new ArrayList<>();
+        List<TermPostingsWritable> postings = new ArrayList<>();
+        try (PositionalIndexConverter.TermMerger merger = new PositionalIndexConverter.TermMerger(fs, parts)) {
+            for (String[] line; (line = merger.next()) != null;) {
+                TermPostingsWritable value = new TermPostingsWritable();
+                value.parse(String.join("; ", List.of(line).subList(1, line.length)));
+                terms.add(new Text(line[0]));
+                postings.add(value);
+            }
+        }
+        Random random = new Random(42);
+        Text[] targets = new Text[lookups];
+        for (int i = 0; i < lookups; i++)
+            targets[i] = terms.get(random.nextInt(terms.size()));
+
+        java.nio.file.Path directory = Files.createTempDirectory("block-format");
+        try {
+            Path textFile = new Path(directory.toString(), "index.txt");
+            long textNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++)
+                textNanos = Math.min(textNanos, writeText(fs, textFile, terms, postings));
+            long textBytes = fs.getFileStatus(textFile).getLen();
+            long textScan = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++)
+                textScan = Math.min(textScan, scanText(fs, textFile, null));
+            long start = System.nanoTime();
+            for (Text target : targets)
+                scanText(fs, textFile, target.toString());
+            double textLookupMicros = (System.nanoTime() - start) / 1e3 / lookups;
+
+            System.out.printf("%d terms, %d lookups of random terms, best of %d rounds%n", terms.size(), lookups, ROUNDS);
+            System.out.printf("%-18s %12s %7s %9s %9s %10s%n", "format", "bytes", "size", "write ms", "scan ms",
+                    "lookup us");
+            System.out.printf("%-18s %,12d %6.0f%% %9.1f %9.1f %10.1f%n", "text", textBytes, 100.0, textNanos / 1e6,
+                    textScan / 1e6, textLookupMicros);
+            for (int level : LEVELS) {
+                for (int blockBytes : BLOCK_BYTES) {
+                    Path blockFile = new Path(directory.toString(), "index-" + level + "-" + blockBytes);
+                    long writeNanos = Long.MAX_VALUE, scanNanos = Long.MAX_VALUE;
+                    for (int round = 0; round < ROUNDS; round++)
+                        writeNanos = Math.min(writeNanos, writeBlocks(fs, blockFile, blockBytes, level, terms, postings));
+                    long bytes = fs.getFileStatus(blockFile).getLen();
+                    for (int round = 0; round < ROUNDS; round++)
+                        scanNanos = Math.min(scanNanos, scanBlocks(fs, blockFile));
+                    long lookupNanos = Long.MAX_VALUE;
+                    for (int round = 0; round < ROUNDS; round++)
+                        lookupNanos = Math.min(lookupNanos, lookupBlocks(fs, blockFile, targets));
+                    double lookupMicros = lookupNanos / 1e3 / lookups;
+                    System.out.printf("%-18s %,12d %6.0f%% %9.1f %9.1f %10.1f%n",
+                            "block " + blockBytes / 1024 + "K level " + level, bytes, 100.0 * bytes / textBytes,
+                            writeNanos / 1e6, scanNanos / 1e6, lookupMicros);
+                }
+            }
+        } finally {
+            fs.delete(new Path(directory.toString()), true);
+        }
+    }
+
+    private static long writeText(FileSystem fs, Path file, List<Text> terms, List<TermPostingsWritable> postings)
+            throws IOException {
+        long start = System.nanoTime();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < terms.size(); i++)
+                out.append(terms.get(i).toString()).append('\t').append(postings.get(i).toString()).append('\n');
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long writeBlocks(FileSystem fs, Path file, int blockBytes, int level, List<Text> terms,
+            List<TermPostingsWritable> postings) throws IOException {
+        long start = System.nanoTime();
+        try (BlockIndexFile.Writer writer = new BlockIndexFile.Writer(fs.create(file, true), blockBytes, level)) {
+            for (int i = 0; i < terms.size(); i++)
+                writer.append(terms.get(i), postings.get(i));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Read and parse every line, or only up to the line of term when it is given */
+    private static long scanText(FileSystem fs, Path file, String term) throws IOException {
+        long start = System.nanoTime();
+        TermPostingsWritable value = new TermPostingsWritable();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+            for (String line; (line = in.readLine()) != null;) {
+                int tab = line.indexOf('\t');
+                if (term == null)
+                    value.parse(line.substring(tab + 1));
+                else if (line.startsWith(term) && tab == term.length()) {
+                    value.parse(line.substring(tab + 1));
+                    break;
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long scanBlocks(FileSystem fs, Path file) throws IOException {
+        long start = System.nanoTime();
+        Text term = new Text();
+        TermPostingsWritable value = new TermPostingsWritable();
+        try (BlockIndexFile.Reader reader = new BlockIndexFile.Reader(fs, file)) {
+            while (reader.next(term, value)) {
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Seeks of one open reader, each reads the term's postings */
+    private static long lookupBlocks(FileSystem fs, Path file, Text[] targets) throws IOException {
+        Text term = new Text();
+        TermPostingsWritable value = new TermPostingsWritable();
+        try (BlockIndexFile.Reader reader = new BlockIndexFile.Reader(fs, file)) {
+            long start = System.nanoTime();
+            for (Text target : targets) {
+                reader.seek(target);
+                if (!reader.next(term, value) || !term.equals(target))
+                    throw new IllegalStateException("Term not found: " + target);
+            }
+            return System.nanoTime() - start;
+        }
+    }
+}
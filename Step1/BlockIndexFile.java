@@ -0,0 +1,375 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Term-sorted postings in deflate-compressed blocks with a sparse index of the blocks at the
+ * end, the file BlockIndexOutputFormat writes. Only the index is read on open, a term is
+ * found by a binary search over the first terms of the blocks and one block decompressed, and
+ * a range of blocks can be read on its own, which is how BlockIndexInputFormat splits a file.
+ * The postings of a term can be appended a few docs at a time, and a term longer than a block
+ * goes on in records of its own at the start of the next blocks; Reader.next joins them.
+ *
+ * Layout, numbers big-endian, vint = Hadoop WritableUtils vint:
+ * <pre>
+ * header  int magic, int version
+ * blocks  int rawLength, int compressedLength, compressedLength bytes of deflate holding
+ *         records until rawLength: Text term, TermPostingsWritable postings. A block is
+ *         closed once it reaches the target size, and so is a record, whose term then has
+ *         more records in the blocks after it.
+ * index   per block: long offset, int recordCount, int firstTermLength, first term bytes,
+ *         boolean whether the first record continues the term of the block before (version 2)
+ * footer  long indexOffset, int blockCount, int magic
+ * </pre>
+ */
+public class BlockIndexFile {
+    public static final int MAGIC = 0x50424C4B; // "PBLK"
+    public static final int VERSION = 2;
+    public static final int FOOTER_BYTES = 16;
+    public static final int DEFAULT_BLOCK_BYTES = 64 * 1024;
+
+    /** Whether the file starts with the block index magic, to tell it from a text part file */
+    public static boolean isBlockFile(FileSystem fs, Path file) throws IOException {
+        if (fs.getFileStatus(file).getLen() < 8)
+            return false;
+        try (FSDataInputStream in = fs.open(file)) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Appends terms in increasing byte order, the same term again for more of its docs, and
+     * close() writes the index and the footer. The docs of a term wait in a buffer until the
+     * next term or until they fill a block, so a term takes about a block of memory at most,
+     * and the file does not depend on how many docs each append has.
+     */
+    public static class Writer implements Closeable {
+        private final PositionalIndexConverter.CountingStream counter;
+        private final DataOutputStream out;
+        private final int blockBytes;
+        private final Deflater deflater;
+        private final DataOutputBuffer block = new DataOutputBuffer();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private byte[] compressed = new byte[1024];
+        private final Text previous = new Text();
+        private final DataOutputBuffer pending = new DataOutputBuffer(); // docs of previous not in a record yet
+        private int pendingDocs;
+        private boolean continued; // previous already has a record
+        private long blockOffset;
+        private int blockCount, blockTerms;
+        private boolean blockContinues, started, closed;
+
+        /** level is a Deflater level, 1 (fastest) to 9 (smallest) */
+        public Writer(OutputStream stream, int blockBytes, int level) throws IOException {
+            counter = new PositionalIndexConverter.CountingStream(stream);
+            out = new DataOutputStream(counter);
+            this.blockBytes = blockBytes;
+            deflater = new Deflater(level);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public void append(Text term, TermPostingsWritable postings) throws IOException {
+            if (!started || !term.equals(previous)) {
+                if (started && term.compareTo(previous) < 0)
+                    throw new IllegalArgumentException("Terms out of order: " + term + " after " + previous);
+                writeRecord();
+                previous.set(term);
+                continued = false;
+                started = true;
+            }
+            for (int d = 0, p = 0; d < postings.docCount(); d++) {
+                p = postings.writeDoc(pending, d, p);
+                pendingDocs++;
+                if (pending.getLength() >= blockBytes) {
+                    writeRecord();
+                    continued = true;
+                }
+            }
+        }
+
+        /** Move the pending docs into the block as a record of the previous term */
+        private void writeRecord() throws IOException {
+            if (pendingDocs == 0)
+                return;
+            if (blockTerms == 0) {
+                blockOffset = counter.count;
+                blockContinues = continued;
+            }
+            previous.write(block);
+            WritableUtils.writeVInt(block, pendingDocs);
+            block.write(pending.getData(), 0, pending.getLength());
+            pending.reset();
+            pendingDocs = 0;
+            blockTerms++;
+            if (block.getLength() >= blockBytes)
+                flushBlock();
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockTerms == 0)
+                return;
+            deflater.reset();
+            deflater.setInput(block.getData(), 0, block.getLength());
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length)
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            out.writeInt(block.getLength());
+            out.writeInt(length);
+            out.write(compressed, 0, length);
+
+            // The block starts with its first term, a vint length and the bytes
+            DataInputBuffer first = new DataInputBuffer();
+            first.reset(block.getData(), block.getLength());
+            Text firstTerm = new Text();
+            firstTerm.readFields(first);
+            indexOut.writeLong(blockOffset);
+            indexOut.writeInt(blockTerms);
+            indexOut.writeInt(firstTerm.getLength());
+            indexOut.write(firstTerm.getBytes(), 0, firstTerm.getLength());
+            indexOut.writeBoolean(blockContinues);
+            block.reset();
+            blockTerms = 0;
+            blockCount++;
+        }
+
+        /** Bytes written so far */
+        public long length() {
+            return counter.count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            writeRecord();
+            flushBlock();
+            long indexOffset = counter.count;
+            index.writeTo(out);
+            out.writeLong(indexOffset);
+            out.writeInt(blockCount);
+            out.writeInt(MAGIC);
+            out.close();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads the terms of a range of blocks in order, all blocks by default, a term's records
+     * joined into one value even past the last block of the range. A range should start at a
+     * block that does not continue a term, see startBlock. Reads version 1 files as well. Not
+     * thread-safe, every split gets its own reader.
+     */
+    public static class Reader implements Closeable {
+        private final FSDataInputStream in;
+        private final long[] offsets; // offsets[blockCount] is the index offset, the end of the blocks
+        private final int[] termCounts;
+        private final byte[][] firstTerms;
+        private final boolean[] continues;
+        private final Inflater inflater = new Inflater();
+        private final DataInputBuffer block = new DataInputBuffer();
+        private byte[] raw = new byte[1024], compressed = new byte[1024];
+        private final Text following = new Text();
+        private int firstBlock, nextBlock, endBlock, blockEnd;
+
+        public Reader(FileSystem fs, Path file) throws IOException {
+            long length = fs.getFileStatus(file).getLen();
+            in = fs.open(file);
+            try {
+                if (length < 8 + FOOTER_BYTES || in.readInt() != MAGIC)
+                    throw new IOException(file + " is not a block index file");
+                int version = in.readInt();
+                if (version < 1 || version > VERSION)
+                    throw new IOException(file + " has an unsupported version");
+                in.seek(length - FOOTER_BYTES);
+                long indexOffset = in.readLong();
+                int blockCount = in.readInt();
+                if (in.readInt() != MAGIC)
+                    throw new IOException(file + " is truncated");
+                offsets = new long[blockCount + 1];
+                termCounts = new int[blockCount];
+                firstTerms = new byte[blockCount][];
+                continues = new boolean[blockCount];
+                in.seek(indexOffset);
+                for (int b = 0; b < blockCount; b++) {
+                    offsets[b] = in.readLong();
+                    termCounts[b] = in.readInt();
+                    firstTerms[b] = new byte[in.readInt()];
+                    in.readFully(firstTerms[b]);
+                    continues[b] = version >= 2 && in.readBoolean();
+                }
+                offsets[blockCount] = indexOffset;
+                endBlock = blockCount;
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        public int blockCount() {
+            return termCounts.length;
+        }
+
+        public long blockOffset(int block) {
+            return offsets[block];
+        }
+
+        /** Where the block ends, the offset of the next block or of the index */
+        public long blockEnd(int block) {
+            return offsets[block + 1];
+        }
+
+        /** Records of the block, terms unless a term continues in the next block */
+        public int termCount(int block) {
+            return termCounts[block];
+        }
+
+        /** Whether the block starts with more of the last term of the block before */
+        public boolean continues(int block) {
+            return continues[block];
+        }
+
+        public byte[] firstTerm(int block) {
+            return firstTerms[block];
+        }
+
+        /** The block a term would be in: the last whose first term is not greater, 0 if none */
+        public int findBlock(byte[] term, int length) {
+            int low = 0, high = firstTerms.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (Arrays.compareUnsigned(firstTerms[middle], 0, firstTerms[middle].length, term, 0, length) <= 0)
+                    low = middle;
+                else
+                    high = middle - 1;
+            }
+            return low;
+        }
+
+        /** The block where reading has to start for a term: findBlock, moved back to where the term starts */
+        public int startBlock(byte[] term, int length) {
+            int b = findBlock(term, length);
+            while (b > 0 && continues[b])
+                b--;
+            return b;
+        }
+
+        /** Read blocks [from, to) from now on */
+        public void setBlocks(int from, int to) {
+            firstBlock = from;
+            nextBlock = from;
+            endBlock = to;
+            blockEnd = 0;
+            block.reset(raw, 0);
+        }
+
+        /**
+         * Move to the first term not less than term within the blocks set, backwards or forwards,
+         * only the block the term would be in is decompressed
+         */
+        public void seek(Text term) throws IOException {
+            int from = firstBlock;
+            setBlocks(Math.max(startBlock(term.getBytes(), term.getLength()), from), endBlock);
+            firstBlock = from;
+            Text candidate = new Text();
+            TermPostingsWritable skipped = new TermPostingsWritable();
+            while (hasRecord()) {
+                int mark = block.getPosition();
+                candidate.readFields(block);
+                if (candidate.compareTo(term) >= 0) {
+                    block.reset(raw, mark, blockEnd - mark); // next() reads it again
+                    return;
+                }
+                skipped.readFields(block);
+            }
+        }
+
+        /** Read the next term into term and postings, false after the last block set */
+        public boolean next(Text term, TermPostingsWritable postings) throws IOException {
+            if (!hasRecord())
+                return false;
+            term.readFields(block);
+            postings.readFields(block);
+            while (continuesTerm(term))
+                postings.readMoreFields(block);
+            return true;
+        }
+
+        /** Whether the next record, here or at the start of a block continuing this one, has more of term */
+        private boolean continuesTerm(Text term) throws IOException {
+            if (block.getPosition() >= blockEnd) {
+                if (nextBlock >= continues.length || !continues[nextBlock])
+                    return false;
+                readBlock(nextBlock++);
+            }
+            int mark = block.getPosition();
+            following.readFields(block);
+            if (following.equals(term))
+                return true;
+            block.reset(raw, mark, blockEnd - mark);
+            return false;
+        }
+
+        /** Decompress blocks until one has a record left, false after the last block set */
+        private boolean hasRecord() throws IOException {
+            while (block.getPosition() >= blockEnd) {
+                if (nextBlock >= endBlock)
+                    return false;
+                readBlock(nextBlock++);
+            }
+            return nextBlock <= endBlock; // a block past the range is only read for the term it continues
+        }
+
+        private void readBlock(int b) throws IOException {
+            in.seek(offsets[b]);
+            int rawLength = in.readInt(), compressedLength = in.readInt();
+            if (compressed.length < compressedLength)
+                compressed = new byte[Math.max(compressedLength, compressed.length * 2)];
+            if (raw.length < rawLength)
+                raw = new byte[Math.max(rawLength, raw.length * 2)];
+            in.readFully(compressed, 0, compressedLength);
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            try {
+                int length = 0;
+                while (length < rawLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, length, rawLength - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new IOException("Block " + b + " is corrupt"); // truncated, no more input will come
+                    length += inflated;
+                }
+                if (length != rawLength)
+                    throw new IOException("Block " + b + " is corrupt");
+            } catch (DataFormatException e) {
+                throw new IOException("Block " + b + " is corrupt", e);
+            }
+            block.reset(raw, rawLength);
+            blockEnd = rawLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            inflater.end();
+        }
+    }
+}
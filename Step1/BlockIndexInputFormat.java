@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Reads BlockIndexOutputFormat files back as (term, postings) records, for jobs that run over
+ * an existing index. Splits are cut at compressed block boundaries from the block index, so
+ * every split decompresses only its own blocks, and between terms, so a term longer than a
+ * block is read whole by one split. With setTermRange only the blocks that can hold terms of
+ * the range are read, located through the first terms in the block index.
+ */
+public class BlockIndexInputFormat extends FileInputFormat<Text, TermPostingsWritable> {
+    public static final String RANGE_FROM = "positional.index.block.range.from";
+    public static final String RANGE_TO = "positional.index.block.range.to";
+
+    /** Only read terms in [from, to), either may be null for no bound */
+    public static void setTermRange(Job job, String from, String to) {
+        Configuration conf = job.getConfiguration();
+        if (from != null)
+            conf.set(RANGE_FROM, from);
+        if (to != null)
+            conf.set(RANGE_TO, to);
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return true;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        Text from = bound(conf, RANGE_FROM), to = bound(conf, RANGE_TO);
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        long maxSize = getMaxSplitSize(job);
+        List<InputSplit> splits = new ArrayList<>();
+        List<FileStatus> files = listStatus(job);
+        for (FileStatus status : files) {
+            Path file = status.getPath();
+            FileSystem fs = file.getFileSystem(conf);
+            BlockLocation[] locations = fs.getFileBlockLocations(status, 0, status.getLen());
+            long splitSize = computeSplitSize(status.getBlockSize(), minSize, maxSize);
+            try (BlockIndexFile.Reader reader = new BlockIndexFile.Reader(fs, file)) {
+                int first = 0, end = reader.blockCount();
+                if (from != null)
+                    first = reader.startBlock(from.getBytes(), from.getLength());
+                if (to != null)
+                    end = Math.min(end, reader.findBlock(to.getBytes(), to.getLength()) + 1);
+                // Consecutive blocks up to the split size, a split never ends inside a block or a term
+                while (first < end) {
+                    long start = reader.blockOffset(first);
+                    int last = first;
+                    while (last + 1 < end && (reader.blockEnd(last + 1) - start <= splitSize || reader.continues(last + 1)))
+                        last++;
+                    long length = reader.blockEnd(last) - start;
+                    String[] hosts = locations[getBlockIndex(locations, start)].getHosts();
+                    splits.add(makeSplit(file, start, length, hosts));
+                    first = last + 1;
+                }
+            }
+        }
+        conf.setLong(NUM_INPUT_FILES, files.size());
+        return splits;
+    }
+
+    @Override
+    public RecordReader<Text, TermPostingsWritable> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new BlockRecordReader();
+    }
+
+    private static Text bound(Configuration conf, String key) {
+        String value = conf.get(key);
+        return value == null ? null : new Text(value);
+    }
+
+    /** Reads the blocks that start inside the split, within the term range if one is set */
+    static class BlockRecordReader extends RecordReader<Text, TermPostingsWritable> {
+        private BlockIndexFile.Reader reader;
+        private Text to;
+        private final Text term = new Text();
+        private final TermPostingsWritable postings = new TermPostingsWritable();
+        private int firstBlock, endBlock, termsToRead, termsRead;
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+            FileSplit split = (FileSplit) genericSplit;
+            Configuration conf = context.getConfiguration();
+            reader = new BlockIndexFile.Reader(split.getPath().getFileSystem(conf), split.getPath());
+            long start = split.getStart(), end = start + split.getLength();
+            firstBlock = reader.blockCount();
+            endBlock = 0;
+            for (int b = 0; b < reader.blockCount(); b++) {
+                if (reader.blockOffset(b) >= start && reader.blockOffset(b) < end) {
+                    firstBlock = Math.min(firstBlock, b);
+                    endBlock = b + 1;
+                }
+            }
+            for (int b = firstBlock; b < endBlock; b++)
+                termsToRead += reader.termCount(b);
+            reader.setBlocks(firstBlock, Math.max(firstBlock, endBlock));
+            Text from = bound(conf, RANGE_FROM);
+            if (from != null)
+                reader.seek(from);
+            to = bound(conf, RANGE_TO);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (!reader.next(term, postings) || to != null && term.compareTo(to) >= 0)
+                return false;
+            termsRead++;
+            return true;
+        }
+
+        @Override
+        public Text getCurrentKey() {
+            return term;
+        }
+
+        @Override
+        public TermPostingsWritable getCurrentValue() {
+            return postings;
+        }
+
+        /** Progress by terms, which is exact when no range skips part of the blocks and no term spans blocks */
+        @Override
+        public float getProgress() {
+            return termsToRead == 0 ? 1f : Math.min(1f, (float) termsRead / termsToRead);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null)
+                reader.close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Writes the reducer's term-sorted postings as a BlockIndexFile per reducer instead of text
+ * lines. The block size and the deflate level come from positional.index.block.bytes and
+ * positional.index.block.level, the defaults favour write speed.
+ */
+public class BlockIndexOutputFormat extends FileOutputFormat<Text, TermPostingsWritable> {
+    public static final String BLOCK_BYTES = "positional.index.block.bytes";
+    public static final String LEVEL = "positional.index.block.level";
+    public static final int DEFAULT_LEVEL = 1;
+
+    @Override
+    public RecordWriter<Text, TermPostingsWritable> getRecordWriter(TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Path file = getDefaultWorkFile(context, "");
+        BlockIndexFile.Writer writer = new BlockIndexFile.Writer(file.getFileSystem(conf).create(file, false),
+                conf.getInt(BLOCK_BYTES, BlockIndexFile.DEFAULT_BLOCK_BYTES), conf.getInt(LEVEL, DEFAULT_LEVEL));
+        return new RecordWriter<>() {
+            @Override
+            public void write(Text term, TermPostingsWritable postings) throws IOException {
+                writer.append(term, postings);
+            }
+
+            @Override
+            public void close(TaskAttemptContext context) throws IOException {
+                writer.close();
+            }
+        };
+    }
+}
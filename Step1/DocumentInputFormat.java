@@ -0,0 +1,15 @@
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ * Text input that never splits a file, so each document is read by a single mapper
+ * and token positions can be counted from the start of the document instead of per line.
+ */
+public class DocumentInputFormat extends TextInputFormat {
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return false;
+    }
+}
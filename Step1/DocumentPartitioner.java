@@ -0,0 +1,20 @@
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Sends every posting of a document to the same reducer, so each reducer's part file is the
+ * complete index of its share of the documents (a shard) instead of a share of the terms.
+ * Every map output posting belongs to a single document, so the value decides the partition.
+ */
+public class DocumentPartitioner extends Partitioner<Text, PostingWritable> {
+
+    @Override
+    public int getPartition(Text key, PostingWritable value, int numPartitions) {
+        return shardOf(value.getDocId(), numPartitions);
+    }
+
+    /** Shard of a document name, the same in every run */
+    public static int shardOf(String docId, int shards) {
+        return (docId.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+}
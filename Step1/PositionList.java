@@ -0,0 +1,68 @@
+import java.util.Arrays;
+
+/** Growable list of primitive int positions, avoids boxing one Integer per token */
+public class PositionList {
+    private int[] positions;
+    private int size;
+
+    public PositionList() {
+        this(4);
+    }
+
+    public PositionList(int capacity) {
+        positions = new int[capacity];
+    }
+
+    public void add(int position) {
+        if (size == positions.length)
+            positions = Arrays.copyOf(positions, size * 2);
+        positions[size++] = position;
+    }
+
+    public void addAll(PostingWritable posting) {
+        for (int i = 0; i < posting.size(); i++)
+            add(posting.getPosition(i));
+    }
+
+    /** Append the posting's positions, true if they all follow the last one already in the list */
+    public boolean addAllInOrder(PostingWritable posting) {
+        boolean inOrder = true;
+        for (int i = 0; i < posting.size(); i++) {
+            int position = posting.getPosition(i);
+            if (size > 0 && position <= positions[size - 1])
+                inOrder = false;
+            add(position);
+        }
+        return inOrder;
+    }
+
+    /** Sort the positions and drop duplicates */
+    public void sortUnique() {
+        Arrays.sort(positions, 0, size);
+        if (size == 0)
+            return;
+        int unique = 1;
+        for (int i = 1; i < size; i++) {
+            if (positions[i] != positions[unique - 1])
+                positions[unique++] = positions[i];
+        }
+        size = unique;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int get(int index) {
+        return positions[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Backing array, only the first size() entries are valid */
+    public int[] array() {
+        return positions;
+    }
+}
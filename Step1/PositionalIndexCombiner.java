@@ -0,0 +1,31 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Map-side combiner, merges all postings of a term into one posting per document
+ * so only a single doc id and a delta-encoded position list goes through the shuffle.
+ */
+public class PositionalIndexCombiner extends Reducer<Text, PostingWritable, Text, PostingWritable> {
+    private PostingWritable result = new PostingWritable();
+
+    @Override
+    protected void reduce(Text key, Iterable<PostingWritable> values, Context context)
+            throws IOException, InterruptedException {
+        Map<String, PositionList> docPositionsMap = new HashMap<>();
+
+        // The framework reuses val between iterations, so its positions are copied out
+        for (PostingWritable val : values) {
+            docPositionsMap.computeIfAbsent(val.getDocId(), k -> new PositionList()).addAll(val);
+        }
+
+        for (Map.Entry<String, PositionList> entry : docPositionsMap.entrySet()) {
+            PositionList positions = entry.getValue();
+            positions.sortUnique();
+            result.set(entry.getKey(), positions.array(), positions.size());
+            context.write(key, result);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Converts the output of the positional index job, text or BlockIndexOutputFormat blocks, into
+ * the binary index read by Step2's MappedIndex.
+ * The part files are sorted by term, so they are merged without loading the whole index in memory.
+ *
+ * Layout, all numbers big-endian, vint = unsigned LEB128:
+ * <pre>
+ * header      int magic, int version, int docCount, int termCount,
+ *             long docIndexOffset, long docNamesOffset, long normsOffset, long termIndexOffset, long dictionaryOffset
+ * postings    per term: vint blockCount, vint skipBytes, blockCount x (vint lastDoc, vint blockBytes), then the blocks.
+ *             A block holds up to BLOCK_SIZE docs: vint docDelta, vint freq, freq x vint positionDelta.
+ *             Doc deltas restart from the last doc of the previous block so each block decodes on its own.
+ * norms       double[docCount], euclidean length of each document's tf-idf vector
+ * docIndex    int[docCount], offset of each name relative to docNames
+ * docNames    short length + UTF-8 bytes, doc ids are assigned in sorted name order
+ * termIndex   int[termCount], offset of each entry relative to dictionary
+ * dictionary  short length + UTF-8 term bytes, int docFreq, long postingsOffset, int postingsLength,
+ *             float maxImpact, sorted by the unsigned UTF-8 bytes of the term. maxImpact is an upper
+ *             bound of tf-idf weight / doc norm over the term's documents, used to skip documents
+ *             that cannot reach the top k.
+ * </pre>
+ */
+public class PositionalIndexConverter {
+    /** Driver option, when set the job output is also converted to this local binary file */
+    public static final String BINARY_OUTPUT = "positional.index.binary.output";
+
+    public static final int MAGIC = 0x50494458; // "PIDX"
+    public static final int VERSION = 2;
+    public static final int HEADER_BYTES = 64;
+    public static final int BLOCK_SIZE = 128;
+    /** Terms and doc names are stored after an unsigned short length */
+    public static final int MAX_ENTRY_BYTES = 0xFFFF;
+
+    private static final Comparator<byte[]> UTF8_ORDER = Arrays::compareUnsigned;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: PositionalIndexConverter <job output path or text index> <binary index file>");
+            System.exit(-1);
+        }
+        long start = System.currentTimeMillis();
+        convert(new Path(args[0]), args[1], new Configuration());
+        System.out.printf("Wrote %s in %d ms%n", args[1], System.currentTimeMillis() - start);
+    }
+
+    /** Convert a job output directory (its part files) or a single text index file */
+    public static void convert(Path input, String output, Configuration conf) throws IOException {
+        FileSystem fs = input.getFileSystem(conf);
+        List<Path> parts = new ArrayList<>();
+        if (fs.getFileStatus(input).isDirectory()) {
+            for (FileStatus status : fs.globStatus(new Path(input, "part-*")))
+                parts.add(status.getPath());
+        } else
+            parts.add(input);
+
+        // Pass 1: collect the document names so doc ids follow the sorted name order
+        TreeSet<String> docNames = new TreeSet<>();
+        try (TermMerger merger = new TermMerger(fs, parts)) {
+            for (String[] line; (line = merger.next()) != null;) {
+                for (int i = 1; i < line.length; i++) {
+                    for (String entry : line[i].split(";")) {
+                        int colon = entry.indexOf(':');
+                        if (colon > 0)
+                            docNames.add(entry.substring(0, colon).trim());
+                    }
+                }
+            }
+        }
+        String[] docs = docNames.toArray(String[]::new);
+
+        // Pass 2: postings, then the tables that are only complete once all postings are written
+        try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            CountingStream counter = new CountingStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.write(new byte[HEADER_BYTES]);
+
+            double[] squaredNorms = new double[docs.length];
+            ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+            DataOutputStream dictionaryOut = new DataOutputStream(dictionary);
+            List<Integer> termOffsets = new ArrayList<>();
+            List<Integer> docFreqs = new ArrayList<>();
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            ByteArrayOutputStream skips = new ByteArrayOutputStream();
+
+            try (TermMerger merger = new TermMerger(fs, parts)) {
+                for (String[] line; (line = merger.next()) != null;) {
+                    List<int[]> postings = parsePostings(line, docs); // {doc, positions...}
+                    if (postings.isEmpty())
+                        continue;
+                    postings.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+                    double idf = Math.log10((double) docs.length / postings.size());
+                    long postingsOffset = counter.count;
+                    writePostings(out, postings, block, skips);
+                    for (int[] posting : postings) {
+                        double weight = tfWeight(posting.length - 1) * idf;
+                        squaredNorms[posting[0]] += weight * weight;
+                    }
+
+                    byte[] term = checkLength(line[0].getBytes(StandardCharsets.UTF_8), "Term", line[0]);
+                    termOffsets.add(dictionary.size());
+                    dictionaryOut.writeShort(term.length);
+                    dictionaryOut.write(term);
+                    dictionaryOut.writeInt(postings.size());
+                    dictionaryOut.writeLong(postingsOffset);
+                    dictionaryOut.writeInt((int) (counter.count - postingsOffset));
+                    dictionaryOut.writeFloat(0f); // maxImpact, known once all norms are
+                    docFreqs.add(postings.size());
+                }
+            }
+            out.flush();
+            long postingsEnd = counter.count;
+            double[] norms = new double[docs.length];
+            for (int doc = 0; doc < docs.length; doc++)
+                norms[doc] = Math.sqrt(squaredNorms[doc]);
+
+            // Read the postings back in term order to compute each term's max impact
+            byte[] dictionaryBytes = dictionary.toByteArray();
+            ByteBuffer dictionaryBuffer = ByteBuffer.wrap(dictionaryBytes);
+            channel.position(HEADER_BYTES);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            for (int t = 0; t < termOffsets.size(); t++) {
+                int docFreq = docFreqs.get(t);
+                double idf = Math.log10((double) docs.length / docFreq);
+                readVInt(in); // blockCount
+                int skipBytes = readVInt(in);
+                if (in.skipBytes(skipBytes) != skipBytes)
+                    throw new EOFException("Postings of term " + t + " are truncated");
+                double maxImpact = 0;
+                for (int i = 0, doc = 0; i < docFreq; i++) {
+                    doc += readVInt(in); // deltas run on across block boundaries
+                    int freq = readVInt(in);
+                    for (int p = 0; p < freq; p++)
+                        readVInt(in);
+                    if (norms[doc] > 0)
+                        maxImpact = Math.max(maxImpact, tfWeight(freq) * idf / norms[doc]);
+                }
+                int entry = termOffsets.get(t);
+                dictionaryBuffer.putFloat(entry + 2 + dictionaryBuffer.getShort(entry) + 16, Math.nextUp((float) maxImpact));
+            }
+            channel.position(postingsEnd);
+
+            long normsOffset = counter.count;
+            for (double norm : norms)
+                out.writeDouble(norm);
+
+            long docIndexOffset = counter.count;
+            ByteArrayOutputStream names = new ByteArrayOutputStream();
+            DataOutputStream namesOut = new DataOutputStream(names);
+            for (String doc : docs) {
+                out.writeInt(names.size());
+                byte[] name = checkLength(doc.getBytes(StandardCharsets.UTF_8), "Document name", doc);
+                namesOut.writeShort(name.length);
+                namesOut.write(name);
+            }
+            long docNamesOffset = counter.count;
+            names.writeTo(out);
+
+            long termIndexOffset = counter.count;
+            for (int offset : termOffsets)
+                out.writeInt(offset);
+            long dictionaryOffset = counter.count;
+            out.write(dictionaryBytes);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(docs.length).putInt(termOffsets.size())
+                    .putLong(docIndexOffset).putLong(docNamesOffset).putLong(normsOffset)
+                    .putLong(termIndexOffset).putLong(dictionaryOffset).flip();
+            channel.write(header, 0);
+        }
+    }
+
+    /** Parse "doc: p1,p2; doc2: p1" entries of every line merged for a term into {doc, positions...} */
+    static List<int[]> parsePostings(String[] line, String[] docs) {
+        List<int[]> postings = new ArrayList<>();
+        for (int i = 1; i < line.length; i++) {
+            for (String entry : line[i].split(";")) {
+                int colon = entry.indexOf(':');
+                if (colon <= 0)
+                    continue;
+                int doc = Arrays.binarySearch(docs, entry.substring(0, colon).trim());
+                String[] positions = entry.substring(colon + 1).trim().split(",");
+                int[] posting = new int[positions.length + 1];
+                posting[0] = doc;
+                for (int p = 0; p < positions.length; p++)
+                    posting[p + 1] = Integer.parseInt(positions[p].trim());
+                Arrays.sort(posting, 1, posting.length);
+                postings.add(posting);
+            }
+        }
+        return postings;
+    }
+
+    /** Write the skip header and the blocks of one term, postings must be sorted by doc */
+    static void writePostings(DataOutputStream out, List<int[]> postings, ByteArrayOutputStream block,
+            ByteArrayOutputStream skips) throws IOException {
+        block.reset();
+        skips.reset();
+        int blockCount = 0, previousDoc = 0, blockStart = 0;
+        for (int i = 0; i < postings.size(); i++) {
+            int[] posting = postings.get(i);
+            writeVInt(block, posting[0] - previousDoc);
+            writeVInt(block, posting.length - 1);
+            int previousPosition = 0;
+            for (int p = 1; p < posting.length; p++) {
+                writeVInt(block, posting[p] - previousPosition);
+                previousPosition = posting[p];
+            }
+            previousDoc = posting[0];
+
+            if ((i + 1) % BLOCK_SIZE == 0 || i == postings.size() - 1) {
+                writeVInt(skips, previousDoc);
+                writeVInt(skips, block.size() - blockStart);
+                blockStart = block.size();
+                blockCount++;
+            }
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream(10);
+        writeVInt(header, blockCount);
+        writeVInt(header, skips.size());
+        header.writeTo(out);
+        skips.writeTo(out);
+        block.writeTo(out);
+    }
+
+    /** The UTF-8 bytes of a term or doc name, rejected if its length does not fit the short before it */
+    static byte[] checkLength(byte[] bytes, String what, String value) {
+        if (bytes.length > MAX_ENTRY_BYTES)
+            throw new IllegalArgumentException(what + " of " + bytes.length + " UTF-8 bytes is longer than the "
+                    + MAX_ENTRY_BYTES + " a binary index holds: " + value.substring(0, 40) + "...");
+        return bytes;
+    }
+
+    static int readVInt(DataInputStream in) throws IOException {
+        byte b = in.readByte();
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    static void writeVInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Same weighting as TFIDFCalculator.tf_weight in Step2, the norms must match its scores */
+    static double tfWeight(int tfRaw) {
+        if (tfRaw < 1)
+            return 0.0;
+        return 1 + Math.log10(tfRaw);
+    }
+
+    /** Counts the bytes written so far, DataOutputStream.size() overflows past 2 GB */
+    static class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Merges the term-sorted part files. Returns {term, postings of part a, postings of part b, ...}
+     * so a term found in several parts keeps all of its postings. Text parts and the block files
+     * of BlockIndexOutputFormat can be mixed, block postings come back in their text form.
+     */
+    static class TermMerger implements Closeable {
+        private final List<Closeable> readers = new ArrayList<>();
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> UTF8_ORDER.compare(a.key, b.key));
+
+        private static class Head {
+            final BufferedReader reader;
+            final BlockIndexFile.Reader blockReader;
+            final Text blockTerm = new Text();
+            final TermPostingsWritable blockPostings = new TermPostingsWritable();
+            String term, postings;
+            byte[] key;
+
+            Head(BufferedReader reader, BlockIndexFile.Reader blockReader) {
+                this.reader = reader;
+                this.blockReader = blockReader;
+            }
+
+            boolean advance() throws IOException {
+                if (blockReader != null) {
+                    if (!blockReader.next(blockTerm, blockPostings))
+                        return false;
+                    term = blockTerm.toString();
+                    postings = blockPostings.toString();
+                    key = Arrays.copyOf(blockTerm.getBytes(), blockTerm.getLength());
+                    return true;
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab < 0)
+                        continue;
+                    term = line.substring(0, tab);
+                    postings = line.substring(tab + 1);
+                    key = term.getBytes(StandardCharsets.UTF_8);
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        TermMerger(FileSystem fs, List<Path> parts) throws IOException {
+            for (Path part : parts) {
+                Head head;
+                if (BlockIndexFile.isBlockFile(fs, part)) {
+                    BlockIndexFile.Reader reader = new BlockIndexFile.Reader(fs, part);
+                    readers.add(reader);
+                    head = new Head(null, reader);
+                } else {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(part), StandardCharsets.UTF_8));
+                    readers.add(reader);
+                    head = new Head(reader, null);
+                }
+                if (head.advance())
+                    heads.add(head);
+            }
+        }
+
+        String[] next() throws IOException {
+            Head head = heads.poll();
+            if (head == null)
+                return null;
+            List<String> line = new ArrayList<>();
+            line.add(head.term);
+            line.add(head.postings);
+            if (head.advance())
+                heads.add(head);
+            while (!heads.isEmpty() && heads.peek().term.equals(line.get(0))) {
+                Head same = heads.poll();
+                line.add(same.postings);
+                if (same.advance())
+                    heads.add(same);
+            }
+            return line.toArray(String[]::new);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Closeable reader : readers)
+                reader.close();
+        }
+    }
+}
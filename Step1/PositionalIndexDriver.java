@@ -1,30 +1,136 @@
-import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
 
-public class PositionalIndexDriver {
+public class PositionalIndexDriver extends Configured implements Tool {
+    /** Number of document shards, each reducer then writes the complete index of one shard */
+    public static final String SHARDS = "positional.index.shards";
+
+    /** "text" (default) for tab-separated lines, "block" for BlockIndexOutputFormat's compressed blocks */
+    public static final String OUTPUT_FORMAT = "positional.index.output.format";
+
+    /**
+     * Shuffle on (term, document, position) so the reducer streams each term's postings in order
+     * instead of collecting them in a map, for terms too frequent to hold as objects
+     */
+    public static final String SECONDARY_SORT = "positional.index.secondary.sort";
+
+    /**
+     * Also index pairs of adjacent terms that are in at least this many documents, written as
+     * a text index of their own to biwords-r-NNNNN for BiwordIndex. 0, the default, writes none.
+     * Not with SHARDS, which would split the docs of a pair between reducers.
+     */
+    public static final String BIWORD_MIN_DOC_FREQ = "positional.index.biwords.min.doc.freq";
+
+    /** Used to compare the shuffle size against the old per-token Text records */
+    public enum ShuffleCounter {
+        TEXT_RECORD_BYTES, // what one (term, "docId@position") Text record per token would have serialized to
+        IN_MAPPER_FLUSHES // times the in-mapper buffer was emitted
+    }
 
     public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new PositionalIndexDriver(), args));
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
         if (args.length != 2) {
-            System.err.println("Usage: PositionalIndexDriver <input path> <output path>");
-            System.exit(-1);
+            System.err.println("Usage: PositionalIndexDriver [-D " + PositionalIndexMapper.IN_MAPPER_COMBINING
+                    + "=true] [-D " + PositionalIndexMapper.BUFFER_BYTES + "=<bytes>] [-D "
+                    + PositionalIndexConverter.BINARY_OUTPUT + "=<local file>] [-D " + SHARDS
+                    + "=<count>] [-D " + OUTPUT_FORMAT + "=text|block] [-D " + SECONDARY_SORT + "=true] [-D "
+                    + BIWORD_MIN_DOC_FREQ + "=<docs>] [-D " + Analyzer.STOPWORDS + "=true] [-D " + Analyzer.STEMMING
+                    + "=true] <input path> <output path>");
+            return -1;
         }
 
-        Configuration conf = new Configuration();
-        Job job = Job.getInstance(conf, "Positional Index");
+        Job job = Job.getInstance(getConf(), "Positional Index");
         job.setJarByClass(PositionalIndexDriver.class);
+        job.setInputFormatClass(DocumentInputFormat.class);
         job.setMapperClass(PositionalIndexMapper.class);
-        job.setReducerClass(PositionalIndexReducer.class);
+        int shards = getConf().getInt(SHARDS, 0);
+        if (shards > 0)
+            job.setNumReduceTasks(shards);
+        if (getConf().getInt(BIWORD_MIN_DOC_FREQ, 0) > 0) {
+            // Biwords come out of PositionalIndexReducer as a second text output
+            if (getConf().getBoolean(SECONDARY_SORT, false) || !getConf().get(OUTPUT_FORMAT, "text").equals("text"))
+                throw new IllegalArgumentException(BIWORD_MIN_DOC_FREQ + " needs the text output without " + SECONDARY_SORT);
+            // Each reducer applies the threshold to its own docs of a pair, so they must all reach the same one
+            if (shards > 0)
+                throw new IllegalArgumentException(BIWORD_MIN_DOC_FREQ + " cannot be combined with " + SHARDS);
+            MultipleOutputs.addNamedOutput(job, PositionalIndexReducer.BIWORDS, TextOutputFormat.class, Text.class,
+                    TermPostingsWritable.class);
+        }
+        if (getConf().getBoolean(SECONDARY_SORT, false)) {
+            job.setMapOutputKeyClass(TermDocPositionKey.class);
+            job.setPartitionerClass(TermDocPartitioner.class);
+            job.setSortComparatorClass(TermDocPositionKey.Comparator.class);
+            job.setGroupingComparatorClass(TermDocPositionKey.TermGroupingComparator.class);
+            job.setCombinerClass(SecondarySortCombiner.class);
+            job.setCombinerKeyGroupingComparatorClass(TermDocPositionKey.DocGroupingComparator.class);
+            job.setReducerClass(SecondarySortReducer.class);
+        } else {
+            job.setMapOutputKeyClass(Text.class);
+            if (shards > 0)
+                job.setPartitionerClass(DocumentPartitioner.class);
+            job.setCombinerClass(PositionalIndexCombiner.class);
+            job.setReducerClass(PositionalIndexReducer.class);
+        }
 
+        job.setMapOutputValueClass(PostingWritable.class);
         job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
+        job.setOutputValueClass(TermPostingsWritable.class);
+        String outputFormat = getConf().get(OUTPUT_FORMAT, "text");
+        if (outputFormat.equals("block"))
+            job.setOutputFormatClass(BlockIndexOutputFormat.class);
+        else if (!outputFormat.equals("text"))
+            throw new IllegalArgumentException("Unknown " + OUTPUT_FORMAT + ": " + outputFormat);
+        else if (getConf().getBoolean(SECONDARY_SORT, false))
+            job.setOutputFormatClass(PostingsTextOutputFormat.class); // joins the reducer's records per document into lines
 
         FileInputFormat.addInputPath(job, new Path(args[0]));
         FileOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        boolean success = job.waitForCompletion(true);
+        if (success) {
+            printShuffleReport(job.getCounters());
+            String binaryOutput = getConf().get(PositionalIndexConverter.BINARY_OUTPUT);
+            if (binaryOutput != null && shards > 0) {
+                // One binary index per shard: <file>.0, <file>.1, ...
+                for (int shard = 0; shard < shards; shard++)
+                    PositionalIndexConverter.convert(new Path(args[1], String.format("part-r-%05d", shard)),
+                            binaryOutput + "." + shard, getConf());
+            } else if (binaryOutput != null)
+                PositionalIndexConverter.convert(new Path(args[1]), binaryOutput, getConf());
+        }
+        return success ? 0 : 1;
+    }
+
+    /** Print the map output size with the old Text values next to what was actually shuffled */
+    static void printShuffleReport(Counters counters) {
+        long textMapOutputBytes = counters.findCounter(ShuffleCounter.TEXT_RECORD_BYTES).getValue();
+        long mapOutputBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+        long materializedBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES).getValue();
+        long shuffleBytes = counters.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue();
+        long flushes = counters.findCounter(ShuffleCounter.IN_MAPPER_FLUSHES).getValue();
+
+        System.out.println("Shuffle report:");
+        System.out.printf("  map output, per-token Text records: %d bytes%n", textMapOutputBytes);
+        System.out.printf("  map output, posting values: %d bytes%n", mapOutputBytes);
+        if (flushes > 0)
+            System.out.printf("  in-mapper buffer flushes: %d%n", flushes);
+        System.out.printf("  map output after combiner: %d bytes%n", materializedBytes);
+        System.out.printf("  reduce shuffle bytes: %d bytes%n", shuffleBytes);
+        if (shuffleBytes > 0)
+            System.out.printf("  reduction: %.1fx%n", (double) textMapOutputBytes / shuffleBytes);
     }
 }
@@ -1,25 +1,159 @@
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
-public class PositionalIndexMapper extends Mapper<LongWritable, Text, Text, Text> {
+/**
+ * Emits a posting for every term of a document. Documents are never split (see DocumentInputFormat),
+ * so positions are counted from the start of the document across all of its lines. Terms come
+ * from an Analyzer reading the line's UTF-8 bytes in place, configured by Analyzer.STOPWORDS and
+ * Analyzer.STEMMING, and are copied into the reused output key without building Strings.
+ *
+ * With positional.index.inmapper.combining enabled the postings of the split are aggregated
+ * in memory per term and emitted once, either when the buffer estimate reaches
+ * positional.index.inmapper.buffer.bytes or in cleanup().
+ *
+ * In the secondary-sort mode (PositionalIndexDriver.SECONDARY_SORT) the key is a
+ * TermDocPositionKey of the term, the document and the posting's first position instead of
+ * the term alone. The key then names the document, so the posting's doc id is left empty.
+ *
+ * With PositionalIndexDriver.BIWORD_MIN_DOC_FREQ set every pair of adjacent terms is emitted
+ * too, as the two terms joined by a space at the position of the first, which no term of the
+ * Analyzer contains. The reducer keeps the frequent ones in a separate output.
+ */
+public class PositionalIndexMapper extends Mapper<LongWritable, Text, WritableComparable<?>, PostingWritable> {
+    public static final String IN_MAPPER_COMBINING = "positional.index.inmapper.combining";
+    public static final String BUFFER_BYTES = "positional.index.inmapper.buffer.bytes";
+    public static final long DEFAULT_BUFFER_BYTES = 64L * 1024 * 1024;
+
+    // Rough heap cost of a buffered term: map entry, Text, PositionList and its array header
+    private static final int TERM_OVERHEAD_BYTES = 128;
+    private static final byte[] SPACE = { ' ' };
 
     private Text word = new Text();
-    private Text position = new Text();
+    private Text previous = new Text(); // the term before word in the document, for its biword
+    private Text biword = new Text();
+    private PostingWritable posting = new PostingWritable();
+    private TermDocPositionKey sortKey = new TermDocPositionKey();
+    private Analyzer analyzer;
+    private boolean secondarySort;
+    private boolean biwords;
+
+    private String docId;
+    private Text docIdText;
+    private String postingDocId; // empty when the key names the document
+    private int position; // next token position in the document
+
+    private boolean inMapperCombining;
+    private long maxBufferBytes;
+    private Map<Text, PositionList> buffer; // looked up with the reused word, keys are copies
+    private long bufferBytes;
+
+    @Override
+    protected void setup(Context context) {
+        FileSplit fileSplit = (FileSplit) context.getInputSplit();
+        docId = fileSplit.getPath().getName(); // Get the filename
+        docIdText = new Text(docId);
+        position = 0;
+
+        Configuration conf = context.getConfiguration();
+        inMapperCombining = conf.getBoolean(IN_MAPPER_COMBINING, false);
+        maxBufferBytes = conf.getLong(BUFFER_BYTES, DEFAULT_BUFFER_BYTES);
+        analyzer = new Analyzer(conf.getBoolean(Analyzer.STOPWORDS, false), conf.getBoolean(Analyzer.STEMMING, false));
+        secondarySort = conf.getBoolean(PositionalIndexDriver.SECONDARY_SORT, false);
+        postingDocId = secondarySort ? "" : docId;
+        biwords = conf.getInt(PositionalIndexDriver.BIWORD_MIN_DOC_FREQ, 0) > 0;
+        previous.clear();
+        buffer = new HashMap<>();
+        bufferBytes = 0;
+    }
 
     @Override
     protected void map(LongWritable key, Text value, Context context)
             throws IOException, InterruptedException {
-        FileSplit fileSplit = (FileSplit) context.getInputSplit();
-        String docId = fileSplit.getPath().getName(); // Get the filename
-        String[] words = value.toString().split("\\s+");
+        analyzer.reset(value.getBytes(), 0, value.getLength());
+
+        long textRecordBytes = 0;
+        while (analyzer.next()) {
+            int i = position++;
+            word.set(analyzer.term(), 0, analyzer.length());
+
+            // What the old (term, "docId@position") Text record would have cost in the shuffle
+            int legacyLength = docId.length() + 1 + Integer.toString(i).length();
+            textRecordBytes += WritableUtils.getVIntSize(word.getLength()) + word.getLength()
+                    + WritableUtils.getVIntSize(legacyLength) + legacyLength;
+
+            if (inMapperCombining)
+                bufferPosition(word, i);
+            else {
+                posting.set(postingDocId, i);
+                emit(word, context);
+            }
+            if (biwords) {
+                // Positions run on across lines, so a pair can span two of them
+                if (i > 0) {
+                    biword.set(previous);
+                    biword.append(SPACE, 0, 1);
+                    biword.append(word.getBytes(), 0, word.getLength());
+                    if (inMapperCombining)
+                        bufferPosition(biword, i - 1);
+                    else {
+                        posting.set(postingDocId, i - 1);
+                        emit(biword, context);
+                    }
+                }
+                previous.set(word);
+            }
+        }
+        context.getCounter(PositionalIndexDriver.ShuffleCounter.TEXT_RECORD_BYTES).increment(textRecordBytes);
+
+        if (inMapperCombining && bufferBytes >= maxBufferBytes)
+            flush(context);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (inMapperCombining)
+            flush(context);
+    }
+
+    private void bufferPosition(Text term, int i) {
+        PositionList positions = buffer.get(term);
+        if (positions == null) {
+            positions = new PositionList();
+            buffer.put(new Text(term), positions);
+            bufferBytes += TERM_OVERHEAD_BYTES + term.getLength();
+        }
+        positions.add(i);
+        bufferBytes += Integer.BYTES;
+    }
+
+    /** Write the posting under the term, or under the composite key when sorting by position too */
+    private void emit(Text term, Context context) throws IOException, InterruptedException {
+        if (secondarySort) {
+            sortKey.set(term, docIdText, posting.getPosition(0));
+            context.write(sortKey, posting);
+        } else
+            context.write(term, posting);
+    }
 
-        for (int i = 0; i < words.length; i++) {
-            word.set(words[i].toLowerCase());
-            position.set(docId + "@" + i);
-            context.write(word, position);
+    /** Emit one posting per buffered term, positions are already in increasing order */
+    private void flush(Context context) throws IOException, InterruptedException {
+        if (buffer.isEmpty())
+            return;
+        for (Map.Entry<Text, PositionList> entry : buffer.entrySet()) {
+            PositionList positions = entry.getValue();
+            posting.set(postingDocId, positions.array(), positions.size());
+            emit(entry.getKey(), context);
         }
+        context.getCounter(PositionalIndexDriver.ShuffleCounter.IN_MAPPER_FLUSHES).increment(1);
+        buffer.clear();
+        bufferBytes = 0;
     }
 }
@@ -1,36 +1,71 @@
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
-public class PositionalIndexReducer extends Reducer<Text, Text, Text, Text> {
-    private Text result = new Text();
+/**
+ * Merges the postings of a term into one TermPostingsWritable, docs sorted by name and the
+ * positions of each doc sorted and distinct. Names sort by code point, the order of their UTF-8
+ * bytes, which is how SecondarySortReducer receives them. The output format decides how it is written: a
+ * text line by default, compressed blocks with BlockIndexOutputFormat.
+ *
+ * Biwords, keys holding a space (see PositionalIndexMapper), go to the BIWORDS named output
+ * instead, biwords-r-NNNNN next to the part files, and only when they are in at least
+ * PositionalIndexDriver.BIWORD_MIN_DOC_FREQ documents.
+ */
+public class PositionalIndexReducer extends Reducer<Text, PostingWritable, Text, TermPostingsWritable> {
+    static final Comparator<String> CODE_POINT_ORDER = (a, b) -> {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i), y = b.codePointAt(j);
+            if (x != y)
+                return Integer.compare(x, y);
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    };
+
+    static final String BIWORDS = "biwords";
+
+    private TermPostingsWritable result = new TermPostingsWritable();
+    private int biwordMinDocFreq;
+    private MultipleOutputs<Text, TermPostingsWritable> outputs;
+
+    @Override
+    protected void setup(Context context) {
+        biwordMinDocFreq = context.getConfiguration().getInt(PositionalIndexDriver.BIWORD_MIN_DOC_FREQ, 0);
+        if (biwordMinDocFreq > 0)
+            outputs = new MultipleOutputs<>(context);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (outputs != null)
+            outputs.close();
+    }
 
     @Override
-    protected void reduce(Text key, Iterable<Text> values, Context context)
+    protected void reduce(Text key, Iterable<PostingWritable> values, Context context)
             throws IOException, InterruptedException {
-        Map<String, TreeSet<Integer>> docPositionsMap = new HashMap<>();
+        Map<String, PositionList> docPositionsMap = new TreeMap<>(CODE_POINT_ORDER);
 
-        for (Text val : values) {
-            String[] docPosition = val.toString().split("@");
-            String docId = docPosition[0];
-            int position = Integer.parseInt(docPosition[1]);
-            if (!docPositionsMap.containsKey(docId)) {
-                docPositionsMap.put(docId, new TreeSet<Integer>());
-            }
-            docPositionsMap.get(docId).add(position);
+        // The framework reuses val between iterations, so its positions are copied out
+        for (PostingWritable val : values) {
+            docPositionsMap.computeIfAbsent(val.getDocId(), k -> new PositionList()).addAll(val);
         }
-        StringBuilder aggregatedPositions = new StringBuilder();
-        for (Map.Entry<String, TreeSet<Integer>> entry : docPositionsMap.entrySet()) {
-            if (aggregatedPositions.length() > 0) {
-                aggregatedPositions.append("; ");
-            }
-            aggregatedPositions.append(entry.getKey()).append(": ");
-            aggregatedPositions.append(entry.getValue().toString().replaceAll("[\\[\\] ]", ""));
+        result.clear();
+        for (Map.Entry<String, PositionList> entry : docPositionsMap.entrySet()) {
+            PositionList positions = entry.getValue();
+            positions.sortUnique();
+            result.add(entry.getKey(), positions.array(), positions.size());
         }
-        result.set(aggregatedPositions.toString());
-        context.write(key, result);
+        if (outputs == null || key.find(" ") < 0)
+            context.write(key, result);
+        else if (docPositionsMap.size() >= biwordMinDocFreq)
+            outputs.write(BIWORDS, key, result, BIWORDS);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Positions of one term inside one document.
+ * The doc id is written once, followed by the positions as delta-encoded vints,
+ * so a posting costs a few bytes per position instead of a "docId@position" string.
+ */
+public class PostingWritable implements Writable {
+    private Text docId = new Text();
+    private int[] positions = new int[8];
+    private int size;
+
+    public PostingWritable() {
+    }
+
+    public PostingWritable(String docId, int position) {
+        set(docId, position);
+    }
+
+    /** Reset to a single position in the given document */
+    public void set(String docId, int position) {
+        this.docId.set(docId);
+        size = 0;
+        add(position);
+    }
+
+    /** Reset to a copy of the given positions, which must be sorted */
+    public void set(String docId, int[] positions, int size) {
+        this.docId.set(docId);
+        this.size = 0;
+        ensureCapacity(size);
+        System.arraycopy(positions, 0, this.positions, 0, size);
+        this.size = size;
+    }
+
+    /** Append a position, positions must be added in increasing order */
+    public void add(int position) {
+        ensureCapacity(size + 1);
+        positions[size++] = position;
+    }
+
+    public String getDocId() {
+        return docId.toString();
+    }
+
+    public int getPosition(int index) {
+        return positions[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > positions.length)
+            positions = Arrays.copyOf(positions, Math.max(capacity, positions.length * 2));
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        docId.write(out);
+        WritableUtils.writeVInt(out, size);
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            WritableUtils.writeVInt(out, positions[i] - previous);
+            previous = positions[i];
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        docId.readFields(in);
+        int count = WritableUtils.readVInt(in);
+        size = 0;
+        ensureCapacity(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += WritableUtils.readVInt(in);
+            positions[i] = previous;
+        }
+        size = count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(docId.toString()).append(": ");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(positions[i]);
+        }
+        return sb.toString();
+    }
+}
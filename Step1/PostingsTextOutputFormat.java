@@ -0,0 +1,66 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * The text lines of TextOutputFormat for a reducer that writes a term's postings a few documents
+ * at a time, as SecondarySortReducer does: consecutive records of the same term go on the same
+ * line, joined by "; " as TermPostingsWritable joins documents, so the lines are the same as
+ * those of one record per term. Compression and the separator are set up as TextOutputFormat's.
+ */
+public class PostingsTextOutputFormat extends FileOutputFormat<Text, TermPostingsWritable> {
+    private static final byte[] NEWLINE = "\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DOCUMENT_SEPARATOR = "; ".getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public RecordWriter<Text, TermPostingsWritable> getRecordWriter(TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        byte[] separator = conf.get(TextOutputFormat.SEPARATOR, "\t").getBytes(StandardCharsets.UTF_8);
+        CompressionCodec codec = null;
+        String extension = "";
+        if (getCompressOutput(context)) {
+            codec = ReflectionUtils.newInstance(getOutputCompressorClass(context, GzipCodec.class), conf);
+            extension = codec.getDefaultExtension();
+        }
+        Path path = getDefaultWorkFile(context, extension);
+        FSDataOutputStream file = path.getFileSystem(conf).create(path, false);
+        DataOutputStream out = codec == null ? file : new DataOutputStream(codec.createOutputStream(file));
+        return new RecordWriter<>() {
+            private final Text line = new Text(); // the term of the open line
+            private boolean open;
+
+            @Override
+            public void write(Text term, TermPostingsWritable postings) throws IOException {
+                if (open && term.equals(line))
+                    out.write(DOCUMENT_SEPARATOR);
+                else {
+                    if (open)
+                        out.write(NEWLINE);
+                    out.write(term.getBytes(), 0, term.getLength());
+                    out.write(separator);
+                    line.set(term);
+                    open = true;
+                }
+                out.write(postings.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void close(TaskAttemptContext context) throws IOException {
+                if (open)
+                    out.write(NEWLINE);
+                out.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,30 @@
+import java.io.IOException;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Map-side combiner of the secondary-sort mode. Its values are grouped by term and document
+ * and arrive ordered by position, so the positions are appended as they come and written as
+ * one posting keyed by the first of them. As in the mapper's output the posting's doc id stays
+ * empty, the key names the document.
+ */
+public class SecondarySortCombiner
+        extends Reducer<TermDocPositionKey, PostingWritable, TermDocPositionKey, PostingWritable> {
+    private TermDocPositionKey outKey = new TermDocPositionKey();
+    private PostingWritable result = new PostingWritable();
+    private PositionList positions = new PositionList();
+
+    @Override
+    protected void reduce(TermDocPositionKey key, Iterable<PostingWritable> values, Context context)
+            throws IOException, InterruptedException {
+        // The key moves along with the values, before the loop it is the group's smallest
+        outKey.set(key.getTerm(), key.getDocId(), key.getPosition());
+        positions.clear();
+        boolean inOrder = true;
+        for (PostingWritable val : values)
+            inOrder &= positions.addAllInOrder(val);
+        if (!inOrder)
+            positions.sortUnique();
+        result.set("", positions.array(), positions.size());
+        context.write(outKey, result);
+    }
+}
@@ -0,0 +1,48 @@
+import java.io.IOException;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer of the secondary-sort mode, writes the same postings as PositionalIndexReducer. The
+ * values of a term arrive sorted by document and position, so each document's positions are
+ * appended as they stream in and the document is written once the next one starts, as a record
+ * of its own under the term. Nothing is sorted and a reducer holds one document's positions at
+ * a time, however many documents the term has; PostingsTextOutputFormat and
+ * BlockIndexOutputFormat join a term's records back together.
+ */
+public class SecondarySortReducer extends Reducer<TermDocPositionKey, PostingWritable, Text, TermPostingsWritable> {
+    private Text term = new Text();
+    private Text docId = new Text();
+    private PositionList positions = new PositionList();
+    private TermPostingsWritable result = new TermPostingsWritable();
+
+    @Override
+    protected void reduce(TermDocPositionKey key, Iterable<PostingWritable> values, Context context)
+            throws IOException, InterruptedException {
+        term.set(key.getTerm());
+        positions.clear();
+        boolean inOrder = true;
+        // The framework moves the key along with the values, so it names each value's document
+        for (PostingWritable val : values) {
+            if (positions.size() > 0 && !key.getDocId().equals(docId)) {
+                writeDocument(inOrder, context);
+                positions.clear();
+                inOrder = true;
+            }
+            if (positions.size() == 0)
+                docId.set(key.getDocId());
+            inOrder &= positions.addAllInOrder(val);
+        }
+        if (positions.size() > 0)
+            writeDocument(inOrder, context);
+    }
+
+    /** Positions of one document come out of order only if two input files share its name */
+    private void writeDocument(boolean inOrder, Context context) throws IOException, InterruptedException {
+        if (!inOrder)
+            positions.sortUnique();
+        result.clear();
+        result.add(docId, positions.array(), positions.size());
+        context.write(term, result);
+    }
+}
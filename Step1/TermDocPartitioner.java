@@ -0,0 +1,31 @@
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioner of the secondary-sort mode. It partitions by term with the same hash as Hadoop's
+ * default partitioner on a Text term, so every part file holds the same terms as in the
+ * default mode. When the index is sharded it partitions by document like DocumentPartitioner.
+ */
+public class TermDocPartitioner extends Partitioner<TermDocPositionKey, PostingWritable> implements Configurable {
+    private Configuration conf;
+    private boolean byDocument;
+
+    @Override
+    public int getPartition(TermDocPositionKey key, PostingWritable value, int numPartitions) {
+        if (byDocument)
+            return DocumentPartitioner.shardOf(key.getDocId().toString(), numPartitions);
+        return (key.getTerm().hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        byDocument = conf.getInt(PositionalIndexDriver.SHARDS, 0) > 0;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Map output key of the secondary-sort mode: the term, the document and the first position of
+ * the posting it carries. Sorting on all three hands the reducer a term's postings ordered by
+ * document and position, so it never has to collect and sort them itself. Terms and documents
+ * compare as Text does, by their UTF-8 bytes. The position is written as a fixed 4-byte int so
+ * the serialized keys compare without being deserialized.
+ */
+public class TermDocPositionKey implements WritableComparable<TermDocPositionKey> {
+    private final Text term = new Text();
+    private final Text docId = new Text();
+    private int position;
+
+    static {
+        WritableComparator.define(TermDocPositionKey.class, new Comparator());
+    }
+
+    public void set(Text term, Text docId, int position) {
+        this.term.set(term);
+        this.docId.set(docId);
+        this.position = position;
+    }
+
+    public Text getTerm() {
+        return term;
+    }
+
+    public Text getDocId() {
+        return docId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        term.write(out);
+        docId.write(out);
+        out.writeInt(position);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        term.readFields(in);
+        docId.readFields(in);
+        position = in.readInt();
+    }
+
+    @Override
+    public int compareTo(TermDocPositionKey other) {
+        int c = term.compareTo(other.term);
+        if (c == 0)
+            c = docId.compareTo(other.docId);
+        return c != 0 ? c : Integer.compare(position, other.position);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TermDocPositionKey && compareTo((TermDocPositionKey) o) == 0;
+    }
+
+    /** The term's hash, so every posting of a term is partitioned alike */
+    @Override
+    public int hashCode() {
+        return term.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return term + "\t" + docId + "@" + position;
+    }
+
+    /** Sort order on the serialized keys: term, then document, then position */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(TermDocPositionKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int c = compareFields(b1, s1, b2, s2, 2);
+                if (c != 0)
+                    return c;
+                return Integer.compare(readInt(b1, s1 + l1 - 4), readInt(b2, s2 + l2 - 4));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /** Groups the reducer's values by term alone, one reduce call per term */
+    public static class TermGroupingComparator extends WritableComparator {
+        public TermGroupingComparator() {
+            super(TermDocPositionKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                return compareFields(b1, s1, b2, s2, 1);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /** Groups the combiner's values by term and document, one call per posting to merge */
+    public static class DocGroupingComparator extends WritableComparator {
+        public DocGroupingComparator() {
+            super(TermDocPositionKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                return compareFields(b1, s1, b2, s2, 2);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /** Compare the leading Text fields, term or term and document, of two serialized keys */
+    static int compareFields(byte[] b1, int s1, byte[] b2, int s2, int fields) throws IOException {
+        for (int f = 0; f < fields; f++) {
+            int n1 = WritableUtils.decodeVIntSize(b1[s1]), n2 = WritableUtils.decodeVIntSize(b2[s2]);
+            int length1 = WritableComparator.readVInt(b1, s1), length2 = WritableComparator.readVInt(b2, s2);
+            int c = WritableComparator.compareBytes(b1, s1 + n1, length1, b2, s2 + n2, length2);
+            if (c != 0)
+                return c;
+            s1 += n1 + length1;
+            s2 += n2 + length2;
+        }
+        return 0;
+    }
+}
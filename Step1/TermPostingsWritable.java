@@ -0,0 +1,142 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * All postings of one term, the value the reducer writes. toString() is the text index line
+ * after the tab, "doc1: p1,p2; doc2: p1", which is what TextOutputFormat writes, and write()
+ * is the compact form BlockIndexOutputFormat compresses: vint docCount, then per doc the name
+ * as a Text, vint freq and the positions as vint deltas. Docs are kept in the order added.
+ * A term may also be written a few docs at a time, as consecutive values under the same term.
+ */
+public class TermPostingsWritable implements Writable {
+    private Text[] docs = new Text[4];
+    private int[] freqs = new int[4];
+    private int[] positions = new int[16]; // of all docs, one after the other
+    private int docCount, positionCount;
+
+    public void clear() {
+        docCount = 0;
+        positionCount = 0;
+    }
+
+    /** Append a document with its first count positions, which must be sorted and distinct */
+    public void add(String doc, int[] docPositions, int count) {
+        ensureDocs(docCount + 1);
+        docs[docCount].set(doc);
+        addPositions(docPositions, count);
+    }
+
+    public void add(Text doc, int[] docPositions, int count) {
+        ensureDocs(docCount + 1);
+        docs[docCount].set(doc);
+        addPositions(docPositions, count);
+    }
+
+    private void addPositions(int[] docPositions, int count) {
+        freqs[docCount++] = count;
+        ensurePositions(positionCount + count);
+        System.arraycopy(docPositions, 0, positions, positionCount, count);
+        positionCount += count;
+    }
+
+    /** Reset to the postings of a text index line, the part after the tab */
+    public void parse(String postings) {
+        clear();
+        int[] docPositions = new int[16];
+        for (String entry : postings.split(";")) {
+            int colon = entry.indexOf(':');
+            if (colon <= 0)
+                continue;
+            String[] numbers = entry.substring(colon + 1).trim().split(",");
+            if (numbers.length > docPositions.length)
+                docPositions = new int[numbers.length];
+            for (int i = 0; i < numbers.length; i++)
+                docPositions[i] = Integer.parseInt(numbers[i].trim());
+            add(entry.substring(0, colon).trim(), docPositions, numbers.length);
+        }
+    }
+
+    public int docCount() {
+        return docCount;
+    }
+
+    private void ensureDocs(int capacity) {
+        if (capacity > docs.length) {
+            docs = Arrays.copyOf(docs, Math.max(capacity, docs.length * 2));
+            freqs = Arrays.copyOf(freqs, docs.length);
+        }
+        for (int i = docCount; i < capacity; i++) {
+            if (docs[i] == null)
+                docs[i] = new Text();
+        }
+    }
+
+    private void ensurePositions(int capacity) {
+        if (capacity > positions.length)
+            positions = Arrays.copyOf(positions, Math.max(capacity, positions.length * 2));
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, docCount);
+        for (int d = 0, p = 0; d < docCount; d++)
+            p = writeDoc(out, d, p);
+    }
+
+    /** Write doc d as write() does, its positions starting at p; returns where the next doc's positions start */
+    int writeDoc(DataOutput out, int d, int p) throws IOException {
+        docs[d].write(out);
+        WritableUtils.writeVInt(out, freqs[d]);
+        int previous = 0;
+        for (int end = p + freqs[d]; p < end; p++) {
+            WritableUtils.writeVInt(out, positions[p] - previous);
+            previous = positions[p];
+        }
+        return p;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        clear();
+        readMoreFields(in);
+    }
+
+    /** Append the docs of another value of the same term, as write() wrote it */
+    public void readMoreFields(DataInput in) throws IOException {
+        int count = WritableUtils.readVInt(in);
+        ensureDocs(docCount + count);
+        for (int d = docCount; d < docCount + count; d++) {
+            docs[d].readFields(in);
+            int freq = WritableUtils.readVInt(in);
+            freqs[d] = freq;
+            ensurePositions(positionCount + freq);
+            int previous = 0;
+            for (int i = 0; i < freq; i++) {
+                previous += WritableUtils.readVInt(in);
+                positions[positionCount++] = previous;
+            }
+        }
+        docCount += count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(16 * docCount + 4 * positionCount);
+        for (int d = 0, p = 0; d < docCount; d++) {
+            if (d > 0)
+                line.append("; ");
+            line.append(docs[d]).append(": ");
+            for (int start = p, end = p + freqs[d]; p < end; p++) {
+                if (p > start)
+                    line.append(',');
+                line.append(positions[p]);
+            }
+        }
+        return line.toString();
+    }
+}
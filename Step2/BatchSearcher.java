@@ -0,0 +1,357 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a long list of queries for offline evaluation, sharing the work of popular terms. The
+ * queries are grouped by their most expensive term, the one with the most postings, and cut
+ * into batches in that order, so queries that read the same long lists land in the same batch.
+ * Every posting list a batch needs is decoded once into arrays, then the batch's queries run
+ * on a work-stealing pool against a view of the index that serves those arrays, and the
+ * results of the batch are written before the next one starts. A batch ends at batchSize
+ * queries or once its lists hold maxPostings postings, which bounds the memory. A CompactIndex
+ * already serves its lists from arrays, so over one the queries are neither grouped nor
+ * decoded, only run in batches of batchSize in file order against the index itself.
+ *
+ * Results are written in the TREC run format, one line per ranked document, in batch order:
+ * "query number Q0 document rank score batch", the query number being its line in the file.
+ */
+public class BatchSearcher {
+    static final int DEFAULT_BATCH_SIZE = 10_000;
+    static final long DEFAULT_MAX_POSTINGS = 16L << 20;
+
+    private final PositionalIndex index;
+    private final ForkJoinPool pool;
+    private final int k, batchSize;
+    private final long maxPostings;
+    private boolean check;
+
+    /** What a run did, and the one-at-a-time time of the same queries if they were checked */
+    public record Stats(int queries, int invalid, int batches, long listsDecoded, long listsRequested,
+            long postingsDecoded, double seconds, int mismatches, double checkSeconds) {
+        public double queriesPerSecond() {
+            return queries / seconds;
+        }
+    }
+
+    public BatchSearcher(PositionalIndex index, ForkJoinPool pool, int k) {
+        this(index, pool, k, DEFAULT_BATCH_SIZE, DEFAULT_MAX_POSTINGS);
+    }
+
+    public BatchSearcher(PositionalIndex index, ForkJoinPool pool, int k, int batchSize, long maxPostings) {
+        this.index = index;
+        this.pool = pool;
+        this.k = k;
+        this.batchSize = batchSize;
+        this.maxPostings = maxPostings;
+    }
+
+    /** Also run every query on its own with PhraseQuery.search, outside the timed batches, and compare */
+    public void setCheck(boolean check) {
+        this.check = check;
+    }
+
+    /** Run the non-blank lines of a query file, see run(List, Writer) */
+    public Stats run(Path queryFile, Path output) throws IOException {
+        List<String> lines = Files.readAllLines(queryFile);
+        List<Integer> numbers = new ArrayList<>();
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lines.get(i).isBlank()) {
+                numbers.add(i + 1);
+                queries.add(lines.get(i));
+            }
+        }
+        try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            return run(queries, numbers, out);
+        }
+    }
+
+    /**
+     * Run the queries, numbered by numbers, writing their top k as each batch completes.
+     * A query that does not parse is counted as invalid and writes nothing.
+     */
+    public Stats run(List<String> queries, List<Integer> numbers, Writer out) throws IOException {
+        long start = System.nanoTime();
+        int n = queries.size();
+        boolean decode = !(index instanceof CompactIndex);
+        Integer[] order = new Integer[n];
+        for (int q = 0; q < n; q++)
+            order[q] = q;
+
+        // The scored terms of a query are all the lists it reads, matching included
+        List<List<String>> terms = new ArrayList<>(Collections.nCopies(n, null)); // set, never resized, by the workers
+        String[] keys = new String[n];
+        CompactIndex.forEach(pool, decode ? n : 0, q -> {
+            try {
+                terms.set(q, new PhraseQuery(index).queryTerms(queries.get(q).toLowerCase()));
+            } catch (IllegalArgumentException e) {
+                terms.set(q, List.of()); // search reports it
+            }
+            String key = "";
+            int most = -1;
+            for (String term : terms.get(q)) {
+                int docFreq = index.docFreq(term);
+                if (docFreq > most || docFreq == most && term.compareTo(key) < 0) {
+                    most = docFreq;
+                    key = term;
+                }
+            }
+            keys[q] = key;
+        });
+        if (decode)
+            Arrays.sort(order, Comparator.<Integer, String>comparing(q -> keys[q]).thenComparingInt(q -> q));
+
+        int invalid = 0, batches = 0, mismatches = 0;
+        long decodedLists = 0, postings = 0, checkNanos = 0;
+        LongAdder requests = new LongAdder();
+        for (int from = 0; from < n;) {
+            // Grow the batch while it stays within both limits
+            Set<String> batchTerms = new HashSet<>();
+            long batchPostings = 0;
+            int to = decode ? from : Math.min(n, from + batchSize);
+            while (decode && to < n && to - from < batchSize) {
+                long added = 0;
+                for (String term : terms.get(order[to])) {
+                    if (!batchTerms.contains(term))
+                        added += index.docFreq(term);
+                }
+                if (to > from && batchPostings + added > maxPostings)
+                    break;
+                batchTerms.addAll(terms.get(order[to]));
+                batchPostings += added;
+                to++;
+            }
+
+            String[] lists = batchTerms.toArray(String[]::new);
+            Map<String, DecodedPostings> decoded = new ConcurrentHashMap<>();
+            CompactIndex.forEach(pool, lists.length, t -> {
+                PostingsEnum enumerator = index.postings(lists[t]);
+                if (enumerator != null)
+                    decoded.put(lists[t], DecodedPostings.of(enumerator));
+            });
+            PositionalIndex view = decode ? new BatchView(index, decoded, requests) : index;
+
+            int first = from, size = to - from;
+            List<List<ScoredDoc>> results = new ArrayList<>(Collections.nCopies(size, null));
+            CompactIndex.forEach(pool, size, i -> {
+                try {
+                    results.set(i, new PhraseQuery(view).search(queries.get(order[first + i]), k));
+                } catch (IllegalArgumentException e) {
+                    results.set(i, null);
+                }
+            });
+            for (int i = 0; i < size; i++) {
+                if (results.get(i) == null) {
+                    invalid++;
+                    continue;
+                }
+                int number = numbers.get(order[first + i]), rank = 1;
+                for (ScoredDoc scored : results.get(i))
+                    out.write(number + " Q0 " + scored.name() + " " + rank++ + " " + scored.score() + " batch\n");
+            }
+            out.flush();
+
+            if (check) {
+                long checkStart = System.nanoTime();
+                for (int i = 0; i < size; i++) {
+                    List<ScoredDoc> expected;
+                    try {
+                        expected = new PhraseQuery(index).search(queries.get(order[first + i]), k);
+                    } catch (IllegalArgumentException e) {
+                        expected = null;
+                    }
+                    if (!Objects.equals(expected, results.get(i))) {
+                        mismatches++;
+                        System.out.printf("Mismatch for %s: %s, batch %s%n", queries.get(order[first + i]), expected,
+                                results.get(i));
+                    }
+                }
+                checkNanos += System.nanoTime() - checkStart;
+            }
+            batches++;
+            decodedLists += decoded.size();
+            for (DecodedPostings list : decoded.values())
+                postings += list.docs.length;
+            from = to;
+        }
+        double seconds = (System.nanoTime() - start - checkNanos) / 1e9;
+        return new Stats(n, invalid, batches, decodedLists, requests.sum(), postings, seconds, mismatches,
+                checkNanos / 1e9);
+    }
+
+    /** A posting list decoded once for a batch: doc ids and every doc's positions */
+    private record DecodedPostings(int[] docs, int[] positionStart, int[] positions) {
+        static DecodedPostings of(PostingsEnum postings) {
+            int[] docs = new int[16], positionStart = new int[17], positions = new int[32];
+            int count = 0, positionCount = 0;
+            for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (count + 1 == docs.length) {
+                    docs = Arrays.copyOf(docs, docs.length * 2);
+                    positionStart = Arrays.copyOf(positionStart, docs.length + 1);
+                }
+                int freq = postings.freq();
+                if (positionCount + freq > positions.length)
+                    positions = Arrays.copyOf(positions, Math.max(positionCount + freq, positions.length * 2));
+                for (int p = 0; p < freq; p++)
+                    positions[positionCount++] = postings.nextPosition();
+                docs[count++] = doc;
+                positionStart[count] = positionCount;
+            }
+            return new DecodedPostings(Arrays.copyOf(docs, count), Arrays.copyOf(positionStart, count + 1),
+                    Arrays.copyOf(positions, positionCount));
+        }
+    }
+
+    /** Iterates a decoded list, advance() gallops over the doc array as CompactIndex does */
+    private static final class DecodedEnum implements PostingsEnum {
+        private final DecodedPostings list;
+        private int index = -1, doc = -1, position;
+
+        DecodedEnum(DecodedPostings list) {
+            this.list = list;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return moveTo(index + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target)
+                return doc;
+            int[] docs = list.docs;
+            int low = index + 1, step = 1;
+            while (low + step < docs.length && docs[low + step] < target) {
+                low += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(docs, low, Math.min(low + step + 1, docs.length), target);
+            return moveTo(found >= 0 ? found : -found - 1);
+        }
+
+        @Override
+        public int freq() {
+            return list.positionStart[index + 1] - list.positionStart[index];
+        }
+
+        @Override
+        public int nextPosition() {
+            return list.positions[position++];
+        }
+
+        private int moveTo(int posting) {
+            index = posting;
+            if (index >= list.docs.length)
+                return doc = NO_MORE_DOCS;
+            position = list.positionStart[index];
+            return doc = list.docs[index];
+        }
+    }
+
+    /** The index with the batch's decoded lists in place of its own postings, read by all workers */
+    private static final class BatchView implements PositionalIndex {
+        private final PositionalIndex index;
+        private final Map<String, DecodedPostings> decoded;
+        private final LongAdder requests;
+
+        BatchView(PositionalIndex index, Map<String, DecodedPostings> decoded, LongAdder requests) {
+            this.index = index;
+            this.decoded = decoded;
+            this.requests = requests;
+        }
+
+        @Override
+        public PostingsEnum postings(String term) {
+            requests.increment();
+            DecodedPostings list = decoded.get(term);
+            return list != null ? new DecodedEnum(list) : index.postings(term);
+        }
+
+        @Override
+        public int numDocs() {
+            return index.numDocs();
+        }
+
+        @Override
+        public int numLiveDocs() {
+            return index.numLiveDocs();
+        }
+
+        @Override
+        public boolean isDeleted(int doc) {
+            return index.isDeleted(doc);
+        }
+
+        @Override
+        public DocIdSet liveDocs() {
+            return index.liveDocs();
+        }
+
+        @Override
+        public long version() {
+            return index.version();
+        }
+
+        @Override
+        public String docName(int doc) {
+            return index.docName(doc);
+        }
+
+        @Override
+        public int docId(String name) {
+            return index.docId(name);
+        }
+
+        @Override
+        public int numTerms() {
+            return index.numTerms();
+        }
+
+        @Override
+        public Iterable<String> terms() {
+            return index.terms();
+        }
+
+        @Override
+        public Iterable<String> terms(String prefix) {
+            return index.terms(prefix);
+        }
+
+        @Override
+        public int docFreq(String term) {
+            return index.docFreq(term);
+        }
+
+        @Override
+        public double idf(String term) {
+            return index.idf(term);
+        }
+
+        @Override
+        public double docNorm(int doc) {
+            return index.docNorm(doc);
+        }
+
+        @Override
+        public double maxImpact(String term) {
+            return index.maxImpact(term);
+        }
+
+        @Override
+        public long postingsBytes() {
+            return index.postingsBytes();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The docs of frequent pairs of adjacent terms, read from the biwords-r-NNNNN output of the
+ * Step1 job run with PositionalIndexDriver.BIWORD_MIN_DOC_FREQ. A biword "a b" is in a doc
+ * exactly when the phrase "a b" is, so QueryPlan answers a two-term phrase from its list alone
+ * and only checks the positions of a longer phrase in the docs holding all of its biwords.
+ *
+ * Only doc ids are kept, translated to the ids of the index the biwords were built with, since
+ * positions are checked in that index. Biwords are found through a TermDictionary like the
+ * terms of CompactIndex, and the docs of biword t are [biwordStart[t], biwordStart[t + 1]) of
+ * docs, in increasing order. Never changes after load, so it can be shared between threads.
+ * Every biword is in one file, since the job writes biwords only without shards.
+ */
+public class BiwordIndex {
+    private final TermDictionary biwords;
+    private final int[] biwordStart;
+    private final int[] docs;
+
+    private BiwordIndex(TermDictionary biwords, int[] biwordStart, int[] docs) {
+        this.biwords = biwords;
+        this.biwordStart = biwordStart;
+        this.docs = docs;
+    }
+
+    /**
+     * Load the biwords of a text file (or a directory of biwords-r-* files) that are in at least
+     * minDocFreq docs, the docs looked up by name in index. Docs that index does not have are
+     * left out.
+     */
+    public static BiwordIndex load(Path path, PositionalIndex index, int minDocFreq) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (var listing = Files.newDirectoryStream(path, "biwords-r-*")) {
+                listing.forEach(files::add);
+            }
+            Collections.sort(files);
+        } else
+            files.add(path);
+
+        Map<String, int[]> lists = new HashMap<>();
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                int[] docs = new int[16];
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab < 0)
+                        continue;
+                    int count = 0;
+                    for (int i = tab + 1; i < line.length();) {
+                        int colon = line.indexOf(':', i);
+                        if (colon < 0)
+                            break;
+                        int doc = index.docId(line.substring(i, colon).trim());
+                        if (doc >= 0) {
+                            if (count == docs.length)
+                                docs = Arrays.copyOf(docs, count * 2);
+                            docs[count++] = doc;
+                        }
+                        int semicolon = line.indexOf(';', colon);
+                        i = semicolon < 0 ? line.length() : semicolon + 1;
+                    }
+                    if (count >= minDocFreq && count > 0) {
+                        int[] sorted = Arrays.copyOf(docs, count);
+                        Arrays.sort(sorted);
+                        if (lists.put(line.substring(0, tab), sorted) != null)
+                            throw new IOException("Biword " + line.substring(0, tab) + " of " + file
+                                    + " is in another file too, the output of a sharded job is not supported");
+                    }
+                }
+            }
+        }
+
+        TermDictionary biwords = TermDictionary.build(TermDictionary.sort(lists.keySet()));
+        int[] biwordStart = new int[biwords.size() + 1];
+        long total = 0;
+        for (int[] list : lists.values())
+            total += list.length;
+        if (total > Integer.MAX_VALUE)
+            throw new IllegalStateException("Biword postings exceed 2^31");
+        int[] docs = new int[(int) total];
+        int t = 0;
+        for (String biword : biwords) {
+            int[] list = lists.get(biword);
+            System.arraycopy(list, 0, docs, biwordStart[t], list.length);
+            biwordStart[t + 1] = biwordStart[t] + list.length;
+            t++;
+        }
+        return new BiwordIndex(biwords, biwordStart, docs);
+    }
+
+    /** The biword of two adjacent terms, as the Step1 mapper writes it */
+    static String biword(String first, String second) {
+        return first + " " + second;
+    }
+
+    public int numBiwords() {
+        return biwords.size();
+    }
+
+    public int numPostings() {
+        return docs.length;
+    }
+
+    /** Approximate heap used by the arrays, and the bytes of the dictionary off the heap */
+    public long sizeInBytes() {
+        return 2 * 16 + 4L * (biwordStart.length + docs.length);
+    }
+
+    public long dictionaryBytes() {
+        return biwords.sizeInBytes();
+    }
+
+    /** Number of docs with the two terms next to each other, -1 if the pair was not indexed */
+    public int docFreq(String first, String second) {
+        int ord = biwords.ordinal(biword(first, second));
+        return ord < 0 ? -1 : biwordStart[ord + 1] - biwordStart[ord];
+    }
+
+    /** The docs with the two terms next to each other, null if the pair was not indexed */
+    public DocIdIterator docs(String first, String second) {
+        int ord = biwords.ordinal(biword(first, second));
+        return ord < 0 ? null : new Docs(biwordStart[ord], biwordStart[ord + 1]);
+    }
+
+    /** A range of the docs array, advance() gallops as CompactIndex's postings do */
+    private class Docs implements DocIdIterator {
+        private final int end;
+        private int index, doc = -1;
+
+        Docs(int start, int end) {
+            this.end = end;
+            index = start - 1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc = ++index < end ? docs[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target)
+                return doc;
+            int low = index + 1, step = 1;
+            while (low + step < end && docs[low + step] < target) {
+                low += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(docs, low, Math.min(low + step + 1, end), target);
+            index = found >= 0 ? found : -found - 1;
+            return doc = index < end ? docs[index] : NO_MORE_DOCS;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Weighs the biword index against the phrase queries it speeds up. For each minimum doc
+ * frequency (0 keeps every biword the job wrote) it loads the biwords, prints their count and
+ * bytes next to the postings of the index, then matches the queries of a file with
+ * PhraseQuery.evaluateSet with and without them and prints both times, the speedup and
+ * whether every query matched the same docs. Queries without an exact phrase of two or more
+ * terms are left out, they never read a biword. A time is the best of ROUNDS runs over all the
+ * queries, after one more to warm up.
+ *
+ * Usage: java BiwordReport <index file> <biword file or job output> <query file> [min doc freq]...
+ */
+public class BiwordReport {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: java BiwordReport <index file> <biword file or job output> <query file> [min doc freq]...");
+            System.exit(2);
+        }
+        PositionalIndex index = TFIDFCalculator.openIndex(args[0]);
+        Path biwordPath = Path.of(args[1]);
+        List<Integer> thresholds = new ArrayList<>();
+        for (int i = 3; i < args.length; i++)
+            thresholds.add(Integer.parseInt(args[i]));
+        if (thresholds.isEmpty())
+            thresholds.add(0);
+
+        Analyzer analyzer = Analyzer.fromSystemProperties();
+        List<String> queries = new ArrayList<>();
+        for (String query : Files.readAllLines(Path.of(args[2]))) {
+            try {
+                if (hasPhrase(QueryParser.parse(query.toLowerCase(), analyzer)))
+                    queries.add(query);
+            } catch (IllegalArgumentException e) {
+                // not a query
+            }
+        }
+        long indexBytes = index.postingsBytes();
+        System.out.printf("%d phrase queries, postings of the index: %,d bytes%n", queries.size(), indexBytes);
+
+        PhraseQuery plain = new PhraseQuery(index);
+        List<DocIdSet> expected = new ArrayList<>();
+        for (String query : queries)
+            expected.add(plain.evaluateSet(query));
+
+        System.out.printf("%-10s %10s %10s %14s %9s %12s %12s %8s %8s%n", "min docs", "biwords", "postings", "bytes",
+                "overhead", "without us", "with us", "speedup", "differ");
+        for (int minDocFreq : thresholds) {
+            BiwordIndex biwords = BiwordIndex.load(biwordPath, index, minDocFreq);
+            PhraseQuery query = new PhraseQuery(index);
+            query.setBiwords(biwords);
+            int differ = 0;
+            for (int q = 0; q < queries.size(); q++) {
+                DocIdSet docs = query.evaluateSet(queries.get(q));
+                if (docs.cardinality() != expected.get(q).cardinality() || !docs.andNot(expected.get(q)).isEmpty())
+                    differ++;
+            }
+            double plainMicros = time(plain, queries), micros = time(query, queries);
+            long bytes = biwords.sizeInBytes() + biwords.dictionaryBytes();
+            System.out.printf("%-10d %10d %10d %,14d %8.1f%% %12.1f %12.1f %7.2fx %8d%n", minDocFreq, biwords.numBiwords(),
+                    biwords.numPostings(), bytes, 100.0 * bytes / indexBytes, plainMicros, micros, plainMicros / micros,
+                    differ);
+        }
+    }
+
+    /** Whether the query has an exact phrase of two or more terms */
+    private static boolean hasPhrase(QueryNode node) {
+        if (node instanceof QueryNode.Phrase phrase)
+            return phrase.slop() == 0 && phrase.terms().size() > 1;
+        if (node instanceof QueryNode.Not not)
+            return hasPhrase(not.clause());
+        List<QueryNode> clauses = node instanceof QueryNode.And and ? and.clauses() : ((QueryNode.Or) node).clauses();
+        for (QueryNode clause : clauses) {
+            if (hasPhrase(clause))
+                return true;
+        }
+        return false;
+    }
+
+    /** Mean microseconds of evaluating a query in the best round */
+    private static double time(PhraseQuery query, List<String> queries) {
+        long sink = 0, best = Long.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String text : queries)
+                sink += query.evaluateSet(text).cardinality();
+            if (round > 0)
+                best = Math.min(best, System.nanoTime() - start);
+        }
+        double micros = best / 1e3 / Math.max(1, queries.size());
+        if (sink == 42)
+            System.out.print("");
+        return micros;
+    }
+}
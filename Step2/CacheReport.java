@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Replays a skewed query log against an index with and without a QueryCache and prints the
+ * throughput of both, the hit rates and evictions of the two cache levels, and whether every
+ * cached result equals the uncached one. The log draws the queries of a file with Zipf
+ * frequencies: the i-th query is picked with probability proportional to 1 / i.
+ *
+ * Usage: java CacheReport <index file> <query file> [replayed queries] [k] [max cached results]
+ */
+public class CacheReport {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java CacheReport <index file> <query file> [replayed queries] [k] [max cached results]");
+            System.exit(2);
+        }
+        PositionalIndex index = TFIDFCalculator.openIndex(args[0]);
+        List<String> queries = Files.readAllLines(Path.of(args[1])).stream().filter(q -> !q.isBlank()).toList();
+        int replayed = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        int k = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int maxResults = args.length > 4 ? Integer.parseInt(args[4]) : QueryCache.DEFAULT_MAX_RESULTS;
+
+        double[] cumulative = new double[queries.size()];
+        double total = 0;
+        for (int i = 0; i < cumulative.length; i++)
+            cumulative[i] = total += 1.0 / (i + 1);
+        Random random = new Random(42);
+        String[] log = new String[replayed];
+        for (int i = 0; i < replayed; i++) {
+            int pick = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            log[i] = queries.get(Math.min(pick < 0 ? -pick - 1 : pick, queries.size() - 1));
+        }
+
+        PhraseQuery plain = new PhraseQuery(index);
+        PhraseQuery cached = new PhraseQuery(index);
+        QueryCache cache = new QueryCache(maxResults, QueryCache.DEFAULT_MAX_MATCH_BYTES);
+        cached.setCache(cache);
+        List<List<ScoredDoc>> expected = new ArrayList<>(replayed);
+        long start = System.nanoTime();
+        for (String query : log)
+            expected.add(run(plain, query, k));
+        double plainSeconds = (System.nanoTime() - start) / 1e9;
+        int mismatches = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < replayed; i++) {
+            if (!run(cached, log[i], k).equals(expected.get(i)))
+                mismatches++;
+        }
+        double cachedSeconds = (System.nanoTime() - start) / 1e9;
+
+        QueryCache.Stats stats = cache.stats();
+        System.out.printf("%d queries (%d distinct), k = %d%n", replayed, new HashSet<>(List.of(log)).size(), k);
+        System.out.printf("Uncached: %.0f q/s%nCached:   %.0f q/s (%.1fx)%n", replayed / plainSeconds,
+                replayed / cachedSeconds, plainSeconds / cachedSeconds);
+        print("Results", stats.results());
+        print("Phrase matches", stats.matches());
+        System.out.println(mismatches + " results differ from the uncached ones");
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    private static List<ScoredDoc> run(PhraseQuery query, String text, int k) {
+        try {
+            return query.search(text, k);
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+    }
+
+    private static void print(String level, TinyLfuCache.Stats stats) {
+        System.out.printf("%s: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d rejected, %d entries, weight %d%n",
+                level, stats.hits(), stats.misses(), 100 * stats.hitRate(), stats.evictions(), stats.rejections(),
+                stats.entries(), stats.weight());
+    }
+}
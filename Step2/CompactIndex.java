@@ -0,0 +1,414 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory positional index stored in a few primitive arrays instead of nested maps.
+ * Doc ids are dense ints in sorted name order. Terms are kept off the heap in a TermDictionary,
+ * which gives each its ordinal t in UTF-8 byte order, and the postings of term t are the range
+ * [termStart[t], termStart[t + 1]) of postingDocs, and the positions of posting p are a
+ * block of positionBytes starting at positionStart[p]: vint freq, then freq delta-encoded vints.
+ * The arrays never change after build(), so one instance can be shared between threads.
+ */
+public class CompactIndex implements PositionalIndex {
+    private final String[] docNames; // sorted, the position is the doc id
+    private final TermDictionary terms;
+    private final int[] termStart;
+    private final int[] postingDocs;
+    private final int[] positionStart;
+    private final byte[] positionBytes;
+    private final double[] norms;
+    private final float[] maxImpacts; // per term, see PositionalIndex.maxImpact
+
+    private CompactIndex(String[] docNames, TermDictionary terms, int[] termStart, int[] postingDocs,
+            int[] positionStart, byte[] positionBytes, double[] norms, float[] maxImpacts) {
+        this.docNames = docNames;
+        this.terms = terms;
+        this.termStart = termStart;
+        this.postingDocs = postingDocs;
+        this.positionStart = positionStart;
+        this.positionBytes = positionBytes;
+        this.norms = norms;
+        this.maxImpacts = maxImpacts;
+    }
+
+    @Override
+    public int numDocs() {
+        return docNames.length;
+    }
+
+    @Override
+    public String docName(int doc) {
+        return docNames[doc];
+    }
+
+    @Override
+    public int docId(String name) {
+        int doc = Arrays.binarySearch(docNames, name);
+        return doc < 0 ? -1 : doc;
+    }
+
+    @Override
+    public int numTerms() {
+        return terms.size();
+    }
+
+    @Override
+    public Iterable<String> terms() {
+        return terms;
+    }
+
+    @Override
+    public Iterable<String> terms(String prefix) {
+        return terms.withPrefix(prefix);
+    }
+
+    @Override
+    public int docFreq(String term) {
+        int ord = terms.ordinal(term);
+        return ord < 0 ? 0 : termStart[ord + 1] - termStart[ord];
+    }
+
+    @Override
+    public PostingsEnum postings(String term) {
+        int ord = terms.ordinal(term);
+        return ord < 0 ? null : new CompactPostings(termStart[ord], termStart[ord + 1]);
+    }
+
+    @Override
+    public double maxImpact(String term) {
+        int ord = terms.ordinal(term);
+        return ord < 0 ? 0.0 : maxImpacts[ord];
+    }
+
+    @Override
+    public double docNorm(int doc) {
+        return norms[doc];
+    }
+
+    @Override
+    public long postingsBytes() {
+        return 4L * (postingDocs.length + positionStart.length) + positionBytes.length;
+    }
+
+    /** Approximate heap used by the index, object headers included, the term dictionary is off the heap */
+    public long sizeInBytes() {
+        long bytes = 16L * 8; // array headers
+        bytes += 4L * (termStart.length + postingDocs.length + positionStart.length + maxImpacts.length);
+        bytes += positionBytes.length + 8L * norms.length;
+        for (String doc : docNames)
+            bytes += 4 + 40 + doc.length();
+        return bytes;
+    }
+
+    /** Bytes of the off-heap term dictionary */
+    public long dictionaryBytes() {
+        return terms.sizeInBytes();
+    }
+
+    /** Postings of one term, advance() gallops over the doc array instead of stepping */
+    private class CompactPostings implements PostingsEnum {
+        private final int end;
+        private int index, doc = -1, freq, pos, position;
+
+        CompactPostings(int start, int end) {
+            this.end = end;
+            index = start - 1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return moveTo(index + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target)
+                return doc;
+            int low = index + 1, step = 1;
+            while (low + step < end && postingDocs[low + step] < target) {
+                low += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(postingDocs, low, Math.min(low + step + 1, end), target);
+            return moveTo(found >= 0 ? found : -found - 1);
+        }
+
+        @Override
+        public int freq() {
+            return freq;
+        }
+
+        @Override
+        public int nextPosition() {
+            return position += readVInt();
+        }
+
+        private int moveTo(int posting) {
+            index = posting;
+            if (index >= end)
+                return doc = NO_MORE_DOCS;
+            pos = positionStart[index];
+            freq = readVInt();
+            position = 0;
+            return doc = postingDocs[index];
+        }
+
+        private int readVInt() {
+            byte b = positionBytes[pos++];
+            int value = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = positionBytes[pos++];
+                value |= (b & 0x7F) << shift;
+            }
+            return value;
+        }
+    }
+
+    /** Run action(0) ... action(count - 1) on the pool, or in order on this thread if it is null */
+    static void forEach(ForkJoinPool pool, int count, IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++)
+                action.accept(i);
+        } else
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(action)).join();
+    }
+
+    /** Collects postings in any order, then sorts and packs them into a CompactIndex */
+    public static class Builder {
+        private final Map<String, Integer> docIds = new HashMap<>();
+        private final List<String> docs = new ArrayList<>();
+        private final Map<String, TermPostings> termPostings = new HashMap<>();
+
+        /** Temporary postings of one term, docs in arrival order */
+        private static class TermPostings {
+            int[] docs = new int[2];
+            int[] positionStart = new int[3];
+            int[] positions = new int[4];
+            int docCount, positionCount;
+        }
+
+        /** Add the sorted positions of a term in a document, a term is added once per document */
+        public void add(String term, String doc, int[] positions, int count) {
+            Integer docId = docIds.get(doc);
+            if (docId == null) {
+                docId = docs.size();
+                docIds.put(doc, docId);
+                docs.add(doc);
+            }
+            TermPostings postings = termPostings.computeIfAbsent(term, k -> new TermPostings());
+            if (postings.docCount == postings.docs.length) {
+                postings.docs = Arrays.copyOf(postings.docs, postings.docCount * 2);
+                postings.positionStart = Arrays.copyOf(postings.positionStart, postings.docCount * 2 + 1);
+            }
+            if (postings.positionCount + count > postings.positions.length)
+                postings.positions = Arrays.copyOf(postings.positions,
+                        Math.max(postings.positions.length * 2, postings.positionCount + count));
+            System.arraycopy(positions, 0, postings.positions, postings.positionCount, count);
+            postings.docs[postings.docCount] = docId;
+            postings.positionCount += count;
+            postings.positionStart[++postings.docCount] = postings.positionCount;
+        }
+
+        /** Move the postings of another builder into this one, the two must not share a term */
+        public void addAll(Builder other) {
+            int[] ids = new int[other.docs.size()]; // other's arrival id -> this arrival id
+            for (int i = 0; i < ids.length; i++) {
+                String doc = other.docs.get(i);
+                Integer docId = docIds.get(doc);
+                if (docId == null) {
+                    docId = docs.size();
+                    docIds.put(doc, docId);
+                    docs.add(doc);
+                }
+                ids[i] = docId;
+            }
+            for (var entry : other.termPostings.entrySet()) {
+                TermPostings postings = entry.getValue();
+                for (int i = 0; i < postings.docCount; i++)
+                    postings.docs[i] = ids[postings.docs[i]];
+                if (termPostings.putIfAbsent(entry.getKey(), postings) != null)
+                    throw new IllegalArgumentException("Term " + entry.getKey() + " is in both builders");
+            }
+            other.termPostings.clear();
+        }
+
+        public CompactIndex build() {
+            return build(null);
+        }
+
+        /**
+         * Pack the postings, spreading the per-term work and the norms over the pool, or doing it
+         * all on the calling thread if the pool is null. Each worker packs a slice of the terms
+         * into its precomputed range of the arrays. The norms are then split by doc range instead,
+         * so every doc still adds up its squared weights in term order and the norms come out the
+         * same bits whatever the number of threads.
+         */
+        public CompactIndex build(ForkJoinPool pool) {
+            String[] docNames = docs.toArray(String[]::new);
+            Arrays.sort(docNames);
+            int[] rank = new int[docNames.length]; // arrival id -> sorted id
+            for (int i = 0; i < docNames.length; i++)
+                rank[docIds.get(docNames[i])] = i;
+
+            byte[][] terms = TermDictionary.sort(termPostings.keySet());
+            TermPostings[] postingsByTerm = new TermPostings[terms.length];
+            for (int t = 0; t < terms.length; t++)
+                postingsByTerm[t] = termPostings.get(new String(terms[t], StandardCharsets.UTF_8));
+            termPostings.clear();
+
+            long[] termBytes = new long[terms.length];
+            forEach(pool, terms.length, t -> {
+                TermPostings postings = sortByDoc(postingsByTerm[t], rank);
+                postingsByTerm[t] = postings;
+                for (int i = 0; i < postings.docCount; i++)
+                    termBytes[t] += blockSize(postings, i);
+            });
+            int[] termStart = new int[terms.length + 1];
+            long[] byteStart = new long[terms.length + 1];
+            for (int t = 0; t < terms.length; t++) {
+                termStart[t + 1] = termStart[t] + postingsByTerm[t].docCount;
+                byteStart[t + 1] = byteStart[t] + termBytes[t];
+            }
+            if (byteStart[terms.length] > Integer.MAX_VALUE - 8)
+                throw new IllegalStateException("Positions exceed 2 GB, use the binary index instead");
+
+            int postingCount = termStart[terms.length];
+            int[] postingDocs = new int[postingCount];
+            int[] positionStart = new int[postingCount + 1];
+            byte[] positionBytes = new byte[(int) byteStart[terms.length]];
+
+            // Slices of terms with about the same number of postings each
+            int slices = pool == null ? 1 : Math.max(1, Math.min(pool.getParallelism(), terms.length));
+            int[] sliceStart = new int[slices + 1];
+            for (int slice = 1, t = 0; slice <= slices; slice++) {
+                long target = (long) postingCount * slice / slices;
+                while (t < terms.length && termStart[t] < target)
+                    t++;
+                sliceStart[slice] = slice == slices ? terms.length : t;
+            }
+            forEach(pool, slices, slice -> {
+                for (int t = sliceStart[slice]; t < sliceStart[slice + 1]; t++) {
+                    TermPostings postings = postingsByTerm[t];
+                    postingsByTerm[t] = null; // let the temporary arrays go
+                    int posting = termStart[t], pos = (int) byteStart[t];
+                    for (int i = 0; i < postings.docCount; i++) {
+                        int doc = postings.docs[i];
+                        int from = postings.positionStart[i], to = postings.positionStart[i + 1];
+                        postingDocs[posting] = doc;
+                        positionStart[posting++] = pos;
+                        pos = writeVInt(positionBytes, pos, to - from);
+                        int previous = 0;
+                        for (int p = from; p < to; p++) {
+                            pos = writeVInt(positionBytes, pos, postings.positions[p] - previous);
+                            previous = postings.positions[p];
+                        }
+                    }
+                }
+            });
+            positionStart[postingCount] = positionBytes.length;
+
+            // Each doc range finds its first posting in every term by binary search
+            double[] norms = new double[docNames.length];
+            int ranges = pool == null ? 1 : Math.max(1, Math.min(pool.getParallelism() * 4, docNames.length));
+            forEach(pool, ranges, range -> {
+                int first = (int) ((long) docNames.length * range / ranges);
+                int last = (int) ((long) docNames.length * (range + 1) / ranges);
+                double[] squaredNorms = new double[last - first];
+                for (int t = 0; t < terms.length; t++) {
+                    int p = termStart[t], end = termStart[t + 1];
+                    if (first > 0) {
+                        p = Arrays.binarySearch(postingDocs, p, end, first);
+                        p = p < 0 ? -p - 1 : p;
+                    }
+                    if (p == end || postingDocs[p] >= last)
+                        continue;
+                    double idf = TFIDFCalculator.idf(docNames.length, end - termStart[t]);
+                    for (; p < end && postingDocs[p] < last; p++) {
+                        double weight = TFIDFCalculator.tf_weight(readVInt(positionBytes, positionStart[p])) * idf;
+                        squaredNorms[postingDocs[p] - first] += weight * weight;
+                    }
+                }
+                for (int doc = first; doc < last; doc++)
+                    norms[doc] = Math.sqrt(squaredNorms[doc - first]);
+            });
+
+            // Max impacts need the norms, so they take a second pass over the packed postings
+            float[] maxImpacts = new float[terms.length];
+            forEach(pool, terms.length, t -> {
+                double idf = TFIDFCalculator.idf(docNames.length, termStart[t + 1] - termStart[t]);
+                double max = 0;
+                for (int p = termStart[t]; p < termStart[t + 1]; p++) {
+                    int doc = postingDocs[p];
+                    if (norms[doc] > 0)
+                        max = Math.max(max, TFIDFCalculator.tf_weight(readVInt(positionBytes, positionStart[p])) * idf / norms[doc]);
+                }
+                maxImpacts[t] = Math.nextUp((float) max);
+            });
+            return new CompactIndex(docNames, TermDictionary.build(terms), termStart, postingDocs, positionStart, positionBytes, norms,
+                    maxImpacts);
+        }
+
+        /** The postings of a term reordered by sorted doc id, with docs holding the sorted ids */
+        private static TermPostings sortByDoc(TermPostings postings, int[] rank) {
+            long[] order = new long[postings.docCount]; // (doc << 32 | arrival index)
+            for (int i = 0; i < order.length; i++)
+                order[i] = ((long) rank[postings.docs[i]] << 32) | i;
+            Arrays.sort(order);
+
+            TermPostings sorted = new TermPostings();
+            sorted.docs = new int[order.length];
+            sorted.positionStart = new int[order.length + 1];
+            sorted.positions = new int[postings.positionCount];
+            for (long entry : order) {
+                int i = (int) entry;
+                int from = postings.positionStart[i], to = postings.positionStart[i + 1];
+                System.arraycopy(postings.positions, from, sorted.positions, sorted.positionCount, to - from);
+                sorted.docs[sorted.docCount] = (int) (entry >>> 32);
+                sorted.positionCount += to - from;
+                sorted.positionStart[++sorted.docCount] = sorted.positionCount;
+            }
+            return sorted;
+        }
+
+        private static int blockSize(TermPostings postings, int i) {
+            int from = postings.positionStart[i], to = postings.positionStart[i + 1];
+            int size = vintSize(to - from), previous = 0;
+            for (int p = from; p < to; p++) {
+                size += vintSize(postings.positions[p] - previous);
+                previous = postings.positions[p];
+            }
+            return size;
+        }
+
+        private static int vintSize(int value) {
+            return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+        }
+
+        private static int readVInt(byte[] bytes, int pos) {
+            byte b = bytes[pos++];
+            int value = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = bytes[pos++];
+                value |= (b & 0x7F) << shift;
+            }
+            return value;
+        }
+
+        private static int writeVInt(byte[] bytes, int pos, int value) {
+            while ((value & ~0x7F) != 0) {
+                bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[pos++] = (byte) value;
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compares the term dictionary of CompactIndex with the on-heap structures it replaced, on the
+ * terms of an index: a HashMap from term to ordinal (the old termsMap), a sorted String array
+ * (the previous CompactIndex) and the front-coded TermDictionary off the heap. Prints the bytes
+ * each takes, the time of a lookup (a quarter of them misses) and of listing the terms of a
+ * three-character prefix. The JMH TermDictionaryBenchmark measures lookups more carefully.
+ *
+ * Usage: java -Xmx<enough for the map> DictionaryReport <index file> [lookups]
+ */
+public class DictionaryReport {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java DictionaryReport <index file> [lookups]");
+            System.exit(2);
+        }
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        List<String> terms = new ArrayList<>();
+        TFIDFCalculator.openIndex(args[0]).terms().forEach(terms::add);
+        long utf8 = 0;
+        for (String term : terms)
+            utf8 += term.getBytes(StandardCharsets.UTF_8).length;
+
+        // Every structure gets its own copies of the strings, so they are counted in its heap
+        long before = usedHeap();
+        Map<String, Integer> map = new HashMap<>();
+        for (String term : terms)
+            map.put(new String(term), map.size());
+        long mapBytes = usedHeap() - before;
+
+        before = usedHeap();
+        String[] sorted = terms.stream().map(String::new).sorted().toArray(String[]::new);
+        long arrayBytes = usedHeap() - before;
+
+        before = usedHeap();
+        TermDictionary dictionary = TermDictionary.build(TermDictionary.sort(terms));
+        long dictionaryHeap = usedHeap() - before;
+
+        Random random = new Random(42);
+        String[] keys = new String[4096], prefixes = new String[4096];
+        for (int i = 0; i < keys.length; i++) {
+            String term = terms.get(random.nextInt(terms.size()));
+            keys[i] = i % 4 == 0 ? term + "\u0000" : term;
+            prefixes[i] = term.substring(0, Math.min(3, term.length()));
+        }
+
+        System.out.printf("%d terms, %,d bytes of UTF-8%n", terms.size(), utf8);
+        System.out.printf("%-22s %14s %14s %12s %12s%n", "", "heap bytes", "off-heap", "lookup ns", "prefix us");
+        print("HashMap", mapBytes, 0, time(keys, lookups, key -> map.getOrDefault(key, -1)), -1);
+        print("sorted String[]", arrayBytes, 0, time(keys, lookups, key -> Math.max(-1, Arrays.binarySearch(sorted, key))),
+                time(prefixes, lookups / 100, prefix -> Wildcard.withPrefix(sorted, prefix).size()));
+        print("front-coded", dictionaryHeap, dictionary.sizeInBytes(), time(keys, lookups, dictionary::ordinal),
+                time(prefixes, lookups / 100, prefix -> {
+                    int count = 0;
+                    for (String term : dictionary.withPrefix(prefix))
+                        count++;
+                    return count;
+                }));
+        System.out.printf("Front-coded / HashMap: %.1f%% of the bytes%n",
+                100.0 * (Math.max(0, dictionaryHeap) + dictionary.sizeInBytes()) / mapBytes);
+    }
+
+    private static void print(String name, long heap, long offHeap, double lookupNanos, double prefixNanos) {
+        System.out.printf("%-22s %,14d %,14d %12.1f %12s%n", name, heap, offHeap, lookupNanos,
+                prefixNanos < 0 ? "-" : String.format("%.1f", prefixNanos / 1000));
+    }
+
+    /** Nanoseconds per call over count calls, after a warm-up of the same length */
+    private static double time(String[] keys, int count, ToIntFunction<String> lookup) {
+        long sink = 0, start = 0;
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sink += lookup.applyAsInt(keys[i & 4095]);
+        }
+        double nanos = (double) (System.nanoTime() - start) / count;
+        if (sink == 42)
+            System.out.print("");
+        return nanos;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
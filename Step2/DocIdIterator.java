@@ -0,0 +1,13 @@
+/** Iterates doc ids in increasing order */
+public interface DocIdIterator {
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /** Current doc id, -1 before the first call to nextDoc() or advance() */
+    int docID();
+
+    /** Move to the next doc, returns NO_MORE_DOCS at the end */
+    int nextDoc();
+
+    /** Move to the first doc >= target, returns NO_MORE_DOCS if there is none */
+    int advance(int target);
+}
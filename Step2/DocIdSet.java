@@ -0,0 +1,498 @@
+import java.util.Arrays;
+
+/**
+ * Immutable set of doc ids stored like a roaring bitmap. The ids are cut into chunks of 65536
+ * by their high 16 bits, and each non-empty chunk keeps its low 16 bits in the smallest of
+ * three containers:
+ * - array: the sorted values, for chunks of up to 4096 docs;
+ * - bitmap: 1024 words, for dense chunks;
+ * - run: sorted (start, length - 1) pairs, for long stretches such as every live doc.
+ * and, or and andNot work chunk by chunk and share untouched containers between sets, so a
+ * complement against the live docs, a few runs, costs about the size of the negated set
+ * instead of one step per document.
+ */
+public final class DocIdSet {
+    static final int ARRAY_MAX = 4096; // above this an array takes more than a bitmap's 8 KB
+    private static final int BITMAP_WORDS = 1024;
+    private static final DocIdSet EMPTY = new DocIdSet(new char[0], new Container[0]);
+
+    private final char[] keys;
+    private final Container[] containers;
+    private final int cardinality;
+
+    private DocIdSet(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+        int count = 0;
+        for (Container container : containers)
+            count += container.cardinality();
+        cardinality = count;
+    }
+
+    public static DocIdSet empty() {
+        return EMPTY;
+    }
+
+    /** Every doc in [from, to) */
+    public static DocIdSet range(int from, int to) {
+        if (from >= to)
+            return EMPTY;
+        int firstKey = from >>> 16, lastKey = (to - 1) >>> 16;
+        char[] keys = new char[lastKey - firstKey + 1];
+        Container[] containers = new Container[keys.length];
+        for (int key = firstKey; key <= lastKey; key++) {
+            int start = key == firstKey ? from & 0xffff : 0, end = key == lastKey ? (to - 1) & 0xffff : 0xffff;
+            keys[key - firstKey] = (char) key;
+            containers[key - firstKey] = new RunContainer(new char[] { (char) start }, new char[] { (char) (end - start) });
+        }
+        return new DocIdSet(keys, containers);
+    }
+
+    /** The remaining docs of an iterator */
+    public static DocIdSet of(DocIdIterator docs) {
+        Builder builder = new Builder();
+        for (int doc = docs.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = docs.nextDoc())
+            builder.add(doc);
+        return builder.build();
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public boolean contains(int doc) {
+        int i = Arrays.binarySearch(keys, (char) (doc >>> 16));
+        return i >= 0 && containers[i].contains((char) doc);
+    }
+
+    /** Approximate heap taken by the set */
+    public long sizeInBytes() {
+        long bytes = 32 + 2L * keys.length + 8L * containers.length;
+        for (Container container : containers)
+            bytes += container.sizeInBytes();
+        return bytes;
+    }
+
+    public DocIdSet and(DocIdSet other) {
+        Builder result = new Builder();
+        for (int i = 0, j = 0; i < keys.length && j < other.keys.length;) {
+            if (keys[i] < other.keys[j])
+                i++;
+            else if (keys[i] > other.keys[j])
+                j++;
+            else {
+                result.append(keys[i], and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result.build();
+    }
+
+    public DocIdSet or(DocIdSet other) {
+        Builder result = new Builder();
+        int i = 0, j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || i < keys.length && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i]);
+                i++;
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j]);
+                j++;
+            } else {
+                result.append(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result.build();
+    }
+
+    /** The docs of this set that are not in other */
+    public DocIdSet andNot(DocIdSet other) {
+        Builder result = new Builder();
+        for (int i = 0, j = 0; i < keys.length; i++) {
+            while (j < other.keys.length && other.keys[j] < keys[i])
+                j++;
+            if (j < other.keys.length && other.keys[j] == keys[i])
+                result.append(keys[i], andNot(containers[i], other.containers[j]));
+            else
+                result.append(keys[i], containers[i]);
+        }
+        return result.build();
+    }
+
+    /** The docs of universe that are not in this set */
+    public DocIdSet complement(DocIdSet universe) {
+        return universe.andNot(this);
+    }
+
+    /** Iterates the set in increasing order */
+    public DocIdIterator iterator() {
+        return new SetIterator();
+    }
+
+    @Override
+    public String toString() {
+        return "DocIdSet(" + cardinality + " docs in " + containers.length + " chunks)";
+    }
+
+    /** Builds a set from docs added in increasing order */
+    public static final class Builder {
+        private char[] keys = new char[4];
+        private Container[] containers = new Container[4];
+        private int size;
+        private int key = -1, last = -1;
+        private char[] values = new char[64];
+        private int count;
+        private long[] words; // the chunk being added once it outgrows an array
+
+        public Builder add(int doc) {
+            if (doc <= last)
+                throw new IllegalArgumentException("Docs out of order: " + doc + " after " + last);
+            last = doc;
+            if (doc >>> 16 != key) {
+                flush();
+                key = doc >>> 16;
+            }
+            char low = (char) doc;
+            if (words != null) {
+                words[low >>> 6] |= 1L << low;
+            } else if (count == ARRAY_MAX) {
+                words = new long[BITMAP_WORDS];
+                for (int i = 0; i < count; i++)
+                    words[values[i] >>> 6] |= 1L << values[i];
+                words[low >>> 6] |= 1L << low;
+            } else {
+                if (count == values.length)
+                    values = Arrays.copyOf(values, count * 2);
+                values[count] = low;
+            }
+            count++;
+            return this;
+        }
+
+        public DocIdSet build() {
+            flush();
+            return size == 0 ? EMPTY : new DocIdSet(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size));
+        }
+
+        private void flush() {
+            if (count > 0)
+                append((char) key, words != null ? fromBitmap(words) : fromArray(values, count));
+            count = 0;
+            words = null;
+        }
+
+        /** A whole chunk, keys in increasing order, null containers are left out */
+        private void append(char chunk, Container container) {
+            if (container == null)
+                return;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            keys[size] = chunk;
+            containers[size++] = container;
+        }
+    }
+
+    private sealed interface Container permits ArrayContainer, BitmapContainer, RunContainer {
+        int cardinality();
+
+        boolean contains(char value);
+
+        /** The container's bits, a new array except for a bitmap's own words, which must not be changed */
+        long[] bits();
+
+        long sizeInBytes();
+    }
+
+    private record ArrayContainer(char[] values) implements Container {
+        @Override
+        public int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return Arrays.binarySearch(values, value) >= 0;
+        }
+
+        @Override
+        public long[] bits() {
+            long[] words = new long[BITMAP_WORDS];
+            for (char value : values)
+                words[value >>> 6] |= 1L << value;
+            return words;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 32 + 2L * values.length;
+        }
+    }
+
+    private record BitmapContainer(long[] words, int cardinality) implements Container {
+        @Override
+        public boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        public long[] bits() {
+            return words;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 32 + 8L * BITMAP_WORDS;
+        }
+    }
+
+    /** Runs of starts[i] .. starts[i] + lengths[i], in increasing order and not touching */
+    private record RunContainer(char[] starts, char[] lengths) implements Container {
+        @Override
+        public int cardinality() {
+            int count = 0;
+            for (char length : lengths)
+                count += length + 1;
+            return count;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            int i = Arrays.binarySearch(starts, value);
+            if (i >= 0)
+                return true;
+            i = -i - 2; // the run starting before value
+            return i >= 0 && value <= starts[i] + lengths[i];
+        }
+
+        @Override
+        public long[] bits() {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < starts.length; i++) {
+                int start = starts[i], end = start + lengths[i] + 1; // exclusive
+                int first = start >>> 6, last = (end - 1) >>> 6;
+                if (first == last) {
+                    words[first] |= -1L >>> (64 - (end - start)) << start;
+                    continue;
+                }
+                words[first] |= -1L << start;
+                Arrays.fill(words, first + 1, last, -1L);
+                words[last] |= -1L >>> -end;
+            }
+            return words;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 48 + 4L * starts.length;
+        }
+    }
+
+    private static Container and(Container a, Container b) {
+        if (a instanceof ArrayContainer array)
+            return filter(array, b, true);
+        if (b instanceof ArrayContainer array)
+            return filter(array, a, true);
+        long[] words = a.bits().clone(), other = b.bits();
+        for (int i = 0; i < BITMAP_WORDS; i++)
+            words[i] &= other[i];
+        return fromBitmap(words);
+    }
+
+    private static Container or(Container a, Container b) {
+        if (a instanceof ArrayContainer x && b instanceof ArrayContainer y && x.values.length + y.values.length <= ARRAY_MAX)
+            return merge(x.values, y.values);
+        long[] words = a.bits().clone(), other = b.bits();
+        for (int i = 0; i < BITMAP_WORDS; i++)
+            words[i] |= other[i];
+        return fromBitmap(words);
+    }
+
+    private static Container andNot(Container a, Container b) {
+        if (a instanceof ArrayContainer array)
+            return filter(array, b, false);
+        long[] words = a.bits().clone();
+        if (b instanceof ArrayContainer array) {
+            for (char value : array.values)
+                words[value >>> 6] &= ~(1L << value);
+        } else {
+            long[] other = b.bits();
+            for (int i = 0; i < BITMAP_WORDS; i++)
+                words[i] &= ~other[i];
+        }
+        return fromBitmap(words);
+    }
+
+    /** The values of the array that are (or are not) in the other container */
+    private static Container filter(ArrayContainer array, Container other, boolean keep) {
+        char[] values = new char[array.values.length];
+        int count = 0;
+        for (char value : array.values) {
+            if (other.contains(value) == keep)
+                values[count++] = value;
+        }
+        return fromArray(values, count);
+    }
+
+    private static Container merge(char[] a, char[] b) {
+        char[] values = new char[a.length + b.length];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                values[count++] = a[i++];
+            else if (a[i] > b[j])
+                values[count++] = b[j++];
+            else {
+                values[count++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length)
+            values[count++] = a[i++];
+        while (j < b.length)
+            values[count++] = b[j++];
+        return fromArray(values, count);
+    }
+
+    /** The smaller of an array and runs for count sorted values, null for none */
+    private static Container fromArray(char[] values, int count) {
+        if (count == 0)
+            return null;
+        int runs = 1;
+        for (int i = 1; i < count; i++) {
+            if (values[i] != values[i - 1] + 1)
+                runs++;
+        }
+        if (2 * runs >= count)
+            return new ArrayContainer(Arrays.copyOf(values, count));
+        char[] starts = new char[runs], lengths = new char[runs];
+        for (int i = 0, run = -1; i < count; i++) {
+            if (i == 0 || values[i] != values[i - 1] + 1)
+                starts[++run] = values[i];
+            lengths[run] = (char) (values[i] - starts[run]);
+        }
+        return new RunContainer(starts, lengths);
+    }
+
+    /** The smallest container for the bits, null for none */
+    private static Container fromBitmap(long[] words) {
+        int count = 0, runs = 0;
+        long previous = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+            runs += Long.bitCount(word & ~(word << 1 | previous >>> 63)); // bits that start a run
+            previous = word;
+        }
+        if (count == 0)
+            return null;
+        if (4L * runs < Math.min(2L * count, 8L * BITMAP_WORDS)) {
+            char[] starts = new char[runs], lengths = new char[runs];
+            int run = 0;
+            for (int value = nextSetBit(words, 0); value >= 0;) {
+                int end = nextClearBit(words, value);
+                starts[run] = (char) value;
+                lengths[run++] = (char) (end - 1 - value);
+                value = end < 65536 ? nextSetBit(words, end) : -1;
+            }
+            return new RunContainer(starts, lengths);
+        }
+        if (count <= ARRAY_MAX) {
+            char[] values = new char[count];
+            int i = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1)
+                    values[i++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+            }
+            return new ArrayContainer(values);
+        }
+        return new BitmapContainer(words, count);
+    }
+
+    /** First set bit at or after from, -1 if none */
+    private static int nextSetBit(long[] words, int from) {
+        int w = from >>> 6;
+        long word = words[w] & -1L << from;
+        while (word == 0) {
+            if (++w == BITMAP_WORDS)
+                return -1;
+            word = words[w];
+        }
+        return w << 6 | Long.numberOfTrailingZeros(word);
+    }
+
+    /** First clear bit at or after from, 65536 if none */
+    private static int nextClearBit(long[] words, int from) {
+        int w = from >>> 6;
+        long word = ~words[w] & -1L << from;
+        while (word == 0) {
+            if (++w == BITMAP_WORDS)
+                return 65536;
+            word = ~words[w];
+        }
+        return w << 6 | Long.numberOfTrailingZeros(word);
+    }
+
+    /** Walks the chunks in order, keeping its place inside the current array or run container */
+    private final class SetIterator implements DocIdIterator {
+        private int chunk, cursor;
+        private int doc = -1;
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc == NO_MORE_DOCS ? doc : advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            int key = target >>> 16;
+            if (chunk < keys.length && keys[chunk] < key) {
+                int i = Arrays.binarySearch(keys, chunk, keys.length, (char) key);
+                chunk = i >= 0 ? i : -i - 1;
+                cursor = 0;
+            }
+            for (; chunk < keys.length; chunk++, cursor = 0) {
+                int low = next(containers[chunk], keys[chunk] == key ? target & 0xffff : 0);
+                if (low >= 0)
+                    return doc = keys[chunk] << 16 | low;
+            }
+            return doc = NO_MORE_DOCS;
+        }
+
+        /** Smallest value of the container not below from, -1 if none */
+        private int next(Container container, int from) {
+            switch (container) {
+                case ArrayContainer array -> {
+                    char[] values = array.values;
+                    if (cursor < values.length && values[cursor] < from) {
+                        if (++cursor < values.length && values[cursor] < from) {
+                            int i = Arrays.binarySearch(values, cursor, values.length, (char) from);
+                            cursor = i >= 0 ? i : -i - 1;
+                        }
+                    }
+                    return cursor < values.length ? values[cursor] : -1;
+                }
+                case BitmapContainer bitmap -> {
+                    return nextSetBit(bitmap.words, from);
+                }
+                case RunContainer runs -> {
+                    while (cursor < runs.starts.length && runs.starts[cursor] + runs.lengths[cursor] < from)
+                        cursor++;
+                    return cursor < runs.starts.length ? Math.max(from, runs.starts[cursor]) : -1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A copy of an index's postings in impact order, for ImpactQuery. The impact of a posting is
+ * its share of a cosine score per unit of query weight, tf_weight(freq) * idf / docNorm, and it
+ * is quantized per term to a level from 1 to LEVELS: level = ceil(impact / max * LEVELS), max
+ * being the term's largest impact. Each term's docs are sorted by level, highest first, and
+ * cut into segments of one level holding increasing doc ids, so a reader meets the documents
+ * that can add the most to a score first and knows, from the level of the segment it is in,
+ * the most any doc it has not read yet can get from the term.
+ *
+ * Terms are found through a TermDictionary like CompactIndex. The segments of term t are
+ * [termSegments[t], termSegments[t + 1]), and segment s holds docs [segmentStart[s],
+ * segmentStart[s + 1]) at level segmentLevels[s]. No positions or freqs are kept: a level
+ * bounds a posting's impact from both sides, and exact scores come from the index itself.
+ * Built once from an index that does not change afterwards; the arrays are never written
+ * again, so one instance can be shared between threads.
+ */
+public class ImpactIndex {
+    static final int LEVELS = 255;
+
+    private final TermDictionary terms;
+    private final int[] termSegments;
+    private final byte[] segmentLevels;
+    private final int[] segmentStart;
+    private final int[] docs;
+    private final double[] maxImpacts; // per term, the max the levels were computed from
+
+    private ImpactIndex(TermDictionary terms, int[] termSegments, byte[] segmentLevels, int[] segmentStart, int[] docs,
+            double[] maxImpacts) {
+        this.terms = terms;
+        this.termSegments = termSegments;
+        this.segmentLevels = segmentLevels;
+        this.segmentStart = segmentStart;
+        this.docs = docs;
+        this.maxImpacts = maxImpacts;
+    }
+
+    /** The impact-ordered postings of every term of the index, terms in parallel on the pool if it is not null */
+    public static ImpactIndex build(PositionalIndex index, ForkJoinPool pool) {
+        TermDictionary terms = TermDictionary.build(TermDictionary.sort(index.terms()));
+        int termCount = terms.size();
+        int[][] termDocs = new int[termCount][];
+        byte[][] termLevels = new byte[termCount][];
+        double[] maxImpacts = new double[termCount];
+        CompactIndex.forEach(pool, termCount, t -> {
+            String term = terms.term(t);
+            PostingsEnum postings = index.postings(term);
+            int[] docs = new int[Math.max(1, index.docFreq(term))];
+            double[] impacts = new double[docs.length];
+            int count = 0;
+            double idf = index.idf(term), max = 0;
+            for (int doc = postings == null ? DocIdIterator.NO_MORE_DOCS : postings.nextDoc();
+                    doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (count == docs.length) {
+                    docs = Arrays.copyOf(docs, count * 2);
+                    impacts = Arrays.copyOf(impacts, count * 2);
+                }
+                double norm = index.docNorm(doc);
+                docs[count] = doc;
+                impacts[count] = norm > 0 ? TFIDFCalculator.tf_weight(postings.freq()) * idf / norm : 0.0;
+                max = Math.max(max, impacts[count++]);
+            }
+
+            // A counting sort by level keeps the docs of a level in increasing order
+            byte[] levels = new byte[count];
+            int[] levelCounts = new int[LEVELS + 2];
+            for (int p = 0; p < count; p++) {
+                int level = max > 0 ? (int) Math.ceil(impacts[p] / max * LEVELS) : 1;
+                level = Math.max(1, Math.min(LEVELS, level));
+                levels[p] = (byte) level;
+                levelCounts[LEVELS - level + 1]++;
+            }
+            for (int i = 1; i < levelCounts.length; i++)
+                levelCounts[i] += levelCounts[i - 1];
+            int[] sortedDocs = new int[count];
+            byte[] sortedLevels = new byte[count];
+            for (int p = 0; p < count; p++) {
+                int slot = levelCounts[LEVELS - (levels[p] & 0xFF)]++;
+                sortedDocs[slot] = docs[p];
+                sortedLevels[slot] = levels[p];
+            }
+            termDocs[t] = sortedDocs;
+            termLevels[t] = sortedLevels;
+            maxImpacts[t] = max;
+        });
+
+        int postingCount = 0, segmentCount = 0;
+        for (int t = 0; t < termCount; t++) {
+            postingCount += termDocs[t].length;
+            for (int p = 0; p < termLevels[t].length; p++) {
+                if (p == 0 || termLevels[t][p] != termLevels[t][p - 1])
+                    segmentCount++;
+            }
+        }
+        int[] termSegments = new int[termCount + 1];
+        byte[] segmentLevels = new byte[segmentCount];
+        int[] segmentStart = new int[segmentCount + 1];
+        int[] docs = new int[postingCount];
+        int segment = 0, posting = 0;
+        for (int t = 0; t < termCount; t++) {
+            termSegments[t] = segment;
+            byte[] levels = termLevels[t];
+            for (int p = 0; p < levels.length; p++) {
+                if (p == 0 || levels[p] != levels[p - 1]) {
+                    segmentLevels[segment] = levels[p];
+                    segmentStart[segment++] = posting + p;
+                }
+            }
+            System.arraycopy(termDocs[t], 0, docs, posting, termDocs[t].length);
+            posting += termDocs[t].length;
+            termDocs[t] = null;
+            termLevels[t] = null;
+        }
+        termSegments[termCount] = segment;
+        segmentStart[segmentCount] = posting;
+        return new ImpactIndex(terms, termSegments, segmentLevels, segmentStart, docs, maxImpacts);
+    }
+
+    public int numTerms() {
+        return terms.size();
+    }
+
+    public int numPostings() {
+        return docs.length;
+    }
+
+    public int numSegments() {
+        return segmentLevels.length;
+    }
+
+    /** Approximate heap used by the arrays, the term dictionary is off the heap */
+    public long sizeInBytes() {
+        return 5L * 16 + 4L * (termSegments.length + segmentStart.length + docs.length) + 8L * maxImpacts.length
+                + segmentLevels.length;
+    }
+
+    /** The segments of a term, highest level first, null if it is not in the index */
+    public Segments segments(String term) {
+        int ord = terms.ordinal(term);
+        return ord < 0 || termSegments[ord] == termSegments[ord + 1] ? null
+                : new Segments(termSegments[ord], termSegments[ord + 1], maxImpacts[ord]);
+    }
+
+    /** The doc at a posting of a segment, see Segments.from and Segments.to */
+    int doc(int posting) {
+        return docs[posting];
+    }
+
+    /**
+     * Walks the segments of one term. Starts on the first segment; the impact of every posting
+     * of the current one is above lowerBound() and at most upperBound().
+     */
+    public final class Segments {
+        private final int end;
+        private final double max;
+        private int segment;
+
+        private Segments(int start, int end, double max) {
+            this.segment = start;
+            this.end = end;
+            this.max = max;
+        }
+
+        /** Move to the next segment, false if this was the last */
+        public boolean next() {
+            return ++segment < end;
+        }
+
+        /** First posting of the segment, for doc() */
+        public int from() {
+            return segmentStart[segment];
+        }
+
+        public int to() {
+            return segmentStart[segment + 1];
+        }
+
+        /** Rounded up, so it is never below a posting's impact */
+        public double upperBound() {
+            return (segmentLevels[segment] & 0xFF) * max / LEVELS * (1 + 1e-9);
+        }
+
+        /** Rounded down, so it is never above a posting's impact */
+        public double lowerBound() {
+            return ((segmentLevels[segment] & 0xFF) - 1) * max / LEVELS * (1 - 1e-9);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import java.util.*;
+
+/**
+ * Top k search over an ImpactIndex that stops reading postings once the top k are known.
+ * Meant for the broad or-ed queries where PhraseQuery.search has to score every match: the
+ * segments of all query terms are read score-at-a-time, the one that can add the most to a
+ * score first, and each doc accumulates a lower and an upper bound of its score from the
+ * levels of the segments it was found in. Every doc not read yet from a term can get at most
+ * the bound of the term's current segment, so with R the sum of those bounds, once the k-th
+ * best lower bound beats R no doc that was not read can enter the top k, and a doc that was
+ * read can only if its upper bound plus R reaches the k-th lower bound. Reading stops there
+ * when scoring those candidates costs less than reading the postings left, and the candidates
+ * are scored exactly from the index, in the query vector's order like PhraseQuery.search, so
+ * the results are the same bits.
+ *
+ * A budget below 1 also stops after that fraction of the query's postings, returning the docs
+ * with the best lower bounds so far: faster, but no longer always the exhaustive top k.
+ * Queries that are not a plain or of terms (and, not, phrases) go to PhraseQuery.search, and
+ * so do those with fewer than k scored docs when some matches score 0, like those of a term
+ * in every doc. The accumulators are reused between queries, so an instance serves one thread.
+ */
+public class ImpactQuery {
+    /** How a search ended */
+    public enum Stop { SAFE, BUDGET, EXHAUSTED, FALLBACK }
+
+    /** What the last search did: how it ended and how many of its terms' postings it read */
+    public record Stats(Stop stop, long postingsRead, long postings) {
+    }
+
+    private final PositionalIndex index;
+    private final ImpactIndex impacts;
+    private final PhraseQuery fallback;
+    private final Analyzer analyzer = Analyzer.fromSystemProperties();
+    private double budget = 1.0;
+    private Stats stats;
+
+    // Per doc bounds of the current query, valid where stamps[doc] == query
+    private final double[] lower, upper;
+    private final int[] stamps, matchedStamps;
+    private int query;
+    private int[] touched = new int[1024];
+    private int touchedCount;
+
+    public ImpactQuery(PositionalIndex index, ImpactIndex impacts) {
+        this.index = index;
+        this.impacts = impacts;
+        fallback = new PhraseQuery(index);
+        lower = new double[index.numDocs()];
+        upper = new double[index.numDocs()];
+        stamps = new int[index.numDocs()];
+        matchedStamps = new int[index.numDocs()];
+    }
+
+    /** Fraction of a query's postings to read at most, 1 (the default) reads until the top k are known */
+    public void setBudget(double budget) {
+        this.budget = budget;
+    }
+
+    /** Stats of the last search, null before the first */
+    public Stats lastStats() {
+        return stats;
+    }
+
+    /** Top k of the query as PhraseQuery.search(query, k) ranks them; throws IllegalArgumentException if it does not parse */
+    public List<ScoredDoc> search(String query, int k) {
+        query = query.toLowerCase();
+        Set<String> matching = new HashSet<>();
+        if (k <= 0 || !disjunction(QueryParser.parse(query, analyzer), matching))
+            return fallback(query, k);
+        List<String> termsInQuery = fallback.queryTerms(query);
+        Map<String, Double> queryVector = ScoreAccumulator.queryWeights(index, termsInQuery);
+        double queryVectorLength = ScoreAccumulator.queryVectorLength(index, queryVector, termsInQuery);
+        List<String> terms = new ArrayList<>(); // the scored terms in query vector order, as search has them
+        for (String term : queryVector.keySet()) {
+            if (index.docFreq(term) > 0 && queryVector.get(term) > 0 && index.postings(term) != null)
+                terms.add(term);
+        }
+        // A match without any scored term has score 0, and only fills the top k when fewer docs score more
+        boolean unscoredMatches = false;
+        for (String term : matching)
+            unscoredMatches |= index.docFreq(term) > 0 && !terms.contains(term);
+        if (queryVectorLength == 0 || terms.isEmpty())
+            return fallback(query, k);
+
+        if (++this.query == 0) { // wrapped around, old stamps could match again
+            Arrays.fill(stamps, 0);
+            Arrays.fill(matchedStamps, 0);
+            this.query = 1;
+        }
+        touchedCount = 0;
+        int n = terms.size();
+        ImpactIndex.Segments[] segments = new ImpactIndex.Segments[n];
+        double[] weights = new double[n]; // query weight / query length, times an impact is a share of the score
+        boolean[] matches = new boolean[n];
+        long postings = 0;
+        for (int i = 0; i < n; i++) {
+            segments[i] = impacts.segments(terms.get(i));
+            weights[i] = queryVector.get(terms.get(i)) / queryVectorLength;
+            matches[i] = matching.contains(terms.get(i));
+            postings += index.docFreq(terms.get(i));
+        }
+        PriorityQueue<Integer> next = new PriorityQueue<>(
+                Comparator.comparingDouble((Integer i) -> weights[i] * segments[i].upperBound()).reversed());
+        for (int i = 0; i < n; i++) {
+            if (segments[i] != null)
+                next.add(i);
+        }
+
+        long read = 0, sinceCheck = 0, limit = budget < 1 ? (long) Math.ceil(budget * postings) : Long.MAX_VALUE;
+        Stop stop = Stop.EXHAUSTED;
+        while (!next.isEmpty()) {
+            int i = next.poll();
+            ImpactIndex.Segments segment = segments[i];
+            double low = weights[i] * segment.lowerBound(), high = weights[i] * segment.upperBound();
+            for (int p = segment.from(); p < segment.to(); p++) {
+                int doc = impacts.doc(p);
+                if (stamps[doc] != this.query) {
+                    stamps[doc] = this.query;
+                    lower[doc] = 0.0;
+                    upper[doc] = 0.0;
+                    if (touchedCount == touched.length)
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    touched[touchedCount++] = doc;
+                }
+                lower[doc] += low;
+                upper[doc] += high;
+                if (matches[i])
+                    matchedStamps[doc] = this.query;
+            }
+            read += segment.to() - segment.from();
+            sinceCheck += segment.to() - segment.from();
+            if (segment.next())
+                next.add(i);
+            else
+                segments[i] = null;
+            if (read >= limit) {
+                stop = Stop.BUDGET;
+                break;
+            }
+            // Checking costs a pass over the touched docs, so it waits for as many new postings
+            if (!next.isEmpty() && sinceCheck >= Math.max(256, touchedCount / 2)) {
+                sinceCheck = 0;
+                if (known(k, remaining(segments, weights), n, postings - read)) {
+                    stop = Stop.SAFE;
+                    break;
+                }
+            }
+        }
+        List<ScoredDoc> ranked = rescore(candidates(k, stop, remaining(segments, weights)), terms, matches,
+                queryVector, queryVectorLength, k);
+        if (unscoredMatches && ranked.size() < k)
+            return fallback(query, k);
+        stats = new Stats(stop, read, postings);
+        return ranked;
+    }
+
+    private List<ScoredDoc> fallback(String query, int k) {
+        List<ScoredDoc> ranked = fallback.search(query, k);
+        stats = new Stats(Stop.FALLBACK, 0, 0);
+        return ranked;
+    }
+
+    /** Whether the query is terms or-ed together, collecting them with wildcards expanded */
+    private boolean disjunction(QueryNode node, Set<String> matching) {
+        if (node instanceof QueryNode.Phrase phrase && phrase.terms().size() == 1) {
+            String term = phrase.terms().get(0);
+            if (Wildcard.isPattern(term))
+                matching.addAll(Wildcard.expand(index, term));
+            else
+                matching.add(term);
+            return true;
+        }
+        if (node instanceof QueryNode.Or or) {
+            for (QueryNode clause : or.clauses()) {
+                if (!disjunction(clause, matching))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** R: the most a doc can still get from the segments not read yet */
+    private static double remaining(ImpactIndex.Segments[] segments, double[] weights) {
+        double remaining = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null)
+                remaining += weights[i] * segments[i].upperBound();
+        }
+        return remaining;
+    }
+
+    /**
+     * Whether the k-th best lower bound beats remaining, and scoring the docs that can still
+     * reach it, n terms each, costs no more than reading the postings left
+     */
+    private boolean known(int k, double remaining, int n, long postingsLeft) {
+        double kth = kthLowerBound(k);
+        if (Double.isNaN(kth) || kth <= remaining * (1 + 1e-9))
+            return false;
+        long candidates = 0;
+        for (int t = 0; t < touchedCount; t++) {
+            if ((upper[touched[t]] + remaining) * (1 + 1e-9) >= kth)
+                candidates++;
+        }
+        return candidates * n <= postingsLeft;
+    }
+
+    /** The k-th best lower bound of the matched docs, NaN if fewer are matched */
+    private double kthLowerBound(int k) {
+        double[] heap = new double[k]; // min-heap of the best k
+        int size = 0;
+        for (int t = 0; t < touchedCount; t++) {
+            int doc = touched[t];
+            if (matchedStamps[doc] != query)
+                continue;
+            double bound = lower[doc];
+            if (size < k) {
+                int i = size++;
+                for (; i > 0 && heap[(i - 1) / 2] > bound; i = (i - 1) / 2)
+                    heap[i] = heap[(i - 1) / 2];
+                heap[i] = bound;
+            } else if (bound > heap[0]) {
+                int i = 0;
+                for (int child = 1; child < k; child = 2 * i + 1) {
+                    if (child + 1 < k && heap[child + 1] < heap[child])
+                        child++;
+                    if (heap[child] >= bound)
+                        break;
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = bound;
+            }
+        }
+        return size < k ? Double.NaN : heap[0];
+    }
+
+    /**
+     * The docs that can be in the top k: with the postings read up to SAFE or to the end, those
+     * whose upper bound plus remaining reaches the k-th lower bound, matched or not, as the
+     * postings left may still match them; after a BUDGET stop the matched docs with the best
+     * lower bounds.
+     */
+    private int[] candidates(int k, Stop stop, double remaining) {
+        double kth = kthLowerBound(k);
+        int[] docs = new int[touchedCount];
+        int count = 0;
+        for (int t = 0; t < touchedCount; t++) {
+            int doc = touched[t];
+            boolean candidate;
+            if (stop == Stop.BUDGET)
+                candidate = matchedStamps[doc] == query && (Double.isNaN(kth) || lower[doc] >= kth);
+            else
+                candidate = Double.isNaN(kth) || (upper[doc] + remaining) * (1 + 1e-9) >= kth;
+            if (candidate)
+                docs[count++] = doc;
+        }
+        docs = Arrays.copyOf(docs, count);
+        Arrays.sort(docs);
+        return docs;
+    }
+
+    /**
+     * Exact scores of the candidates that contain a matching term, summed in query vector order
+     * as PhraseQuery.search does, best k first
+     */
+    private List<ScoredDoc> rescore(int[] docs, List<String> terms, boolean[] matches, Map<String, Double> queryVector,
+            double queryVectorLength, int k) {
+        int n = terms.size();
+        PostingsEnum[] postings = new PostingsEnum[n];
+        double[] queryWeights = new double[n], idfs = new double[n];
+        for (int i = 0; i < n; i++) {
+            postings[i] = index.postings(terms.get(i));
+            queryWeights[i] = queryVector.get(terms.get(i));
+            idfs[i] = index.idf(terms.get(i));
+        }
+        List<ScoredDoc> ranked = new ArrayList<>(docs.length);
+        for (int doc : docs) {
+            double dotProduct = 0;
+            boolean matched = false;
+            for (int i = 0; i < n; i++) {
+                PostingsEnum term = postings[i];
+                if ((term.docID() < doc ? term.advance(doc) : term.docID()) == doc) {
+                    dotProduct += queryWeights[i] * (TFIDFCalculator.tf_weight(term.freq()) * idfs[i]);
+                    matched |= matches[i];
+                }
+            }
+            if (!matched)
+                continue;
+            double docVectorLength = index.docNorm(doc);
+            double score = queryVectorLength == 0 || docVectorLength == 0 ? 0.0
+                    : dotProduct / (queryVectorLength * docVectorLength);
+            ranked.add(new ScoredDoc(doc, index.docName(doc), score));
+        }
+        ranked.sort(Comparator.comparingDouble(ScoredDoc::score).reversed().thenComparingInt(ScoredDoc::doc));
+        return ranked.size() > k ? new ArrayList<>(ranked.subList(0, k)) : ranked;
+    }
+}
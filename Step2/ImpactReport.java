@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * Compares ImpactQuery with the exhaustive ranking on the queries of a file: the top k scoring
+ * every match (PhraseQuery.search without MaxScore), with MaxScore, and ImpactQuery reading
+ * until the top k are known and with each budget. For each it prints the mean, median and 99th
+ * percentile latency, the recall of the exhaustive top k (the share of its docs found), how
+ * many results differ from it at all, and for ImpactQuery the share of the postings read and
+ * how its searches ended. Every query runs once in every mode before anything is timed.
+ *
+ * Usage: java ImpactReport <index file> <query file> [k] [budget]...
+ */
+public class ImpactReport {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java ImpactReport <index file> <query file> [k] [budget]...");
+            System.exit(2);
+        }
+        PositionalIndex index = TFIDFCalculator.openIndex(args[0]);
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        List<Double> budgets = new ArrayList<>();
+        for (int i = 3; i < args.length; i++)
+            budgets.add(Double.parseDouble(args[i]));
+        if (budgets.isEmpty())
+            budgets.addAll(List.of(0.5, 0.2, 0.1, 0.05));
+
+        long start = System.nanoTime();
+        ImpactIndex impacts = ImpactIndex.build(index, null);
+        System.out.printf("Impact index: %d postings in %d segments, %,d bytes, built in %.0f ms (postings of the index: %,d bytes)%n",
+                impacts.numPostings(), impacts.numSegments(), impacts.sizeInBytes(), (System.nanoTime() - start) / 1e6,
+                index.postingsBytes());
+
+        PhraseQuery exhaustive = new PhraseQuery(index);
+        exhaustive.setMaxScore(false);
+        List<String> queries = new ArrayList<>();
+        List<List<ScoredDoc>> expected = new ArrayList<>();
+        for (String query : Files.readAllLines(Path.of(args[1]))) {
+            if (query.isBlank())
+                continue;
+            try {
+                expected.add(exhaustive.search(query, k));
+                queries.add(query);
+            } catch (IllegalArgumentException e) {
+                // not a query, skipped in every mode
+            }
+        }
+        System.out.printf("%d queries, top %d%n", queries.size(), k);
+        System.out.printf("%-18s %10s %10s %10s %8s %10s %10s  %s%n", "", "mean us", "p50 us", "p99 us", "recall",
+                "differ", "postings", "stops");
+
+        PhraseQuery maxScore = new PhraseQuery(index);
+        report("exhaustive", queries, expected, exhaustive::search, null, k);
+        report("MaxScore", queries, expected, maxScore::search, null, k);
+        ImpactQuery impact = new ImpactQuery(index, impacts);
+        report("impact", queries, expected, impact::search, impact, k);
+        for (double budget : budgets) {
+            ImpactQuery budgeted = new ImpactQuery(index, impacts);
+            budgeted.setBudget(budget);
+            report(String.format("impact budget %.2f", budget), queries, expected, budgeted::search, budgeted, k);
+        }
+    }
+
+    private static void report(String name, List<String> queries, List<List<ScoredDoc>> expected,
+            BiFunction<String, Integer, List<ScoredDoc>> search, ImpactQuery impact, int k) {
+        for (String query : queries)
+            search.apply(query, k); // warm-up
+        long[] nanos = new long[queries.size()];
+        double recall = 0;
+        int differ = 0;
+        long read = 0, postings = 0;
+        Map<ImpactQuery.Stop, Integer> stops = new EnumMap<>(ImpactQuery.Stop.class);
+        for (int q = 0; q < queries.size(); q++) {
+            long start = System.nanoTime();
+            List<ScoredDoc> ranked = search.apply(queries.get(q), k);
+            nanos[q] = System.nanoTime() - start;
+            if (!ranked.equals(expected.get(q)))
+                differ++;
+            Set<Integer> found = new HashSet<>();
+            ranked.forEach(scored -> found.add(scored.doc()));
+            int hits = 0;
+            for (ScoredDoc scored : expected.get(q)) {
+                if (found.contains(scored.doc()))
+                    hits++;
+            }
+            recall += expected.get(q).isEmpty() ? 1.0 : (double) hits / expected.get(q).size();
+            if (impact != null) {
+                ImpactQuery.Stats stats = impact.lastStats();
+                stops.merge(stats.stop(), 1, Integer::sum);
+                read += stats.postingsRead();
+                postings += stats.postings();
+            }
+        }
+        Arrays.sort(nanos);
+        double mean = Arrays.stream(nanos).average().orElse(0) / 1000;
+        System.out.printf("%-18s %10.1f %10.1f %10.1f %8.4f %10d %10s  %s%n", name, mean,
+                nanos.length == 0 ? 0 : nanos[nanos.length / 2] / 1000.0,
+                nanos.length == 0 ? 0 : nanos[Math.min(nanos.length - 1, (int) (nanos.length * 0.99))] / 1000.0,
+                queries.isEmpty() ? 1.0 : recall / queries.size(), differ,
+                impact == null ? "-" : postings == 0 ? "0%" : String.format("%.1f%%", 100.0 * read / postings),
+                impact == null ? "" : stops);
+    }
+}
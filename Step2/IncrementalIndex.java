@@ -0,0 +1,250 @@
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An index that takes new and deleted documents without rerunning the Hadoop job. Every added
+ * document becomes a small in-memory segment and a deletion only marks the doc in its
+ * segment's deletions, and either publishes a new SegmentedIndex right away, so the change is
+ * searchable as soon as the call returns. Queries hold on to the snapshot they started with.
+ *
+ * A log merge policy keeps the number of segments down: whenever mergeFactor neighbouring
+ * segments are on about the same size level (level = log_mergeFactor(live docs)), a
+ * background thread rewrites them into one segment without their deleted docs. Docs deleted
+ * while the merge runs are deleted again from the merged segment when it replaces its
+ * sources, and a segment whose docs are all deleted is dropped at once.
+ */
+public class IncrementalIndex implements Closeable {
+    public static final int DEFAULT_MERGE_FACTOR = 10;
+
+    private final int mergeFactor;
+    private final List<SegmentedIndex.Segment> segments = new ArrayList<>(); // guarded by this
+    private final List<SegmentedIndex.Deletions> deletions = new ArrayList<>(); // guarded by this
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean merging; // guarded by this
+    private long merges;
+    private long version; // guarded by this
+    private volatile SegmentedIndex snapshot;
+
+    /** Start from an existing index, which becomes the first segment */
+    public IncrementalIndex(CompactIndex base, int mergeFactor) {
+        this.mergeFactor = mergeFactor;
+        if (base != null && base.numDocs() > 0) {
+            SegmentedIndex.Segment segment = new SegmentedIndex.Segment(base);
+            segments.add(segment);
+            deletions.add(SegmentedIndex.Deletions.none(segment));
+        }
+        publish();
+    }
+
+    /** The current view of the index, it does not change when documents are added later */
+    public SegmentedIndex snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Index a document, tokenized like the Hadoop mapper by the Analyzer of the system
+     * properties, positions counted from 0. A live document with the same name is replaced.
+     */
+    public void addDocument(String name, String text) {
+        Map<String, int[]> positions = new HashMap<>(); // term -> {count, positions...}
+        int position = 0;
+        for (String term : Analyzer.fromSystemProperties().terms(text)) {
+            int[] list = positions.computeIfAbsent(term, k -> new int[4]);
+            if (list[0] + 1 == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                positions.put(term, list);
+            }
+            list[++list[0]] = position++;
+        }
+        var builder = new CompactIndex.Builder();
+        for (var entry : positions.entrySet()) {
+            int[] list = entry.getValue();
+            builder.add(entry.getKey(), name, Arrays.copyOfRange(list, 1, list[0] + 1), list[0]);
+        }
+        SegmentedIndex.Segment segment = new SegmentedIndex.Segment(builder.build());
+
+        synchronized (this) {
+            deleteLive(name);
+            if (segment.numDocs() > 0) { // a document without words has nothing to search
+                segments.add(segment);
+                deletions.add(SegmentedIndex.Deletions.none(segment));
+            }
+            publish();
+            maybeMerge();
+        }
+    }
+
+    /** Delete the live document with this name, returns false if there is none */
+    public synchronized boolean deleteDocument(String name) {
+        boolean deleted = deleteLive(name);
+        if (deleted)
+            publish();
+        return deleted;
+    }
+
+    public synchronized int numSegments() {
+        return segments.size();
+    }
+
+    public synchronized long merges() {
+        return merges;
+    }
+
+    /** Wait until no merge is running or pending */
+    public void awaitMerges() throws InterruptedException {
+        synchronized (this) {
+            while (merging)
+                wait();
+        }
+    }
+
+    @Override
+    public void close() {
+        merger.shutdownNow();
+        try {
+            merger.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean deleteLive(String name) {
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            SegmentedIndex.Segment segment = segments.get(s);
+            int doc = segment.index.docId(name);
+            if (doc >= 0 && !deletions.get(s).isDeleted(doc)) {
+                SegmentedIndex.Deletions deleted = deletions.get(s).delete(doc);
+                if (deleted.count() == segment.numDocs()) { // nothing left to search or merge
+                    segments.remove(s);
+                    deletions.remove(s);
+                } else
+                    deletions.set(s, deleted);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void publish() {
+        snapshot = new SegmentedIndex(segments, deletions, ++version);
+    }
+
+    /**
+     * Start merging mergeFactor neighbouring segments of about the same size, if there are
+     * some. As in Lucene's log merge policy the segments are cut into buckets from the oldest:
+     * a bucket runs up to the last segment at most 0.75 levels below the biggest remaining one,
+     * so a few small segments between big ones do not keep the big ones from merging. Segments
+     * under mergeFactor docs all count as level 1.
+     */
+    private void maybeMerge() {
+        if (merging || merger.isShutdown())
+            return;
+        int count = segments.size();
+        double[] levels = new double[count];
+        for (int s = 0; s < count; s++) {
+            int liveDocs = segments.get(s).numDocs() - deletions.get(s).count();
+            levels[s] = Math.log(Math.max(liveDocs, mergeFactor)) / Math.log(mergeFactor);
+        }
+        for (int start = 0; start < count;) {
+            double maxLevel = 0;
+            for (int s = start; s < count; s++)
+                maxLevel = Math.max(maxLevel, levels[s]);
+            int end = start;
+            for (int s = start; s < count; s++) {
+                if (levels[s] >= maxLevel - 0.75)
+                    end = s + 1;
+            }
+            if (end - start >= mergeFactor) {
+                List<SegmentedIndex.Segment> sources = List.copyOf(segments.subList(start, start + mergeFactor));
+                List<SegmentedIndex.Deletions> sourceDeletions = List.copyOf(deletions.subList(start, start + mergeFactor));
+                merging = true;
+                merger.execute(() -> merge(sources, sourceDeletions));
+                return;
+            }
+            start = end;
+        }
+    }
+
+    /** Rewrite the live docs of the sources into one segment, then swap it in */
+    private void merge(List<SegmentedIndex.Segment> sources, List<SegmentedIndex.Deletions> sourceDeletions) {
+        SegmentedIndex.Segment merged = null;
+        try {
+            var builder = new CompactIndex.Builder();
+            int[] positions = new int[64];
+            for (int s = 0; s < sources.size(); s++) {
+                CompactIndex index = sources.get(s).index;
+                SegmentedIndex.Deletions deleted = sourceDeletions.get(s);
+                for (String term : index.terms()) {
+                    PostingsEnum postings = index.postings(term);
+                    for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                        if (deleted.isDeleted(doc))
+                            continue;
+                        int freq = postings.freq();
+                        if (positions.length < freq)
+                            positions = new int[Math.max(freq, positions.length * 2)];
+                        for (int p = 0; p < freq; p++)
+                            positions[p] = postings.nextPosition();
+                        builder.add(term, index.docName(doc), positions, freq);
+                    }
+                }
+            }
+            merged = new SegmentedIndex.Segment(builder.build());
+        } finally {
+            synchronized (this) {
+                if (merged != null)
+                    swapIn(sources, sourceDeletions, merged);
+                merging = false;
+                notifyAll();
+                maybeMerge();
+            }
+        }
+    }
+
+    private void swapIn(List<SegmentedIndex.Segment> sources, List<SegmentedIndex.Deletions> sourceDeletions,
+            SegmentedIndex.Segment merged) {
+        SegmentedIndex.Deletions mergedDeletions = SegmentedIndex.Deletions.none(merged);
+        int insertAt = -1;
+        for (int s = sources.size() - 1; s >= 0; s--) {
+            SegmentedIndex.Segment source = sources.get(s);
+            SegmentedIndex.Deletions before = sourceDeletions.get(s);
+            int current = indexOf(source);
+            // Docs deleted since the merge started, all of them if the segment was dropped meanwhile
+            if (current >= 0) {
+                SegmentedIndex.Deletions now = deletions.get(current);
+                for (int i = before.count(); i < now.count(); i++)
+                    mergedDeletions = mergedDeletions.delete(merged.index.docId(source.index.docName(now.deletedDoc(i))));
+                segments.remove(current);
+                deletions.remove(current);
+                insertAt = current;
+            } else {
+                for (int doc = 0; doc < source.numDocs(); doc++) {
+                    if (!before.isDeleted(doc))
+                        mergedDeletions = mergedDeletions.delete(merged.index.docId(source.index.docName(doc)));
+                }
+            }
+        }
+        if (merged.numDocs() > mergedDeletions.count()) {
+            // Only the merger removes segments other than fully deleted ones, so the sources
+            // were neighbours and the merged segment takes their place
+            segments.add(Math.max(insertAt, 0), merged);
+            deletions.add(Math.max(insertAt, 0), mergedDeletions);
+        }
+        merges++;
+        publish();
+    }
+
+    private int indexOf(SegmentedIndex.Segment segment) {
+        for (int s = 0; s < segments.size(); s++) {
+            if (segments.get(s) == segment)
+                return s;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Starts an IncrementalIndex from a text index, then adds every file of a directory as a new
+ * document while query threads keep searching. Prints how long each document took to become
+ * searchable, the ingest rate, and the query throughput before and during the ingest.
+ *
+ * Usage: java IngestReport <text index> <document directory> <query file> [query threads] [merge factor]
+ */
+public class IngestReport {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: java IngestReport <text index> <document directory> <query file>"
+                    + " [query threads] [merge factor]");
+            System.exit(2);
+        }
+        List<String> queries = Files.readAllLines(Path.of(args[2])).stream().filter(q -> !q.isBlank()).toList();
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int mergeFactor = args.length > 4 ? Integer.parseInt(args[4]) : IncrementalIndex.DEFAULT_MERGE_FACTOR;
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(Path.of(args[1]))) {
+            files = listing.filter(Files::isRegularFile).sorted().toList();
+        }
+
+        try (IncrementalIndex index = new IncrementalIndex(TFIDFCalculator.buildCompactIndex(args[0]), mergeFactor)) {
+            System.out.println("Base: " + index.snapshot());
+            LongAdder searches = new LongAdder();
+            AtomicBoolean stop = new AtomicBoolean();
+            List<Thread> searchers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                searchers.add(Thread.ofPlatform().start(() -> {
+                    for (int i = first; !stop.get(); i++) {
+                        new PhraseQuery(index.snapshot()).search(queries.get(i % queries.size()), 10);
+                        searches.increment();
+                    }
+                }));
+            }
+
+            Thread.sleep(2000); // warm up
+            searches.reset();
+            long start = System.nanoTime();
+            Thread.sleep(2000);
+            double idleQps = searches.sum() / ((System.nanoTime() - start) / 1e9);
+
+            long[] latencies = new long[files.size()];
+            searches.reset();
+            start = System.nanoTime();
+            for (int i = 0; i < files.size(); i++) {
+                String name = files.get(i).getFileName().toString(), text = Files.readString(files.get(i));
+                long added = System.nanoTime();
+                index.addDocument(name, text);
+                if (index.snapshot().docId(name) < 0)
+                    throw new IllegalStateException(name + " is not searchable after addDocument");
+                latencies[i] = System.nanoTime() - added;
+            }
+            double ingestSeconds = (System.nanoTime() - start) / 1e9;
+            double ingestQps = searches.sum() / ingestSeconds;
+            stop.set(true);
+            for (Thread searcher : searchers)
+                searcher.join();
+            index.awaitMerges();
+
+            Arrays.sort(latencies);
+            System.out.println("After: " + index.snapshot() + ", " + index.merges() + " merges");
+            System.out.printf("Ingested %d docs in %.2f s, %.0f docs/s%n", files.size(), ingestSeconds,
+                    files.size() / ingestSeconds);
+            if (latencies.length > 0)
+                System.out.printf("Searchable after: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                        LoadGenerator.percentile(latencies, 0.50) / 1e6, LoadGenerator.percentile(latencies, 0.99) / 1e6,
+                        latencies[latencies.length - 1] / 1e6);
+            System.out.printf("Queries/s with %d threads: %.0f idle, %.0f during ingest%n", threads, idleQps, ingestQps);
+        }
+    }
+}
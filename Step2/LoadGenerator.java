@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the queries of a file to a QueryServer, cycling through them, with 1, 2, 4, ... 64
+ * clients at once, and prints the throughput and the p50 and p99 latency of each level.
+ *
+ * Usage: java LoadGenerator <query file> [port] [requests per level] [k]
+ */
+public class LoadGenerator {
+    static final int[] CONCURRENCY = { 1, 2, 4, 8, 16, 32, 64 };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java LoadGenerator <query file> [port] [requests per level] [k]");
+            System.exit(2);
+        }
+        List<String> queries = Files.readAllLines(Path.of(args[0])).stream().filter(q -> !q.isBlank()).toList();
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : QueryServer.DEFAULT_PORT;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int k = args.length > 3 ? Integer.parseInt(args[3]) : QueryServer.DEFAULT_K;
+
+        URI[] uris = new URI[queries.size()];
+        for (int i = 0; i < uris.length; i++)
+            uris[i] = URI.create("http://localhost:" + port + "/search?k=" + k + "&q="
+                    + URLEncoder.encode(queries.get(i), StandardCharsets.UTF_8));
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        run(client, uris, 1, Math.min(requests, 500)); // warm up both sides
+
+        System.out.printf("%-12s %12s %12s %12s %8s%n", "clients", "queries/s", "p50 ms", "p99 ms", "errors");
+        for (int clients : CONCURRENCY) {
+            Result result = run(client, uris, clients, requests);
+            long[] latencies = result.latencies();
+            Arrays.sort(latencies);
+            System.out.printf("%-12d %12.0f %12.3f %12.3f %8d%n", clients, requests / result.seconds(),
+                    percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6, result.errors());
+        }
+    }
+
+    record Result(long[] latencies, double seconds, int errors) {
+    }
+
+    /** Send requests queries from the given number of virtual threads, each waiting for its reply */
+    static Result run(HttpClient client, URI[] uris, int clients, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger(), errors = new AtomicInteger();
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                executor.submit(() -> {
+                    for (int i; (i = next.getAndIncrement()) < requests;) {
+                        HttpRequest request = HttpRequest.newBuilder(uris[i % uris.length]).GET().build();
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200)
+                                errors.incrementAndGet();
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        latencies[i] = System.nanoTime() - sent;
+                    }
+                });
+            }
+        } // close() waits for every client
+        return new Result(latencies, (System.nanoTime() - start) / 1e9, errors.get());
+    }
+
+    static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.IOException;
+
+/**
+ * Times loading the text index with ParallelIndexLoader on 1, 2, 4 and 8 threads and prints
+ * the speedup over one thread. Every parallel load is checked against the single-threaded one.
+ *
+ * Usage: java LoadReport [text index] [runs per thread count]
+ */
+public class LoadReport {
+    static final int[] THREADS = { 1, 2, 4, 8 };
+
+    public static void main(String[] args) throws IOException {
+        String inputFile = args.length > 0 ? args[0] : "positional_index.txt";
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        CompactIndex reference = ParallelIndexLoader.load(inputFile, 1); // also warms up the JIT
+        System.out.printf("%d terms, %d docs, %d cores%n", reference.numTerms(), reference.numDocs(),
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-10s %12s %10s%n", "threads", "best ms", "speedup");
+        double single = 0;
+        for (int threads : THREADS) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                CompactIndex index = ParallelIndexLoader.load(inputFile, threads);
+                best = Math.min(best, System.nanoTime() - start);
+                if (run == 0 && !sameIndex(reference, index))
+                    throw new IllegalStateException("Index loaded on " + threads + " threads differs");
+            }
+            if (threads == 1)
+                single = best;
+            System.out.printf("%-10d %12.1f %9.2fx%n", threads, best / 1e6, single / best);
+        }
+    }
+
+    /** Same docs, terms and postings, and norms equal up to the order their squares were added in */
+    static boolean sameIndex(PositionalIndex a, PositionalIndex b) {
+        if (a.numDocs() != b.numDocs() || a.numTerms() != b.numTerms())
+            return false;
+        for (int doc = 0; doc < a.numDocs(); doc++) {
+            if (!a.docName(doc).equals(b.docName(doc)) || Math.abs(a.docNorm(doc) - b.docNorm(doc)) > 1e-9 * a.docNorm(doc))
+                return false;
+        }
+        for (String term : a.terms()) {
+            PostingsEnum x = a.postings(term), y = b.postings(term);
+            if (y == null)
+                return false;
+            for (int doc = x.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = x.nextDoc()) {
+                if (y.nextDoc() != doc || x.freq() != y.freq())
+                    return false;
+                for (int p = 0; p < x.freq(); p++) {
+                    if (x.nextPosition() != y.nextPosition())
+                        return false;
+                }
+            }
+            if (y.nextDoc() != DocIdIterator.NO_MORE_DOCS)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary positional index written by Step1's PositionalIndexConverter, served straight from a
+ * memory-mapped file. Opening only maps the file and reads the header, every lookup decodes
+ * the bytes it needs on demand, so nothing proportional to the index size is loaded on the heap.
+ * Buffers are only read with absolute gets, so one instance can be shared between threads.
+ */
+public class MappedIndex implements PositionalIndex {
+    static final int MAGIC = 0x50494458; // "PIDX"
+    static final int VERSION = 2;
+    static final int BLOCK_SIZE = 128;
+    static final int HEADER_BYTES = 64;
+
+    // A single MappedByteBuffer is limited to 2 GB, so the file is mapped in chunks that overlap
+    // by CHUNK_OVERLAP bytes. Every fixed size read and every term or doc name (at most 64 KB)
+    // then lies inside one chunk.
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final int CHUNK_OVERLAP = 1 << 17;
+
+    private final ByteBuffer[] chunks;
+    private final int docCount, termCount;
+    private final long docIndexOffset, docNamesOffset, normsOffset, termIndexOffset, dictionaryOffset;
+
+    public MappedIndex(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(size - start, (1L << CHUNK_SHIFT) + CHUNK_OVERLAP));
+            }
+        }
+        if (chunks.length == 0 || getInt(0) != MAGIC)
+            throw new IOException(file + " is not a binary positional index");
+        if (getInt(4) != VERSION)
+            throw new IOException(file + " has unsupported version " + getInt(4));
+        docCount = getInt(8);
+        termCount = getInt(12);
+        docIndexOffset = getLong(16);
+        docNamesOffset = getLong(24);
+        normsOffset = getLong(32);
+        termIndexOffset = getLong(40);
+        dictionaryOffset = getLong(48);
+    }
+
+    /** Checks the magic number, used to tell a binary index from the text output */
+    public static boolean isIndexFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    @Override
+    public int numDocs() {
+        return docCount;
+    }
+
+    @Override
+    public String docName(int doc) {
+        return getString(docNamesOffset + getInt(docIndexOffset + 4L * doc));
+    }
+
+    @Override
+    public int docId(String name) {
+        int low = 0, high = docCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = docName(mid).compareTo(name);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    @Override
+    public int numTerms() {
+        return termCount;
+    }
+
+    @Override
+    public Iterable<String> terms() {
+        return () -> new Iterator<String>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < termCount;
+            }
+
+            @Override
+            public String next() {
+                if (next >= termCount)
+                    throw new NoSuchElementException();
+                return getString(termEntry(next++));
+            }
+        };
+    }
+
+    /** Binary search for the first term not less than prefix, then the terms in order while they match */
+    @Override
+    public Iterable<String> terms(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = termCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long entry = termEntry(mid);
+            if (compareBytes(entry + 2, getShort(entry), key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        List<String> matching = new ArrayList<>();
+        for (int ord = low; ord < termCount; ord++) {
+            String term = getString(termEntry(ord));
+            if (!term.startsWith(prefix))
+                break;
+            matching.add(term);
+        }
+        return matching;
+    }
+
+    @Override
+    public int docFreq(String term) {
+        long entry = findTerm(term);
+        return entry < 0 ? 0 : getInt(entry + 2 + getShort(entry));
+    }
+
+    @Override
+    public PostingsEnum postings(String term) {
+        long entry = findTerm(term);
+        if (entry < 0)
+            return null;
+        long stats = entry + 2 + getShort(entry);
+        return new MappedPostings(getInt(stats), getLong(stats + 4));
+    }
+
+    @Override
+    public double maxImpact(String term) {
+        long entry = findTerm(term);
+        return entry < 0 ? 0.0 : getFloat(entry + 2 + getShort(entry) + 16);
+    }
+
+    /** The postings section runs from the header to the norms */
+    @Override
+    public long postingsBytes() {
+        return normsOffset - HEADER_BYTES;
+    }
+
+    @Override
+    public double docNorm(int doc) {
+        return getDouble(normsOffset + 8L * doc);
+    }
+
+    private long termEntry(int ordinal) {
+        return dictionaryOffset + getInt(termIndexOffset + 4L * ordinal);
+    }
+
+    /** Binary search of the dictionary on unsigned UTF-8 bytes, returns the entry offset or -1 */
+    private long findTerm(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long entry = termEntry(mid);
+            int cmp = compareBytes(entry + 2, getShort(entry), key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return entry;
+        }
+        return -1;
+    }
+
+    private int compareBytes(long offset, int length, byte[] key) {
+        ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+        int start = (int) (offset & CHUNK_MASK);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.compareUnsigned(chunk.get(start + i), key[i]);
+            if (cmp != 0)
+                return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private byte get(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].get((int) (offset & CHUNK_MASK));
+    }
+
+    private int getShort(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getShort((int) (offset & CHUNK_MASK)) & 0xFFFF;
+    }
+
+    private int getInt(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & CHUNK_MASK));
+    }
+
+    private long getLong(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & CHUNK_MASK));
+    }
+
+    private float getFloat(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getFloat((int) (offset & CHUNK_MASK));
+    }
+
+    private double getDouble(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getDouble((int) (offset & CHUNK_MASK));
+    }
+
+    /** Reads a short length followed by that many UTF-8 bytes */
+    private String getString(long offset) {
+        byte[] bytes = new byte[getShort(offset)];
+        chunks[(int) ((offset + 2) >>> CHUNK_SHIFT)].get((int) ((offset + 2) & CHUNK_MASK), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Decodes the postings blocks of one term, using the skip entries to jump over whole blocks */
+    private class MappedPostings implements PostingsEnum {
+        private final int docFreq, blockCount;
+        private long skipPos, nextBlockStart, pos;
+        private int blocksRead, docsLeft, blockLastDoc;
+        private int decodedDoc, doc = -1, freq, positionsLeft, position;
+
+        MappedPostings(int docFreq, long offset) {
+            this.docFreq = docFreq;
+            pos = offset;
+            blockCount = readVInt();
+            int skipBytes = readVInt();
+            skipPos = pos;
+            nextBlockStart = pos + skipBytes;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            skipPositions();
+            if (docsLeft == 0 && !enterNextBlock())
+                return doc = NO_MORE_DOCS;
+            docsLeft--;
+            decodedDoc += readVInt();
+            freq = readVInt();
+            positionsLeft = freq;
+            position = 0;
+            return doc = decodedDoc;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target)
+                return doc;
+            if (docsLeft > 0 && blockLastDoc < target) { // the rest of the current block is too small
+                docsLeft = 0;
+                positionsLeft = 0;
+                decodedDoc = blockLastDoc;
+            }
+            if (docsLeft == 0) {
+                while (blocksRead < blockCount) {
+                    long entry = skipPos;
+                    pos = skipPos;
+                    int lastDoc = readVInt();
+                    int blockBytes = readVInt();
+                    if (lastDoc >= target) {
+                        skipPos = entry;
+                        break;
+                    }
+                    skipPos = pos;
+                    nextBlockStart += blockBytes;
+                    decodedDoc = lastDoc;
+                    blocksRead++;
+                }
+            }
+            while (nextDoc() < target)
+                ;
+            return doc;
+        }
+
+        @Override
+        public int freq() {
+            return freq;
+        }
+
+        @Override
+        public int nextPosition() {
+            positionsLeft--;
+            return position += readVInt();
+        }
+
+        private boolean enterNextBlock() {
+            if (blocksRead == blockCount)
+                return false;
+            pos = skipPos;
+            blockLastDoc = readVInt();
+            int blockBytes = readVInt();
+            skipPos = pos;
+            pos = nextBlockStart;
+            nextBlockStart += blockBytes;
+            docsLeft = Math.min(BLOCK_SIZE, docFreq - blocksRead * BLOCK_SIZE);
+            blocksRead++;
+            return true;
+        }
+
+        private void skipPositions() {
+            while (positionsLeft > 0) {
+                while (get(pos++) < 0)
+                    ;
+                positionsLeft--;
+            }
+        }
+
+        private int readVInt() {
+            byte b = get(pos++);
+            int value = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = get(pos++);
+                value |= (b & 0x7F) << shift;
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedIndex[" + docCount + " docs, " + termCount + " terms, "
+                + Arrays.stream(chunks).mapToLong(ByteBuffer::capacity).sum() + " bytes mapped]";
+    }
+}
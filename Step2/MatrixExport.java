@@ -0,0 +1,176 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Streams the sparse term-document matrix of an index to a file in one pass over the postings.
+ * Only the cells that exist are written, one row per (term, doc) with the raw term frequency
+ * and the tf-idf weight, in term order and doc order within a term.
+ *
+ * CSV: a "term,doc,tf,tfidf" header, then one line per cell.
+ * Binary: int magic "PMTX", int version, int docCount, docCount names (DataOutput UTF), then for
+ * each term with cells: UTF term, int cellCount, cellCount times (int doc, int tf, double tfidf).
+ *
+ * Usage: java MatrixExport <index file> <output file or -> [--format csv|binary]
+ *        [--terms regex] [--docs regex] [--offset cells] [--limit cells]
+ */
+public class MatrixExport {
+    static final int MAGIC = 0x504D5458; // "PMTX"
+    static final int VERSION = 1;
+
+    public enum Format { CSV, BINARY }
+
+    private final PositionalIndex index;
+    private Format format = Format.CSV;
+    private Pattern termFilter, docFilter;
+    private long offset, limit = Long.MAX_VALUE;
+
+    public MatrixExport(PositionalIndex index) {
+        this.index = index;
+    }
+
+    public MatrixExport format(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    /** Only export terms matching the whole regex */
+    public MatrixExport terms(String regex) {
+        termFilter = regex == null ? null : Pattern.compile(regex);
+        return this;
+    }
+
+    /** Only export the columns of docs whose name matches the whole regex */
+    public MatrixExport docs(String regex) {
+        docFilter = regex == null ? null : Pattern.compile(regex);
+        return this;
+    }
+
+    /** Skip the first offset cells that pass the filters and stop after limit cells */
+    public MatrixExport page(long offset, long limit) {
+        this.offset = offset;
+        this.limit = limit;
+        return this;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java MatrixExport <index file> <output file or -> [--format csv|binary]"
+                    + " [--terms regex] [--docs regex] [--offset cells] [--limit cells]");
+            System.exit(2);
+        }
+        PositionalIndex index = TFIDFCalculator.openIndex(args[0]);
+        MatrixExport export = new MatrixExport(index);
+        long offset = 0, limit = Long.MAX_VALUE;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--format" -> export.format(Format.valueOf(args[i + 1].toUpperCase()));
+                case "--terms" -> export.terms(args[i + 1]);
+                case "--docs" -> export.docs(args[i + 1]);
+                case "--offset" -> offset = Long.parseLong(args[i + 1]);
+                case "--limit" -> limit = Long.parseLong(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        export.page(offset, limit);
+
+        long start = System.nanoTime();
+        long cells;
+        if (args[1].equals("-")) {
+            cells = export.writeTo(System.out);
+            System.out.flush();
+        } else {
+            try (OutputStream out = new FileOutputStream(args[1])) {
+                cells = export.writeTo(out);
+            }
+        }
+        System.err.printf("Exported %,d cells in %.1f ms%n", cells, (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Write the selected page of the matrix, returns the number of cells written */
+    public long writeTo(OutputStream stream) throws IOException {
+        boolean[] docSelected = new boolean[index.numDocs()];
+        for (int doc = 0; doc < docSelected.length; doc++)
+            docSelected[doc] = docFilter == null || docFilter.matcher(index.docName(doc)).matches();
+
+        BufferedOutputStream buffered = new BufferedOutputStream(stream, 1 << 16);
+        DataOutputStream binary = null;
+        Writer csv = null;
+        if (format == Format.BINARY) {
+            binary = new DataOutputStream(buffered);
+            binary.writeInt(MAGIC);
+            binary.writeInt(VERSION);
+            binary.writeInt(index.numDocs());
+            for (int doc = 0; doc < index.numDocs(); doc++)
+                binary.writeUTF(index.docName(doc));
+        } else {
+            csv = new OutputStreamWriter(buffered, StandardCharsets.UTF_8);
+            csv.write("term,doc,tf,tfidf\n");
+        }
+
+        int[] docs = new int[16], freqs = new int[16]; // cells of the current term
+        long skipped = 0, written = 0;
+        StringBuilder line = new StringBuilder(64);
+        for (String term : index.terms()) {
+            if (written == limit)
+                break;
+            if (termFilter != null && !termFilter.matcher(term).matches())
+                continue;
+            int cells = 0;
+            PostingsEnum postings = index.postings(term);
+            for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS && written + cells < limit;
+                    doc = postings.nextDoc()) {
+                if (!docSelected[doc])
+                    continue;
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                if (cells == docs.length) {
+                    docs = Arrays.copyOf(docs, cells * 2);
+                    freqs = Arrays.copyOf(freqs, cells * 2);
+                }
+                docs[cells] = doc;
+                freqs[cells++] = postings.freq();
+            }
+            if (cells == 0)
+                continue;
+
+            double idf = index.idf(term);
+            if (binary != null) {
+                binary.writeUTF(term);
+                binary.writeInt(cells);
+                for (int i = 0; i < cells; i++) {
+                    binary.writeInt(docs[i]);
+                    binary.writeInt(freqs[i]);
+                    binary.writeDouble(TFIDFCalculator.tf_weight(freqs[i]) * idf);
+                }
+            } else {
+                String quotedTerm = csvField(term);
+                for (int i = 0; i < cells; i++) {
+                    line.setLength(0);
+                    line.append(quotedTerm).append(',').append(csvField(index.docName(docs[i]))).append(',')
+                            .append(freqs[i]).append(',').append(TFIDFCalculator.tf_weight(freqs[i]) * idf).append('\n');
+                    csv.append(line);
+                }
+            }
+            written += cells;
+        }
+        if (binary != null)
+            binary.flush();
+        else
+            csv.flush();
+        return written;
+    }
+
+    /** Quote a CSV field if it contains a separator, a quote or a line break */
+    static String csvField(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r')
+                return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+}
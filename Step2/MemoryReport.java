@@ -0,0 +1,91 @@
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the heap used by the old nested map representation of the index
+ * (term -> doc -> List<Integer> plus doc -> term -> tf-idf) with CompactIndex.
+ *
+ * Usage: java -Xmx<enough for the maps> MemoryReport [text index]
+ */
+public class MemoryReport {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String inputFile = args.length > 0 ? args[0] : "positional_index.txt";
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Object[] nestedMaps = loadNestedMaps(inputFile);
+        long nestedMillis = (System.nanoTime() - start) / 1_000_000;
+        long nestedBytes = usedHeap() - before;
+        System.out.println("Nested maps: " + ((Map<?, ?>) nestedMaps[0]).size() + " terms");
+        nestedMaps = null;
+
+        before = usedHeap();
+        start = System.nanoTime();
+        CompactIndex index = TFIDFCalculator.buildCompactIndex(inputFile);
+        long compactMillis = (System.nanoTime() - start) / 1_000_000;
+        long compactBytes = usedHeap() - before;
+
+        System.out.printf("%-28s %14s %10s%n", "", "heap bytes", "load ms");
+        System.out.printf("%-28s %,14d %10d%n", "nested HashMaps", nestedBytes, nestedMillis);
+        System.out.printf("%-28s %,14d %10d%n", "CompactIndex (measured)", compactBytes, compactMillis);
+        System.out.printf("%-28s %,14d%n", "CompactIndex (estimated)", index.sizeInBytes());
+        System.out.printf("%-28s %,14d%n", "term dictionary (off heap)", index.dictionaryBytes());
+        System.out.printf("Heap reduction: %.1fx for %d terms, %d docs%n",
+                (double) nestedBytes / compactBytes, index.numTerms(), index.numDocs());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** The loader TFIDFCalculator used before CompactIndex, returns {positionalIndex, tfidfMatrix} */
+    static Object[] loadNestedMaps(String inputFile) throws IOException {
+        //  term        doc     positions
+        Map<String, Map<String, List<Integer>>> positionalIndex = new HashMap<>();
+        //  doc         term    tf-idf
+        Map<String, Map<String, Double>> tfidfMatrix = new HashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length < 2) continue;
+
+                String term = parts[0];
+                for (String entry : parts[1].split(";")) {
+                    Pattern pattern = Pattern.compile("(\\S+):\\s+(.+)");
+                    Matcher matcher = pattern.matcher(entry.trim());
+
+                    if (matcher.find()) {
+                        String docID = matcher.group(1);
+                        List<Integer> positionList = new ArrayList<>();
+                        for (String pos : matcher.group(2).split(",\\s*"))
+                            positionList.add(Integer.parseInt(pos));
+
+                        positionalIndex
+                            .computeIfAbsent(term, k -> new HashMap<>())
+                            .putIfAbsent(docID, positionList);
+                        tfidfMatrix
+                            .putIfAbsent(docID, new HashMap<>());
+                    }
+                }
+            }
+        }
+        int totalDocuments = tfidfMatrix.size();
+        for (var entry : positionalIndex.entrySet()) {
+            double idf = TFIDFCalculator.idf(totalDocuments, entry.getValue().size());
+            for (var docsContainingTerm : entry.getValue().entrySet()) {
+                tfidfMatrix.get(docsContainingTerm.getKey())
+                    .put(entry.getKey(), TFIDFCalculator.tf_weight(docsContainingTerm.getValue().size()) * idf);
+            }
+        }
+        return new Object[] { positionalIndex, tfidfMatrix };
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Runs the queries of a file through search(query, k) with QueryMetrics and prints where the
+ * time went: count, mean, p50 and p99 of every stage and of whole queries, then the queries
+ * slower than the threshold with their stage times. Every query also runs without metrics,
+ * right before its measured run, to show what the instrumentation costs. The
+ * Prometheus text of the metrics is written to the output file, or to stdout without one.
+ *
+ * Usage: java MetricsReport <index file> <query file> [slow query ms] [prometheus output file]
+ */
+public class MetricsReport {
+    static final int ROUNDS = 10;
+    static final int K = 10;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java MetricsReport <index file> <query file> [slow query ms] [prometheus output file]");
+            System.exit(2);
+        }
+        PositionalIndex index = TFIDFCalculator.openIndex(args[0]);
+        List<String> queries = Files.readAllLines(Path.of(args[1])).stream().filter(q -> !q.isBlank()).toList();
+        QueryMetrics metrics = new QueryMetrics(index);
+        if (args.length > 2)
+            metrics.setSlowQueryThresholdMillis(Long.parseLong(args[2]));
+
+        PhraseQuery plain = new PhraseQuery(index);
+        PhraseQuery measured = new PhraseQuery(index);
+        for (String query : queries) { // warm-up, neither timing is recorded
+            run(plain, query);
+            run(measured, query);
+        }
+        measured.setMetrics(metrics);
+        // Each query runs with and without metrics back to back, so drift hits both alike
+        long plainNanos = 0, measuredNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String query : queries) {
+                plainNanos += run(plain, query);
+                measuredNanos += run(measured, query);
+            }
+        }
+
+        System.out.printf("%d queries x %d rounds, k = %d%n", queries.size(), ROUNDS, K);
+        System.out.printf("%-14s %8s %10s %10s %10s%n", "stage", "count", "mean us", "p50 us", "p99 us");
+        Map<String, Double> means = metrics.getStageMeanMicros();
+        Map<String, Double> p50 = metrics.getStageP50Micros(), p99 = metrics.getStageP99Micros();
+        for (var entry : metrics.getStageCounts().entrySet())
+            System.out.printf("%-14s %8d %10.1f %10.1f %10.1f%n", entry.getKey(), entry.getValue(), means.get(entry.getKey()),
+                    p50.get(entry.getKey()), p99.get(entry.getKey()));
+        System.out.printf("%-14s %8d %10.1f %10.1f %10.1f%n", "query", metrics.getQueries(),
+                measuredNanos / 1e3 / (ROUNDS * queries.size()), metrics.getQueryP50Micros(),
+                metrics.getQueryP99Micros());
+        System.out.printf("Without metrics: %.3f ms per query, with metrics: %.3f ms (%+.1f%%)%n",
+                plainNanos / 1e6 / (ROUNDS * queries.size()), measuredNanos / 1e6 / (ROUNDS * queries.size()),
+                100.0 * (measuredNanos - plainNanos) / plainNanos);
+
+        String[] slow = metrics.getRecentSlowQueries();
+        System.out.printf("%d queries over %d ms, the last %d of them in ms:%n", metrics.getSlowQueries(),
+                metrics.getSlowQueryThresholdMillis(), slow.length);
+        for (String trace : slow)
+            System.out.println("  " + trace);
+
+        if (args.length > 3) {
+            Files.writeString(Path.of(args[3]), metrics.getPrometheusText());
+            System.out.println("Metrics written to " + args[3]);
+        } else
+            System.out.print(metrics.getPrometheusText());
+    }
+
+    private static long run(PhraseQuery search, String query) {
+        long start = System.nanoTime();
+        try {
+            search.search(query, K);
+        } catch (IllegalArgumentException e) {
+            // invalid queries take part in the timing like any other
+        }
+        return System.nanoTime() - start;
+    }
+}
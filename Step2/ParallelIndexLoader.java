@@ -0,0 +1,123 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads the text positional index on a fork-join pool. The file is cut into byte ranges, each
+ * range is parsed into its own CompactIndex.Builder (a line belongs to the range its first byte
+ * is in), and the partial builders are merged pairwise as the tasks join. Every term is on one
+ * line, so the partial builders never share a term. The merged builder is then packed with
+ * the per-term work and the norms spread over the same pool.
+ */
+public class ParallelIndexLoader {
+    private static final int READ_BUFFER = 1 << 20;
+
+    /** Load the index with the given number of threads, 1 parses and builds on the calling thread */
+    public static CompactIndex load(String inputFile, int threads) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ)) {
+            if (threads <= 1) {
+                CompactIndex.Builder builder = parseRange(channel, 0, channel.size());
+                return builder.build();
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                // A few ranges per thread, so a slow range does not leave the others idle
+                long rangeBytes = Math.max(1 << 16, channel.size() / (threads * 4L) + 1);
+                CompactIndex.Builder builder = pool.invoke(new ParseTask(channel, 0, channel.size(), rangeBytes));
+                return builder.build(pool);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Parses [start, end) itself if it is small enough, otherwise its two halves in parallel */
+    private static class ParseTask extends RecursiveTask<CompactIndex.Builder> {
+        private static final long serialVersionUID = 1L;
+        private final transient FileChannel channel; // tasks are never serialized
+        private final long start, end, rangeBytes;
+
+        ParseTask(FileChannel channel, long start, long end, long rangeBytes) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.rangeBytes = rangeBytes;
+        }
+
+        @Override
+        protected CompactIndex.Builder compute() {
+            try {
+                if (end - start <= rangeBytes)
+                    return parseRange(channel, start, end);
+                long middle = (start + end) >>> 1;
+                ParseTask right = new ParseTask(channel, middle, end, rangeBytes);
+                right.fork();
+                CompactIndex.Builder left = new ParseTask(channel, start, middle, rangeBytes).compute();
+                left.addAll(right.join());
+                return left;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Parse the lines that start in [start, end). A range that starts inside a line skips to the
+     * next one, and the last line is read past end, so every line is parsed by exactly one range.
+     */
+    static CompactIndex.Builder parseRange(FileChannel channel, long start, long end) throws IOException {
+        CompactIndex.Builder builder = new CompactIndex.Builder();
+        int[] positions = new int[64];
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        long offset = start;
+        boolean skipping = start > 0 && readByte(channel, start - 1) != '\n';
+        long lineStart = start;
+
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, offset); // positional, so ranges share the channel safely
+            if (read <= 0)
+                break;
+            byte[] bytes = buffer.array();
+            int from = 0;
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] != '\n')
+                    continue;
+                if (!skipping) {
+                    line.write(bytes, from, i - from);
+                    positions = TFIDFCalculator.parseLine(stripCarriageReturn(line), builder, positions);
+                    line.reset();
+                }
+                skipping = false;
+                from = i + 1;
+                lineStart = offset + from;
+                if (lineStart >= end)
+                    return builder;
+            }
+            if (!skipping)
+                line.write(bytes, from, read - from);
+            offset += read;
+        }
+        if (!skipping && line.size() > 0 && lineStart < end) // last line without a newline
+            TFIDFCalculator.parseLine(stripCarriageReturn(line), builder, positions);
+        return builder;
+    }
+
+    private static String stripCarriageReturn(ByteArrayOutputStream line) {
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private static byte readByte(FileChannel channel, long offset) throws IOException {
+        ByteBuffer single = ByteBuffer.allocate(1);
+        return channel.read(single, offset) == 1 ? single.get(0) : (byte) '\n';
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * Iterates the documents that contain the terms of a phrase in order, at most slop extra
+ * positions apart (slop 0 is an exact phrase). Candidate docs come from intersecting the doc
+ * lists starting with the rarest term, each list jumping with advance(), and the positions
+ * of a candidate are checked in a single linear pass over all of the terms' position lists.
+ * A wildcard term is one position filled by any of the terms it matches, see Wildcard.
+ */
+public class PhraseMatcher implements DocIdIterator {
+    private final int slop;
+    private final PostingsEnum[] postings; // in phrase order
+    private final PostingsEnum[] byDocFreq; // rarest first, drives the doc intersection
+    private final int[][] positions;
+    private final int[] counts, next;
+    private int doc = -1;
+
+    public PhraseMatcher(PositionalIndex index, String[] terms, int slop) {
+        this.slop = slop;
+        postings = new PostingsEnum[terms.length];
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            postings[i] = Wildcard.postings(index, terms[i]); // a repeated term gets its own enum
+            order[i] = i;
+        }
+        positions = new int[terms.length][8];
+        counts = new int[terms.length];
+        next = new int[terms.length];
+
+        if (Arrays.asList(postings).contains(null)) {
+            byDocFreq = null; // a missing term matches nothing
+            doc = NO_MORE_DOCS;
+            return;
+        }
+        int[] docFreqs = new int[terms.length];
+        for (int i = 0; i < terms.length; i++)
+            docFreqs[i] = Wildcard.docFreq(index, terms[i]);
+        Arrays.sort(order, (a, b) -> Integer.compare(docFreqs[a], docFreqs[b]));
+        byDocFreq = new PostingsEnum[terms.length];
+        for (int i = 0; i < terms.length; i++)
+            byDocFreq[i] = postings[order[i]];
+    }
+
+    @Override
+    public int docID() {
+        return doc;
+    }
+
+    @Override
+    public int nextDoc() {
+        return doc == NO_MORE_DOCS ? doc : advance(doc + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+        if (doc >= target) // already there, as a conjunction asks its clauses again
+            return doc;
+        int candidate = byDocFreq[0].advance(target);
+        while (candidate != NO_MORE_DOCS) {
+            int i = 1;
+            for (; i < byDocFreq.length; i++) {
+                int other = byDocFreq[i].advance(candidate);
+                if (other != candidate) { // restart from the lead with the larger doc
+                    candidate = byDocFreq[0].advance(other);
+                    break;
+                }
+            }
+            if (i == byDocFreq.length) {
+                if (positionsMatch())
+                    return doc = candidate;
+                candidate = byDocFreq[0].nextDoc();
+            }
+        }
+        return doc = NO_MORE_DOCS;
+    }
+
+    /**
+     * For each occurrence of the first term, pick the earliest occurrence of each following
+     * term after the previous one. That chain has the shortest possible span for its start, and
+     * as the start moves right the chosen positions only move right, so every list is read once.
+     */
+    private boolean positionsMatch() {
+        int terms = postings.length;
+        if (terms == 1)
+            return true;
+        for (int i = 0; i < terms; i++) {
+            PostingsEnum term = postings[i];
+            int freq = term.freq();
+            if (positions[i].length < freq)
+                positions[i] = new int[Math.max(freq, positions[i].length * 2)];
+            for (int p = 0; p < freq; p++)
+                positions[i][p] = term.nextPosition();
+            counts[i] = freq;
+            next[i] = 0;
+        }
+
+        for (int start = 0; start < counts[0]; start++) {
+            int previous = positions[0][start];
+            for (int i = 1; i < terms; i++) {
+                while (next[i] < counts[i] && positions[i][next[i]] <= previous)
+                    next[i]++;
+                if (next[i] == counts[i])
+                    return false; // no later start can complete the chain either
+                previous = positions[i][next[i]];
+            }
+            if (previous - positions[0][start] - (terms - 1) <= slop)
+                return true;
+        }
+        return false;
+    }
+}
@@ -1,126 +1,51 @@
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Ranks the documents matching a query by cosine similarity. Not thread-safe, but cheap to
+ * create, so concurrent callers use one instance each over a shared index.
+ */
 public class PhraseQuery {
-    final static String[] operators = { "and not", "but not", "or not", "and", "or" };
-
-    private Map<String, Map<String, List<Integer>>> positionalIndex;
-    private Map<String, Map<String, Double>> tfidfMatrix;
-    private Map<String, Term> termsMap;
-
-    public PhraseQuery(Map<String, Map<String, List<Integer>>> positionalIndex,
-            Map<String, Map<String, Double>> tfidfMatrix, Map<String, Term> terms) {
-        this.positionalIndex = positionalIndex;
-        this.tfidfMatrix = tfidfMatrix;
-        this.termsMap = terms;
+    private PositionalIndex index;
+    private ScoreAccumulator accumulator;
+    private boolean maxScore = true;
+    private QueryCache cache;
+    private QueryMetrics metrics;
+    private BiwordIndex biwords;
+    private final Analyzer analyzer = Analyzer.fromSystemProperties();
+
+    public PhraseQuery(PositionalIndex index) {
+        this.index = index;
     }
 
-    /** Checks if the words in a phrase in order */
-    public int isPhraseInOrder(String doc, String term1, String term2, int start_index) {
-        // Get positions of term1 and term2 in the specified document
-        List<Integer> positionsTerm1, positionsTerm2;
-        try {
-            positionsTerm1 = positionalIndex.get(term1).getOrDefault(doc, Collections.emptyList());
-            positionsTerm2 = positionalIndex.get(term2).getOrDefault(doc, Collections.emptyList());
-        } catch (NullPointerException e) {
-            return -1;
-        }
-
-        // If either term is missing in the document, return false
-        if (positionsTerm1.isEmpty() || positionsTerm2.isEmpty())
-            return -1;
-
-        // Check if a position of term2 comes exactly after term1
-        for (var i : positionsTerm1) {
-            for (var j : positionsTerm2) {
-                if (j > i + 1)
-                    break; // We don't need to go any further
-
-                if (start_index == 0 && j == i + 1)
-                    return j;
-                else if (j == i + 1 && start_index == i)
-                    return j;
-            }
-        }
-
-        return -1;
+    /** Enable or disable MaxScore skipping in search(query, k), on by default */
+    public void setMaxScore(boolean maxScore) {
+        this.maxScore = maxScore;
     }
 
-    /** Get documents matching a phrase */
-    private Set<String> getDocumentsForTerm(String phrase) {
-        Set<String> matchedDocs = new HashSet<>();
-        if (phrase.contains(" ")) {
-            String[] terms = phrase.split(" ");
-            boolean flag = false;
-            var term = termsMap.get(terms[0]);
-            if (term != null) {
-                for (var doc : term.getDocFreq().keySet()) { // Only gets the documents that terms[0] in it
-                    int end_index = 0;
-                    for (int i = 0; i < terms.length - 1; i++) {
-                        if ((end_index = isPhraseInOrder(doc, terms[i], terms[i + 1], end_index)) > 0)
-                            flag = true;
-                        else {
-                            flag = false;
-                            break;
-                        }
-                    }
-                    if (flag)
-                        matchedDocs.add(doc);
-                    flag = false;
-                }
-            }
-        } else
-            matchedDocs.addAll(positionalIndex.getOrDefault(phrase, Collections.emptyMap()).keySet());
-        return matchedDocs;
-    }
-
-    /** Handle OR in query, combine all the documents that in docs1 and docs2 */
-    private Set<String> handleOr(Set<String> docs1, Set<String> docs2) {
-        docs1.addAll(docs2);
-        return docs1;
+    /** Share a cache of results and phrase matches with other queries of the index, null for none */
+    public void setCache(QueryCache cache) {
+        this.cache = cache;
     }
 
-    /**
-     * Handle Or NOT in query, remove all the documents in docs1 that are not
-     * contained in docs2
-     */
-    private Set<String> handleOrNot(Set<String> docs1, Set<String> docs2) {
-        // Set<String> temp = Set.copyOf(tfidfMatrix.keySet());
-        // Set<String> temp = tfidfMatrix.keySet();
-        Set<String> temp = new HashSet<>(tfidfMatrix.keySet());
-        temp.removeAll(docs2);
-        docs1.addAll(temp);
-        return docs1;
+    /** Match exact phrases through the biwords of the index, null to check all of their positions */
+    public void setBiwords(BiwordIndex biwords) {
+        this.biwords = biwords;
     }
 
-    /**
-     * Handle AND in query, remove all the documents in docs1 that are not contained
-     * in docs2
-     */
-    private Set<String> handleAnd(Set<String> docs1, Set<String> docs2) {
-        docs1.retainAll(docs2);
-        return docs1;
-    }
-
-    /**
-     * Handle AND NOT in query, remove all the documents in docs1 that are contained
-     * in docs2
-     */
-    private Set<String> handleAndNot(Set<String> docs1, Set<String> docs2) {
-        docs1.removeAll(docs2);
-        return docs1;
+    /** Record the stage times of every search into the metrics, null for none */
+    public void setMetrics(QueryMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /** Compute query vector length */
     public double getQueryVectorLength(List<String> queryTerms) {
         double length = 0.0;
-        Term exTerm;
         for (String term : queryTerms) {
-            double idf = 0.0;
-            if ((exTerm = termsMap.get(term)) == null)
+            if (index.docFreq(term) == 0)
                 continue;
 
-            idf = exTerm.getIDF();
+            double idf = index.idf(term);
             double tfidf = TFIDFCalculator.tf_weight(getTermFrequencyInQuery(term, queryTerms)) * idf;
             length += Math.pow(tfidf, 2);
         }
@@ -128,16 +53,24 @@ public class PhraseQuery {
     }
 
     /** Compute document vector length */
-    public double getDocumentVectorLength(String docId) {
-        double length = 0.0;
-        var doc = tfidfMatrix.get(docId);
-        if (doc != null) {
-            for (var entry : doc.values()) {
-                length += Math.pow(entry, 2);
+    public double getDocumentVectorLength(int doc) {
+        return index.docNorm(doc);
+    }
+
+    /**
+     * Compute the tf-idf weights of the query terms in a document. The postings are shared
+     * between calls and only move forward, so documents must be passed in increasing order.
+     */
+    private Map<String, Double> computeDocumentVector(int doc, Map<String, PostingsEnum> queryPostings) {
+        Map<String, Double> docVector = new HashMap<>();
+        for (var entry : queryPostings.entrySet()) {
+            PostingsEnum postings = entry.getValue();
+            if (postings.advance(doc) == doc) {
+                String term = entry.getKey();
+                docVector.put(term, TFIDFCalculator.tf_weight(postings.freq()) * index.idf(term));
             }
         }
-
-        return Math.sqrt(length);
+        return docVector;
     }
 
     /** Compute term frequency in query */
@@ -154,11 +87,8 @@ public class PhraseQuery {
     /** Compute query vector */
     private Map<String, Double> computeQueryVector(List<String> queryTerms) {
         Map<String, Double> queryVector = new HashMap<>();
-        Term exTerm;
         for (String term : queryTerms) {
-            double idf = 0.0;
-            if ((exTerm = termsMap.get(term)) != null)
-                idf = exTerm.getIDF();
+            double idf = index.idf(term);
             double tfidf = TFIDFCalculator.tf_weight(getTermFrequencyInQuery(term, queryTerms)) * idf;
             queryVector.put(term, tfidf);
         }
@@ -184,125 +114,302 @@ public class PhraseQuery {
     }
 
     /** Rank documents based on similarity */
-    private List<Map.Entry<String, Double>> rankDocuments(Map<String, Double> similarityScores) {
+    private List<Map.Entry<Integer, Double>> rankDocuments(Map<Integer, Double> similarityScores) {
         return similarityScores.entrySet()
                 .stream()
                 .sorted((a, b) -> Double.compare(b.getValue(), a.getValue())) // Descending order
                 .collect(Collectors.toList());
     }
 
-    /** Parse query with boolean operators */
-    public Set<String> evaluateQuery(String query) {
-        return processQuery(query);
+    /**
+     * Parse query with boolean operators and compile it into a plan, the returned
+     * iterator produces the matching documents lazily in increasing doc id order
+     */
+    public DocIdIterator evaluateQuery(String query) {
+        return plan(query, null);
     }
 
-    /** Process query recursively */
-    private Set<String> processQuery(String query) {
-        // Base case: if the query is a single term, return its documents
-        if (!containsOperator(query))
-            return getDocumentsForTerm(query.trim());
-
-        String operator = findOperator(query);
-        String[] terms = splitQuery(query, operator);
-
-        Set<String> term1Docs = processQuery(terms[0].trim());
-        Set<String> term2Docs = processQuery(terms[1].trim());
+    /** The documents of a query as a DocIdSet, computed with set operations, see QueryPlan.evaluate */
+    public DocIdSet evaluateSet(String query) {
+        return new QueryPlan(index, cache, null, biwords).evaluate(QueryParser.parse(query, analyzer));
+    }
 
-        // Handle the specific operator
-        return applyOperator(term1Docs, term2Docs, operator);
+    /** evaluateQuery, timing parsing and compiling into the trace and wrapping the plan to time it */
+    private DocIdIterator plan(String query, QueryMetrics.Trace trace) {
+        if (trace == null)
+            return new QueryPlan(index, cache, null, biwords).compile(QueryParser.parse(query, analyzer));
+        long start = System.nanoTime();
+        QueryNode parsed = QueryParser.parse(query, analyzer);
+        long parsedAt = System.nanoTime();
+        trace.add(QueryMetrics.Stage.PARSE, parsedAt - start);
+        long matched = trace.nanos(QueryMetrics.Stage.PHRASE_MATCH);
+        DocIdIterator root = new QueryPlan(index, cache, trace, biwords).compile(parsed);
+        // Phrases collected for the cache while compiling count as matching, not as fetching
+        // postings. Finish takes all matching out of SET_OPS, so it is added there too.
+        matched = trace.nanos(QueryMetrics.Stage.PHRASE_MATCH) - matched;
+        trace.add(QueryMetrics.Stage.POSTINGS, System.nanoTime() - parsedAt - matched);
+        trace.add(QueryMetrics.Stage.SET_OPS, matched);
+        return trace.timed(root, QueryMetrics.Stage.SET_OPS);
     }
 
-    /** Check if query contains a boolean operator */
-    private boolean containsOperator(String query) {
-        for (String op : operators) {
-            if (query.contains(" " + op + " ")) {
-                return true;
-            }
-        }
-        return false;
+    /**
+     * evaluateSet for callers that visit every match, timing parsing into the trace and the set
+     * operations, phrase matching included, as SET_OPS
+     */
+    private DocIdIterator planSet(String query, QueryMetrics.Trace trace) {
+        if (trace == null)
+            return evaluateSet(query).iterator();
+        long start = System.nanoTime();
+        QueryNode parsed = QueryParser.parse(query, analyzer);
+        long parsedAt = System.nanoTime();
+        trace.add(QueryMetrics.Stage.PARSE, parsedAt - start);
+        DocIdSet matches = new QueryPlan(index, cache, trace, biwords).evaluate(parsed);
+        trace.add(QueryMetrics.Stage.SET_OPS, System.nanoTime() - parsedAt);
+        return matches.iterator();
     }
 
-    /** Find the boolean operator */
-    private String findOperator(String query) {
-        for (String op : operators) {
-            if (query.contains(" " + op + " ")) {
-                return op;
+    /**
+     * The scored terms: every term the analyzer finds in the query, operator words included, but
+     * not the k of ~k. A wildcard pattern scores as the terms it matches.
+     */
+    List<String> queryTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        for (String word : query.replaceAll("\"~\\d+", "\" ").split("\\s+")) {
+            for (String term : QueryParser.analyze(word, analyzer)) {
+                if (Wildcard.isPattern(term))
+                    terms.addAll(Wildcard.expand(index, term));
+                else
+                    terms.add(term);
             }
         }
-
-        return "";
+        return terms;
     }
 
-    /** Split query by operator */
-    private String[] splitQuery(String query, String operator) {
-        int index = query.indexOf(" " + operator + " ");
-        var x = new String[] {
-                query.substring(0, index),
-                query.substring(index + operator.length() + 2)
-        };
-
-        return x;
-    }
+    /**
+     * Scores of the matching documents computed one document at a time from map vectors, the way
+     * search did before ScoreAccumulator. Kept as the reference ScoreCheck compares against.
+     */
+    Map<Integer, Double> perDocumentScores(String query) {
+        query = query.toLowerCase();
+        DocIdIterator matchedDocuments = evaluateQuery(query);
+        List<String> termsInQuery = queryTerms(query);
+        Map<String, Double> queryVector = computeQueryVector(termsInQuery);
+        double queryVectorLength = getQueryVectorLength(termsInQuery);
+        Map<Integer, Double> similarityScores = new HashMap<>(); // document, similarity
 
-    /** Applying and handeling the operator */
-    private Set<String> applyOperator(Set<String> term1Docs, Set<String> term2Docs, String operator) {
-        switch (operator) {
-            case "and not":
-            case "but not":
-                return handleAndNot(term1Docs, term2Docs);
-            case "or not":
-                return handleOrNot(term1Docs, term2Docs);
-            case "or":
-                return handleOr(term1Docs, term2Docs);
-            case "and":
-                return handleAnd(term1Docs, term2Docs);
-            default:
-                return new HashSet<>();
+        Map<String, PostingsEnum> queryPostings = new HashMap<>();
+        for (String term : queryVector.keySet()) {
+            PostingsEnum postings = index.postings(term);
+            if (postings != null)
+                queryPostings.put(term, postings);
+        }
+        // The plan returns documents in increasing order, as computeDocumentVector expects
+        for (int docID = matchedDocuments.nextDoc(); docID != DocIdIterator.NO_MORE_DOCS; docID = matchedDocuments.nextDoc()) {
+            Map<String, Double> docVector = computeDocumentVector(docID, queryPostings);
+            double docVectorLength = getDocumentVectorLength(docID);
+            double similarity = computeCosineSimilarity(queryVector, docVector, docVectorLength, queryVectorLength);
+            similarityScores.put(docID, similarity);
         }
+        return similarityScores;
     }
 
     /** Main function to handle phrase queries */
     public List<String> search(String query) {
         query = query.toLowerCase();
-        Set<String> matchedDocuments = new HashSet<>();
-        for (String op : operators) {
-            if (query.trim().equals(op)) {
-                System.out.println("There is no documents returned!");
-                return new ArrayList<String>();
-            }
+        QueryMetrics.Trace trace = metrics == null ? null : metrics.startQuery(query);
+        DocIdIterator matchedDocuments;
+        try {
+            // All matches are scored, so they are computed at once with set operations
+            matchedDocuments = planSet(query, trace);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid query: " + e.getMessage());
+            return new ArrayList<String>();
         }
-
-        matchedDocuments = evaluateQuery(query);
-        // System.out.println(query);
-        List<String> termsInQuery = Arrays.asList(query.split(" "));
-        Map<String, Double> queryVector = computeQueryVector(termsInQuery);
-        // queryVector.forEach((x, y) -> System.out.println(x + "\t" + y));
-        double queryVectorLength = getQueryVectorLength(termsInQuery);
-        // System.out.println("qu length " + queryVectorLength);
-        Map<String, Double> similarityScores = new HashMap<>(); // document, similarity
-
-        for (String docID : matchedDocuments) {
-            Map<String, Double> docVector = tfidfMatrix.getOrDefault(docID, new HashMap<>());
-            // docVector.forEach((x, y) -> System.out.println(x + "\t" + y));
-            // System.out.println();
-            double docVectorLength = getDocumentVectorLength(docID);
-            double similarity = computeCosineSimilarity(queryVector, docVector, docVectorLength, queryVectorLength);
-            similarityScores.put(docID, similarity);
+        long start = trace == null ? 0 : System.nanoTime();
+        long planNanos = trace == null ? 0 : trace.nanos(QueryMetrics.Stage.SET_OPS);
+        // Every term's postings are read once into the accumulator, then the matches pick their scores
+        if (accumulator == null)
+            accumulator = new ScoreAccumulator(index); // search(query, k) does not need it
+        accumulator.accumulate(queryTerms(query));
+        Map<Integer, Double> similarityScores = new HashMap<>(); // document, similarity
+        for (int docID = matchedDocuments.nextDoc(); docID != DocIdIterator.NO_MORE_DOCS; docID = matchedDocuments.nextDoc())
+            similarityScores.put(docID, accumulator.score(docID));
+        if (trace != null) {
+            long now = System.nanoTime();
+            long scoring = now - start - (trace.nanos(QueryMetrics.Stage.SET_OPS) - planNanos);
+            trace.add(QueryMetrics.Stage.SCORING, Math.max(0, scoring)); // the plan's time is an estimate
+            start = now;
         }
 
         // Rank documents by similarity
-        List<Map.Entry<String, Double>> rankedDocs = rankDocuments(similarityScores);
+        List<Map.Entry<Integer, Double>> rankedDocs = rankDocuments(similarityScores);
+        if (trace != null) {
+            trace.add(QueryMetrics.Stage.RANKING, System.nanoTime() - start);
+            trace.finish(rankedDocs.size());
+        }
 
         // Display results
         if (!rankedDocs.isEmpty()) {
             System.out.println("Ranked Documents:");
-            for (Map.Entry<String, Double> entry : rankedDocs) {
-                System.out.printf("Document: %s, Similarity: %.4f\n", entry.getKey(), entry.getValue());
+            for (Map.Entry<Integer, Double> entry : rankedDocs) {
+                System.out.printf("Document: %s, Similarity: %.4f\n", index.docName(entry.getKey()), entry.getValue());
             }
         } else
             System.out.println("There is no documents returned!");
 
         // Return ranked documents
-        return rankedDocs.stream().map(Map.Entry::getKey).collect(Collectors.toList());
+        return rankedDocs.stream().map(entry -> index.docName(entry.getKey())).collect(Collectors.toList());
+    }
+
+    /**
+     * Top k documents of the query by cosine similarity, best first, ties by doc id. Only a
+     * bounded min-heap of k docs is kept. With MaxScore on, the query terms are ordered by the
+     * most they can add to a score (query weight * maxImpact), and once the heap is full the
+     * terms whose bounds together cannot beat the k-th score become non-essential: a document
+     * must contain one of the remaining essential terms to be scored at all, so the plan is
+     * advanced straight to the next doc of an essential term. A scored doc adds up its terms in
+     * the query vector's order, not the bound order, so the scores are the same bits as search's
+     * and do not depend on the bounds, which differ between indexes holding different docs.
+     * With a cache set, a query already answered for this index version is not run again.
+     * With metrics set, the time of each stage goes into them; a cached answer only counts as
+     * a query. Throws IllegalArgumentException if the query does not parse.
+     */
+    public List<ScoredDoc> search(String query, int k) {
+        QueryMetrics.Trace trace = metrics == null ? null : metrics.startQuery(query);
+        List<ScoredDoc> cached = cache == null ? null : cache.results(index, query, k);
+        if (cached != null) {
+            if (trace != null)
+                trace.finish(cached.size());
+            return new ArrayList<>(cached);
+        }
+        query = query.toLowerCase();
+        DocIdIterator matchedDocuments = plan(query, trace);
+        if (k <= 0) {
+            if (trace != null)
+                trace.finish(0);
+            return new ArrayList<>();
+        }
+        long start = trace == null ? 0 : System.nanoTime();
+        List<String> termsInQuery = queryTerms(query);
+        Map<String, Double> queryVector = ScoreAccumulator.queryWeights(index, termsInQuery);
+        double queryVectorLength = ScoreAccumulator.queryVectorLength(index, queryVector, termsInQuery);
+
+        // A shard sees global docFreqs, so a term can have a weight and still no postings in it
+        List<String> terms = new ArrayList<>();
+        for (String term : queryVector.keySet()) {
+            if (index.docFreq(term) > 0 && queryVector.get(term) > 0 && index.postings(term) != null)
+                terms.add(term);
+        }
+        int n = terms.size();
+        PostingsEnum[] postings = new PostingsEnum[n];
+        double[] queryWeights = new double[n], idfs = new double[n];
+        double[] bounds = new double[n]; // upper bound of the term's share of a cosine score
+        int[] slots = new int[n]; // position of the term in the query vector's order
+        double[] shares = new double[n]; // dot product terms of the current doc, by slot
+        if (queryVectorLength > 0) {
+            List<String> vectorOrder = List.copyOf(terms);
+            terms.sort(Comparator.comparingDouble(term -> queryVector.get(term) * index.maxImpact(term)));
+            for (int i = 0; i < n; i++) {
+                String term = terms.get(i);
+                postings[i] = index.postings(term);
+                queryWeights[i] = queryVector.get(term);
+                idfs[i] = index.idf(term);
+                bounds[i] = queryVector.get(term) * index.maxImpact(term) / queryVectorLength;
+                slots[i] = vectorOrder.indexOf(term);
+            }
+        } else
+            n = 0; // every score is 0
+        double[] boundSums = new double[n + 1]; // boundSums[i] = bounds[0] + ... + bounds[i - 1]
+        for (int i = 0; i < n; i++)
+            boundSums[i + 1] = boundSums[i] + bounds[i];
+        long planNanos = 0;
+        if (trace != null) {
+            long now = System.nanoTime();
+            trace.add(QueryMetrics.Stage.POSTINGS, now - start);
+            start = now;
+            planNanos = trace.nanos(QueryMetrics.Stage.SET_OPS);
+        }
+
+        // Worst of the kept docs at the head: lower score, or the same score and a larger doc id
+        PriorityQueue<ScoredDoc> heap = new PriorityQueue<>(Math.min(k, index.numDocs()) + 1,
+                Comparator.comparingDouble(ScoredDoc::score).thenComparing(ScoredDoc::doc, Comparator.reverseOrder()));
+        double threshold = -1; // score to beat once the heap is full
+        int essential = 0; // terms [0, essential) cannot lift a doc above the threshold on their own
+
+        int doc = matchedDocuments.nextDoc();
+        while (doc != DocIdIterator.NO_MORE_DOCS) {
+            if (essential > 0) {
+                // Docs come in increasing order and lose ties to the docs kept so far, so a doc
+                // without any essential term can never enter the heap
+                int next = DocIdIterator.NO_MORE_DOCS;
+                for (int i = essential; i < n; i++)
+                    next = Math.min(next, postings[i].docID() < doc ? postings[i].advance(doc) : postings[i].docID());
+                if (next == DocIdIterator.NO_MORE_DOCS)
+                    break;
+                if (next != doc) {
+                    doc = matchedDocuments.advance(next);
+                    continue;
+                }
+            }
+            double docVectorLength = getDocumentVectorLength(doc);
+            double dotProduct = 0;
+            boolean pruned = false;
+            for (int i = n - 1; i >= 0; i--) {
+                if (i < essential && dotProduct / (queryVectorLength * docVectorLength) + boundSums[i + 1] * (1 + 1e-9) <= threshold) {
+                    pruned = true; // even the best case of the remaining terms cannot beat the threshold
+                    break;
+                }
+                PostingsEnum term = postings[i];
+                if ((term.docID() < doc ? term.advance(doc) : term.docID()) == doc) {
+                    shares[slots[i]] = queryWeights[i] * (TFIDFCalculator.tf_weight(term.freq()) * idfs[i]);
+                    dotProduct += shares[slots[i]];
+                }
+            }
+            if (pruned)
+                Arrays.fill(shares, 0.0);
+            else {
+                dotProduct = 0;
+                for (int slot = 0; slot < n; slot++) {
+                    dotProduct += shares[slot];
+                    shares[slot] = 0.0;
+                }
+                double score = queryVectorLength == 0 || docVectorLength == 0 ? 0.0
+                        : dotProduct / (queryVectorLength * docVectorLength);
+                if (heap.size() < k)
+                    heap.add(new ScoredDoc(doc, null, score));
+                else if (score > threshold) {
+                    heap.poll();
+                    heap.add(new ScoredDoc(doc, null, score));
+                }
+                if (heap.size() == k) {
+                    threshold = heap.peek().score();
+                    // Bounds are rounded up, the slack absorbs rounding in the sums
+                    while (maxScore && essential < n && boundSums[essential + 1] * (1 + 1e-9) <= threshold)
+                        essential++;
+                    if (maxScore && essential == n)
+                        break; // no remaining doc can beat the threshold
+                }
+            }
+            doc = matchedDocuments.nextDoc();
+        }
+        if (trace != null) {
+            // The plan is timed on its own, what is left of the loop is scoring
+            long now = System.nanoTime();
+            long scoring = now - start - (trace.nanos(QueryMetrics.Stage.SET_OPS) - planNanos);
+            trace.add(QueryMetrics.Stage.SCORING, Math.max(0, scoring)); // the plan's time is an estimate
+            start = now;
+        }
+
+        List<ScoredDoc> ranked = new ArrayList<>(heap.size());
+        for (ScoredDoc scored : heap)
+            ranked.add(new ScoredDoc(scored.doc(), index.docName(scored.doc()), scored.score()));
+        ranked.sort(Comparator.comparingDouble(ScoredDoc::score).reversed().thenComparingInt(ScoredDoc::doc));
+        if (trace != null) {
+            trace.add(QueryMetrics.Stage.RANKING, System.nanoTime() - start);
+            trace.finish(ranked.size());
+        }
+        if (cache != null)
+            cache.putResults(index, query, k, ranked);
+        return ranked;
     }
 }
@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only access to a positional index. Documents are identified by dense
+ * int ids assigned in sorted name order, terms by their string. An index made of
+ * segments numbers the docs segment after segment and may contain deleted ids,
+ * which postings skip.
+ */
+public interface PositionalIndex {
+
+    /** Size of the doc id space, deleted docs included */
+    int numDocs();
+
+    /** Number of documents that are not deleted, the N of idf */
+    default int numLiveDocs() {
+        return numDocs();
+    }
+
+    default boolean isDeleted(int doc) {
+        return false;
+    }
+
+    /** The docs that are not deleted, what a negation is the complement against */
+    default DocIdSet liveDocs() {
+        return DocIdSet.range(0, numDocs());
+    }
+
+    /**
+     * Grows whenever an index that takes updates publishes a new view, so caches can tell which
+     * of two views is newer. An index that never changes stays at 0.
+     */
+    default long version() {
+        return 0;
+    }
+
+    String docName(int doc);
+
+    /** Doc id of a document name, -1 if it is not in the index */
+    int docId(String name);
+
+    int numTerms();
+
+    /** All terms in sorted order */
+    Iterable<String> terms();
+
+    /** The terms that start with prefix, in the order of terms(). The default scans them all. */
+    default Iterable<String> terms(String prefix) {
+        List<String> matching = new ArrayList<>();
+        for (String term : terms()) {
+            if (term.startsWith(prefix))
+                matching.add(term);
+        }
+        return matching;
+    }
+
+    /** Number of documents containing the term, 0 if it is not in the index */
+    int docFreq(String term);
+
+    /** Postings of the term, null if it is not in the index */
+    PostingsEnum postings(String term);
+
+    /** Euclidean length of the document's tf-idf vector */
+    double docNorm(int doc);
+
+    /**
+     * Upper bound of tf-idf weight / docNorm over the documents containing the term, 0 if it is
+     * not in the index. Rounded up, so it is never below a real document's value.
+     */
+    double maxImpact(String term);
+
+    /** Bytes taken by the doc ids and positions of all postings, in memory or in the mapped file */
+    long postingsBytes();
+
+    default double idf(String term) {
+        int docFreq = docFreq(term);
+        return docFreq == 0 ? 0.0 : TFIDFCalculator.idf(numLiveDocs(), docFreq);
+    }
+}
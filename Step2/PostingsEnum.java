@@ -0,0 +1,13 @@
+/**
+ * Iterates the postings of one term in increasing doc id order.
+ * Positions of the current doc are read lazily with nextPosition(), so callers
+ * that only need doc ids or frequencies never decode them.
+ */
+public interface PostingsEnum extends DocIdIterator {
+
+    /** Number of positions of the term in the current doc */
+    int freq();
+
+    /** Next position in the current doc, may be called freq() times */
+    int nextPosition();
+}
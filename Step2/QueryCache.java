@@ -0,0 +1,85 @@
+import java.util.*;
+
+/**
+ * Two-level cache shared by the queries of one index, both levels bounded and evicting through
+ * TinyLfuCache:
+ * - results: normalized query and k -> the top k of PhraseQuery.search(query, k), bounded by
+ *   the number of lists;
+ * - matches: phrase -> the set of docs containing it, bounded by the bytes of the sets. QueryPlan
+ *   reads it for every phrase of two or more words, wherever the phrase sits in a boolean query,
+ *   and only fills it for phrases that were looked up before, so a phrase seen once is still
+ *   matched lazily. Single terms are left out, their postings are as cheap to iterate.
+ *
+ * Entries belong to one PositionalIndex.version(). A lookup from a newer version drops both
+ * levels, and queries still running on an older snapshot neither read nor fill the cache.
+ * Thread-safe, all calls synchronize on the cache.
+ */
+public class QueryCache {
+    public static final int DEFAULT_MAX_RESULTS = 10_000;
+    public static final long DEFAULT_MAX_MATCH_BYTES = 64L << 20;
+
+    private final TinyLfuCache<String, List<ScoredDoc>> results;
+    private final TinyLfuCache<String, DocIdSet> matches;
+    private long version;
+    private long invalidations;
+
+    public QueryCache() {
+        this(DEFAULT_MAX_RESULTS, DEFAULT_MAX_MATCH_BYTES);
+    }
+
+    public QueryCache(int maxResults, long maxMatchBytes) {
+        results = new TinyLfuCache<>(maxResults, ranked -> 1, maxResults);
+        matches = new TinyLfuCache<>(maxMatchBytes, DocIdSet::sizeInBytes,
+                (int) Math.min(Integer.MAX_VALUE, maxMatchBytes / 1024));
+    }
+
+    /** Both levels' statistics and the number of times the index version moved on */
+    public record Stats(TinyLfuCache.Stats results, TinyLfuCache.Stats matches, long invalidations) {
+    }
+
+    /** Case and spacing do not change the results of a query */
+    static String resultKey(String query, int k) {
+        return String.join(" ", query.toLowerCase().trim().split("\\s+")) + '\u0000' + k;
+    }
+
+    /** The cached top k of the query on this index, null on a miss */
+    public synchronized List<ScoredDoc> results(PositionalIndex index, String query, int k) {
+        return current(index) ? results.get(resultKey(query, k)) : null;
+    }
+
+    public synchronized void putResults(PositionalIndex index, String query, int k, List<ScoredDoc> ranked) {
+        if (current(index))
+            results.put(resultKey(query, k), List.copyOf(ranked));
+    }
+
+    /** Docs containing the phrase, null on a miss. The set must not be modified */
+    public synchronized DocIdSet matches(PositionalIndex index, QueryNode.Phrase phrase) {
+        return current(index) ? matches.get(phrase.toString()) : null;
+    }
+
+    /** Whether the phrase was looked up before, so collecting its docs into a set is likely to pay off */
+    public synchronized boolean isRepeated(PositionalIndex index, QueryNode.Phrase phrase) {
+        return current(index) && matches.frequency(phrase.toString()) > 1;
+    }
+
+    public synchronized void putMatches(PositionalIndex index, QueryNode.Phrase phrase, DocIdSet docs) {
+        if (current(index))
+            matches.put(phrase.toString(), docs);
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(results.stats(), matches.stats(), invalidations);
+    }
+
+    /** Move on to a newer index version, false if the index is older than the cached entries */
+    private boolean current(PositionalIndex index) {
+        long indexVersion = index.version();
+        if (indexVersion > version) {
+            results.clear();
+            matches.clear();
+            version = indexVersion;
+            invalidations++;
+        }
+        return indexVersion == version;
+    }
+}
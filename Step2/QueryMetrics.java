@@ -0,0 +1,326 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Where query time goes, for the queries of PhraseQuery objects given this instance. Every
+ * query carries a Trace that adds up the nanoseconds of each Stage, and when the query ends the
+ * totals go into one LatencyHistogram per stage plus one for the whole query. The stages nest
+ * inside the lazy plan, so they are timed around the calls into it: the phrase matchers and
+ * the root of the plan are wrapped in timing iterators, set operations are the time in the
+ * plan not spent matching phrases, and scoring is the time of the scoring loop not spent in
+ * the plan. Queries slower than a threshold are also kept, the latest SLOW_QUERIES_KEPT of
+ * them, with their stage times.
+ *
+ * Queries without metrics pay nothing. Timing every call into the plan would cost two
+ * System.nanoTime calls per matched document, as much as scoring it, so a timed iterator times
+ * its first FULLY_TIMED_CALLS calls and then one call in SAMPLE_INTERVAL. Its stage time is the
+ * fully timed calls as measured plus the calls after them at the mean of the sampled ones, as
+ * the first calls, which set up the plan, cost more than the rest. A stage time that comes out
+ * negative from the estimates is recorded as 0. Thread-safe, one instance serves all queries
+ * of an index.
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+    public static final String OBJECT_NAME = "positionalindex:type=QueryMetrics";
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+    static final int SLOW_QUERIES_KEPT = 64;
+    static final int FULLY_TIMED_CALLS = 16;
+    static final int SAMPLE_INTERVAL = 8; // a power of two
+
+    public enum Stage {
+        PARSE, // QueryParser
+        POSTINGS, // compiling the plan and fetching the postings of the scored terms
+        PHRASE_MATCH, // PhraseMatcher comparing positions
+        SET_OPS, // and, or and not over the matches
+        SCORING, // dot products and norms of the matched docs
+        RANKING; // ordering the scored docs
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final PositionalIndex index;
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LatencyHistogram queries = new LatencyHistogram();
+    private final LongAdder slowQueries = new LongAdder();
+    private final ArrayDeque<String> recentSlowQueries = new ArrayDeque<>(); // guarded by itself
+    private volatile long slowQueryNanos = DEFAULT_SLOW_QUERY_MILLIS * 1_000_000;
+
+    public QueryMetrics(PositionalIndex index) {
+        this.index = index;
+        for (int s = 0; s < stages.length; s++)
+            stages[s] = new LatencyHistogram();
+    }
+
+    /** Start timing a query, its Trace is recorded by finish() */
+    public Trace startQuery(String query) {
+        return new Trace(query);
+    }
+
+    /** Register with the platform MBean server under OBJECT_NAME */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    public LatencyHistogram stage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /** The stage times of one query, used by a single thread */
+    public final class Trace {
+        private final String query;
+        private final long start = System.nanoTime();
+        private final long[] nanos = new long[stages.length];
+        private final boolean[] reached = new boolean[stages.length];
+        private final List<TimedIterator> timed = new ArrayList<>();
+
+        private Trace(String query) {
+            this.query = query;
+        }
+
+        public void add(Stage stage, long elapsed) {
+            nanos[stage.ordinal()] += elapsed;
+            reached[stage.ordinal()] = true;
+        }
+
+        /** Time spent in a stage so far */
+        public long nanos(Stage stage) {
+            long total = nanos[stage.ordinal()];
+            for (TimedIterator iterator : timed) {
+                if (iterator.stage == stage)
+                    total += iterator.estimatedNanos();
+            }
+            return total;
+        }
+
+        /** Times the nextDoc and advance calls of the iterator into the stage */
+        public DocIdIterator timed(DocIdIterator iterator, Stage stage) {
+            TimedIterator timedIterator = new TimedIterator(iterator, stage);
+            timed.add(timedIterator);
+            reached[stage.ordinal()] = true;
+            return timedIterator;
+        }
+
+        /**
+         * Record the query. The root of the plan is timed as SET_OPS around the phrase matchers
+         * inside it, so their time is taken out here.
+         */
+        public void finish(int results) {
+            long total = System.nanoTime() - start;
+            long[] spent = new long[stages.length];
+            for (Stage stage : Stage.values())
+                spent[stage.ordinal()] = Math.max(0, nanos(stage));
+            spent[Stage.SET_OPS.ordinal()] = Math.max(0, spent[Stage.SET_OPS.ordinal()] - spent[Stage.PHRASE_MATCH.ordinal()]);
+            for (int s = 0; s < stages.length; s++) {
+                if (reached[s])
+                    stages[s].record(spent[s]);
+            }
+            queries.record(total);
+            if (total >= slowQueryNanos) {
+                slowQueries.increment();
+                StringBuilder trace = new StringBuilder(String.format(Locale.ROOT, "%.3f ms, %d results, %s:", total / 1e6,
+                        results, query));
+                for (Stage stage : Stage.values())
+                    trace.append(String.format(Locale.ROOT, " %s=%.3f", stage.label(), spent[stage.ordinal()] / 1e6));
+                synchronized (recentSlowQueries) {
+                    if (recentSlowQueries.size() == SLOW_QUERIES_KEPT)
+                        recentSlowQueries.removeFirst();
+                    recentSlowQueries.addLast(trace.toString());
+                }
+            }
+        }
+    }
+
+    private static final class TimedIterator implements DocIdIterator {
+        private final DocIdIterator iterator;
+        private final Stage stage;
+        private long calls, fullyTimedNanos, sampledCalls, sampledNanos;
+
+        TimedIterator(DocIdIterator iterator, Stage stage) {
+            this.iterator = iterator;
+            this.stage = stage;
+        }
+
+        /** The fully timed calls, the rest at the mean of the sampled calls or, before any, of the fully timed ones */
+        long estimatedNanos() {
+            long fullyTimed = Math.min(calls, FULLY_TIMED_CALLS), later = calls - fullyTimed;
+            if (later == 0)
+                return fullyTimedNanos;
+            double mean = sampledCalls > 0 ? (double) sampledNanos / sampledCalls : (double) fullyTimedNanos / fullyTimed;
+            return fullyTimedNanos + Math.round(mean * later);
+        }
+
+        private boolean sampled() {
+            return ++calls <= FULLY_TIMED_CALLS || (calls & (SAMPLE_INTERVAL - 1)) == 0;
+        }
+
+        private void record(long elapsed) {
+            if (calls <= FULLY_TIMED_CALLS)
+                fullyTimedNanos += elapsed;
+            else {
+                sampledNanos += elapsed;
+                sampledCalls++;
+            }
+        }
+
+        @Override
+        public int docID() {
+            return iterator.docID();
+        }
+
+        @Override
+        public int nextDoc() {
+            if (!sampled())
+                return iterator.nextDoc();
+            long start = System.nanoTime();
+            int doc = iterator.nextDoc();
+            record(System.nanoTime() - start);
+            return doc;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (!sampled())
+                return iterator.advance(target);
+            long start = System.nanoTime();
+            int doc = iterator.advance(target);
+            record(System.nanoTime() - start);
+            return doc;
+        }
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.count();
+    }
+
+    @Override
+    public long getSlowQueries() {
+        return slowQueries.sum();
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryNanos / 1_000_000;
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long millis) {
+        slowQueryNanos = millis * 1_000_000;
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Stage stage : Stage.values())
+            counts.put(stage.label(), stage(stage).count());
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMicros() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stage(stage);
+            means.put(stage.label(), histogram.count() == 0 ? 0.0 : histogram.sumNanos() / 1e3 / histogram.count());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getStageP50Micros() {
+        return stagePercentiles(0.50);
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Micros() {
+        return stagePercentiles(0.99);
+    }
+
+    private Map<String, Double> stagePercentiles(double fraction) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (Stage stage : Stage.values())
+            percentiles.put(stage.label(), stage(stage).percentile(fraction) / 1e3);
+        return percentiles;
+    }
+
+    @Override
+    public double getQueryP50Micros() {
+        return queries.percentile(0.50) / 1e3;
+    }
+
+    @Override
+    public double getQueryP99Micros() {
+        return queries.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public String[] getRecentSlowQueries() {
+        synchronized (recentSlowQueries) {
+            return recentSlowQueries.toArray(String[]::new);
+        }
+    }
+
+    @Override
+    public int getTermCount() {
+        return index.numTerms();
+    }
+
+    @Override
+    public long getPostingsBytes() {
+        return index.postingsBytes();
+    }
+
+    @Override
+    public long getHeapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * The metrics in the Prometheus text exposition format, ready to be scraped or written to a
+     * file. Histogram buckets end one nanosecond below powers of two, from about 1 us to 17 s:
+     * a power of two is a bucket boundary of LatencyHistogram, so the count at or below each le
+     * bound is exact and needs no interpolation.
+     */
+    @Override
+    public String getPrometheusText() {
+        StringBuilder text = new StringBuilder(8192);
+        text.append("# HELP query_stage_seconds Time spent in each stage of a query\n");
+        text.append("# TYPE query_stage_seconds histogram\n");
+        for (Stage stage : Stage.values())
+            appendHistogram(text, "query_stage_seconds", "{stage=\"" + stage.label() + "\"", stage(stage));
+        text.append("# HELP query_seconds Time of whole queries\n");
+        text.append("# TYPE query_seconds histogram\n");
+        appendHistogram(text, "query_seconds", "{", queries);
+        text.append("# HELP query_slow_total Queries slower than the slow query threshold\n");
+        text.append("# TYPE query_slow_total counter\n");
+        text.append("query_slow_total ").append(getSlowQueries()).append('\n');
+        text.append("# HELP index_terms Distinct terms in the index\n");
+        text.append("# TYPE index_terms gauge\n");
+        text.append("index_terms ").append(getTermCount()).append('\n');
+        text.append("# HELP index_postings_bytes Bytes of postings, in memory or mapped\n");
+        text.append("# TYPE index_postings_bytes gauge\n");
+        text.append("index_postings_bytes ").append(getPostingsBytes()).append('\n');
+        text.append("# HELP jvm_heap_used_bytes Heap in use\n");
+        text.append("# TYPE jvm_heap_used_bytes gauge\n");
+        text.append("jvm_heap_used_bytes ").append(getHeapUsedBytes()).append('\n');
+        return text.toString();
+    }
+
+    /** labels is the opening brace and any labels before le, without a trailing comma */
+    private static void appendHistogram(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.equals("{") ? "" : ",";
+        for (int power = 10; power <= 34; power++) {
+            text.append(name).append("_bucket").append(labels).append(separator).append("le=\"")
+                    .append(((1L << power) - 1) / 1e9).append("\"} ").append(histogram.countBelow(power)).append('\n');
+        }
+        long count = histogram.count();
+        text.append(name).append("_bucket").append(labels).append(separator).append("le=\"+Inf\"} ").append(count).append('\n');
+        String closed = labels.equals("{") ? "" : labels + "}";
+        text.append(name).append("_sum").append(closed).append(' ').append(histogram.sumNanos() / 1e9).append('\n');
+        text.append(name).append("_count").append(closed).append(' ').append(count).append('\n');
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.Map;
+
+/** What QueryMetrics shows in JConsole or any JMX client, times in microseconds */
+public interface QueryMetricsMXBean {
+    long getQueries();
+
+    long getSlowQueries();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long millis);
+
+    /** Queries that timed each stage, by stage name */
+    Map<String, Long> getStageCounts();
+
+    Map<String, Double> getStageMeanMicros();
+
+    Map<String, Double> getStageP50Micros();
+
+    Map<String, Double> getStageP99Micros();
+
+    double getQueryP50Micros();
+
+    double getQueryP99Micros();
+
+    /** The latest slow queries, oldest first, with the time of each stage */
+    String[] getRecentSlowQueries();
+
+    int getTermCount();
+
+    long getPostingsBytes();
+
+    long getHeapUsedBytes();
+
+    /** Everything above in the Prometheus text format */
+    String getPrometheusText();
+}
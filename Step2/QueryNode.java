@@ -0,0 +1,36 @@
+import java.util.List;
+
+/** Parsed boolean query, built by QueryParser and compiled by QueryPlan */
+public sealed interface QueryNode {
+
+    /** A term, a phrase of adjacent terms, or a proximity phrase when slop > 0 */
+    record Phrase(List<String> terms, int slop) implements QueryNode {
+        @Override
+        public String toString() {
+            String phrase = String.join(" ", terms);
+            return slop > 0 ? "\"" + phrase + "\"~" + slop : terms.size() > 1 ? "\"" + phrase + "\"" : phrase;
+        }
+    }
+
+    record And(List<QueryNode> clauses) implements QueryNode {
+        @Override
+        public String toString() {
+            return "(" + String.join(" and ", clauses.stream().map(Object::toString).toList()) + ")";
+        }
+    }
+
+    record Or(List<QueryNode> clauses) implements QueryNode {
+        @Override
+        public String toString() {
+            return "(" + String.join(" or ", clauses.stream().map(Object::toString).toList()) + ")";
+        }
+    }
+
+    /** Every document that does not match the clause */
+    record Not(QueryNode clause) implements QueryNode {
+        @Override
+        public String toString() {
+            return "not " + clause;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a lowercased query into a QueryNode tree.
+ * <pre>
+ * or      := and (("or" | "or not") and)*
+ * and     := primary (("and" | "and not" | "but not")? primary)*
+ * primary := "(" or ")" | "\"" words "\"" ["~" k] | word+
+ * </pre>
+ * "and" binds tighter than "or", both are left associative, and two operands
+ * next to each other without an operator (a quoted phrase and a word) are and-ed.
+ * Operators are recognized first, then words and quoted phrases go through the Analyzer the
+ * index was built with, so "Hello," finds "hello". A word can become several terms or none.
+ * A word with * or ? is a wildcard pattern instead, kept as one term, see Wildcard.
+ */
+public class QueryParser {
+    private enum Type { WORD, QUOTED, LPAREN, RPAREN, AND, AND_NOT, OR, OR_NOT, END }
+
+    private record Token(Type type, String text, int slop) {
+    }
+
+    private final List<Token> tokens;
+    private int next;
+
+    private QueryParser(String query, Analyzer analyzer) {
+        tokens = tokenize(query, analyzer);
+    }
+
+    /** Parse a query with the analyzer of the system properties, see Analyzer.fromSystemProperties */
+    public static QueryNode parse(String query) {
+        return parse(query, Analyzer.fromSystemProperties());
+    }
+
+    /** Parse a query, throws IllegalArgumentException when it is malformed or a phrase has no terms */
+    public static QueryNode parse(String query, Analyzer analyzer) {
+        QueryParser parser = new QueryParser(query, analyzer);
+        QueryNode node = parser.parseOr();
+        if (parser.peek().type != Type.END)
+            throw new IllegalArgumentException("Unexpected '" + parser.peek().text + "'");
+        return node;
+    }
+
+    private QueryNode parseOr() {
+        List<QueryNode> clauses = new ArrayList<>();
+        clauses.add(parseAnd());
+        while (peek().type == Type.OR || peek().type == Type.OR_NOT) {
+            boolean negated = tokens.get(next++).type == Type.OR_NOT;
+            QueryNode clause = parseAnd();
+            clauses.add(negated ? new QueryNode.Not(clause) : clause);
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new QueryNode.Or(clauses);
+    }
+
+    private QueryNode parseAnd() {
+        List<QueryNode> clauses = new ArrayList<>();
+        clauses.add(parsePrimary());
+        for (;;) {
+            Type type = peek().type;
+            if (type == Type.AND || type == Type.AND_NOT) {
+                next++;
+                QueryNode clause = parsePrimary();
+                clauses.add(type == Type.AND_NOT ? new QueryNode.Not(clause) : clause);
+            } else if (type == Type.WORD || type == Type.QUOTED || type == Type.LPAREN)
+                clauses.add(parsePrimary()); // implicit and
+            else
+                break;
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new QueryNode.And(clauses);
+    }
+
+    private QueryNode parsePrimary() {
+        Token token = tokens.get(next++);
+        switch (token.type) {
+            case LPAREN:
+                QueryNode node = parseOr();
+                if (tokens.get(next++).type != Type.RPAREN)
+                    throw new IllegalArgumentException("Missing ')'");
+                return node;
+            case QUOTED:
+                return new QueryNode.Phrase(List.of(token.text.split(" ")), token.slop);
+            case WORD:
+                List<String> words = new ArrayList<>();
+                words.add(token.text);
+                while (peek().type == Type.WORD)
+                    words.add(tokens.get(next++).text);
+                return new QueryNode.Phrase(words, 0);
+            case END:
+                throw new IllegalArgumentException("Query ends where a term was expected");
+            default:
+                throw new IllegalArgumentException("Expected a term before '" + token.text + "'");
+        }
+    }
+
+    private Token peek() {
+        return tokens.get(next);
+    }
+
+    private static List<Token> tokenize(String query, Analyzer analyzer) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0, length = query.length();
+        while (i < length) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(new Token(c == '(' ? Type.LPAREN : Type.RPAREN, String.valueOf(c), 0));
+                i++;
+            } else if (c == '"') {
+                int close = query.indexOf('"', i + 1);
+                if (close < 0)
+                    throw new IllegalArgumentException("Missing closing quote");
+                String phrase = query.substring(i + 1, close).trim().replaceAll("\\s+", " ");
+                if (phrase.isEmpty())
+                    throw new IllegalArgumentException("Empty phrase");
+                i = close + 1;
+                int slop = 0;
+                if (i < length && query.charAt(i) == '~') {
+                    int start = ++i;
+                    while (i < length && Character.isDigit(query.charAt(i)))
+                        i++;
+                    if (i > start)
+                        slop = Integer.parseInt(query.substring(start, i));
+                }
+                tokens.add(new Token(Type.QUOTED, phrase, slop));
+            } else {
+                int start = i;
+                while (i < length && !Character.isWhitespace(query.charAt(i)) && "()\"".indexOf(query.charAt(i)) < 0)
+                    i++;
+                tokens.add(new Token(Type.WORD, query.substring(start, i), 0));
+            }
+        }
+        tokens.add(new Token(Type.END, "", 0));
+
+        // Turn operator words into operators, "and not" / "but not" / "or not" first, and analyze the rest
+        List<Token> merged = new ArrayList<>();
+        for (int t = 0; t < tokens.size(); t++) {
+            Token token = tokens.get(t);
+            if (token.type == Type.QUOTED) {
+                List<String> terms = new ArrayList<>();
+                for (String word : token.text.split(" "))
+                    terms.addAll(analyze(word, analyzer));
+                if (terms.isEmpty())
+                    throw new IllegalArgumentException("No terms in \"" + token.text + "\"");
+                merged.add(new Token(Type.QUOTED, String.join(" ", terms), token.slop));
+                continue;
+            }
+            if (token.type != Type.WORD) {
+                merged.add(token);
+                continue;
+            }
+            Token following = tokens.get(t + 1); // END is last, so a word always has a follower
+            boolean beforeNot = following.type == Type.WORD && following.text.equals("not");
+            if ((token.text.equals("and") || token.text.equals("but")) && beforeNot) {
+                merged.add(new Token(Type.AND_NOT, token.text + " not", 0));
+                t++;
+            } else if (token.text.equals("or") && beforeNot) {
+                merged.add(new Token(Type.OR_NOT, "or not", 0));
+                t++;
+            } else if (token.text.equals("and")) {
+                merged.add(new Token(Type.AND, "and", 0));
+            } else if (token.text.equals("or")) {
+                merged.add(new Token(Type.OR, "or", 0));
+            } else {
+                for (String term : analyze(token.text, analyzer))
+                    merged.add(new Token(Type.WORD, term, 0));
+            }
+        }
+        return merged;
+    }
+
+    /** The terms of a word, or its wildcard pattern as the only term */
+    static List<String> analyze(String word, Analyzer analyzer) {
+        if (Wildcard.isPattern(word)) {
+            String pattern = Wildcard.normalize(word);
+            if (!pattern.isEmpty())
+                return List.of(pattern);
+        }
+        return analyzer.terms(word);
+    }
+}
@@ -0,0 +1,399 @@
+import java.util.*;
+
+/**
+ * Compiles a QueryNode into a tree of lazy DocIdIterators. Before compiling, nested and/or
+ * clauses are flattened and negations are pushed down so that "not" only survives as a filter
+ * on an and (a and not b) or, when nothing is left to filter, as a complement at the top.
+ * The clauses of an and are ordered by estimated doc count, so the most selective clause leads
+ * and the others are only advanced to its candidates, no intermediate doc sets are built.
+ * The exceptions are a phrase the QueryCache has seen before, whose matches are collected into
+ * a DocIdSet that later queries iterate instead of matching positions again, and a complement,
+ * which takes the live docs minus the set of its clause.
+ *
+ * With a BiwordIndex, an exact phrase of two terms is the doc list of its biword, and a longer
+ * one only has its positions checked in the docs that hold all of its indexed biwords.
+ *
+ * evaluate() computes the same docs as a DocIdSet instead, every clause collected into a set and
+ * the sets combined chunk by chunk with and, or and andNot.
+ */
+public class QueryPlan {
+    private final PositionalIndex index;
+    private final QueryCache cache;
+    private final QueryMetrics.Trace trace;
+    private final BiwordIndex biwords;
+
+    public QueryPlan(PositionalIndex index) {
+        this(index, null);
+    }
+
+    /** A plan that reads and fills the phrase level of the cache, which may be null */
+    public QueryPlan(PositionalIndex index, QueryCache cache) {
+        this(index, cache, null);
+    }
+
+    /** Also times its phrase matchers into the trace, if there is one */
+    public QueryPlan(PositionalIndex index, QueryCache cache, QueryMetrics.Trace trace) {
+        this(index, cache, trace, null);
+    }
+
+    /** Also matches phrases through the biwords of index, if there are any */
+    public QueryPlan(PositionalIndex index, QueryCache cache, QueryMetrics.Trace trace, BiwordIndex biwords) {
+        this.index = index;
+        this.cache = cache;
+        this.trace = trace;
+        this.biwords = biwords;
+    }
+
+    /** Optimize and compile a parsed query */
+    public DocIdIterator compile(QueryNode query) {
+        return toIterator(optimize(query));
+    }
+
+    /**
+     * Flatten and/or, remove double negation and push negations out of or clauses:
+     * a or not b or not c = not (b and c and not a), which turns the or into a filter
+     */
+    static QueryNode optimize(QueryNode node) {
+        if (node instanceof QueryNode.Not not) {
+            QueryNode clause = optimize(not.clause());
+            return clause instanceof QueryNode.Not inner ? inner.clause() : new QueryNode.Not(clause);
+        }
+        if (node instanceof QueryNode.And and) {
+            List<QueryNode> clauses = new ArrayList<>();
+            for (QueryNode clause : and.clauses()) {
+                QueryNode optimized = optimize(clause);
+                if (optimized instanceof QueryNode.And nested)
+                    clauses.addAll(nested.clauses());
+                else
+                    clauses.add(optimized);
+            }
+            return new QueryNode.And(clauses);
+        }
+        if (node instanceof QueryNode.Or or) {
+            List<QueryNode> positive = new ArrayList<>(), negated = new ArrayList<>();
+            for (QueryNode clause : or.clauses()) {
+                QueryNode optimized = optimize(clause);
+                if (optimized instanceof QueryNode.Or nested)
+                    positive.addAll(nested.clauses());
+                else if (optimized instanceof QueryNode.Not not)
+                    negated.add(not.clause());
+                else
+                    positive.add(optimized);
+            }
+            if (negated.isEmpty())
+                return new QueryNode.Or(positive);
+            if (!positive.isEmpty())
+                negated.add(new QueryNode.Not(positive.size() == 1 ? positive.get(0) : new QueryNode.Or(positive)));
+            return new QueryNode.Not(optimize(new QueryNode.And(negated)));
+        }
+        return node;
+    }
+
+    /** Optimize a parsed query and compute the set of its docs */
+    public DocIdSet evaluate(QueryNode query) {
+        return toSet(optimize(query));
+    }
+
+    /** Estimated number of matching documents, used to order and clauses */
+    long estimate(QueryNode node) {
+        if (node instanceof QueryNode.Phrase phrase) {
+            long min = index.numLiveDocs();
+            for (String term : phrase.terms())
+                min = Math.min(min, Wildcard.docFreq(index, term));
+            if (usesBiwords(phrase)) {
+                for (int i = 0; i + 1 < phrase.terms().size(); i++) {
+                    int docFreq = biwords.docFreq(phrase.terms().get(i), phrase.terms().get(i + 1));
+                    if (docFreq >= 0)
+                        min = Math.min(min, docFreq);
+                }
+            }
+            return min;
+        }
+        if (node instanceof QueryNode.And and) {
+            long min = index.numLiveDocs();
+            for (QueryNode clause : and.clauses()) {
+                if (!(clause instanceof QueryNode.Not))
+                    min = Math.min(min, estimate(clause));
+            }
+            return min;
+        }
+        if (node instanceof QueryNode.Or or) {
+            long sum = 0;
+            for (QueryNode clause : or.clauses())
+                sum += estimate(clause);
+            return Math.min(sum, index.numLiveDocs());
+        }
+        return Math.max(0, index.numLiveDocs() - estimate(((QueryNode.Not) node).clause()));
+    }
+
+    private DocIdIterator toIterator(QueryNode node) {
+        if (node instanceof QueryNode.Phrase phrase) {
+            PostingsEnum postings = phrase.terms().size() == 1 ? Wildcard.postings(index, phrase.terms().get(0)) : null;
+            if (postings != null)
+                return postings; // as cheap to iterate as a cached set
+            DocIdSet docs = cachedMatches(phrase);
+            return docs == null ? phraseMatcher(phrase) : docs.iterator();
+        }
+        if (node instanceof QueryNode.Not not)
+            return new Complement(toIterator(not.clause()), index);
+        if (node instanceof QueryNode.Or or) {
+            List<DocIdIterator> clauses = new ArrayList<>();
+            for (QueryNode clause : or.clauses())
+                clauses.add(toIterator(clause));
+            return clauses.size() == 1 ? clauses.get(0) : new Disjunction(clauses);
+        }
+
+        QueryNode.And and = (QueryNode.And) node;
+        List<QueryNode> required = new ArrayList<>(), excluded = new ArrayList<>();
+        for (QueryNode clause : and.clauses()) {
+            if (clause instanceof QueryNode.Not not)
+                excluded.add(not.clause());
+            else
+                required.add(clause);
+        }
+        required.sort(Comparator.comparingLong(this::estimate));
+        DocIdIterator include;
+        if (required.isEmpty())
+            include = index.liveDocs().iterator();
+        else {
+            List<DocIdIterator> clauses = new ArrayList<>();
+            for (QueryNode clause : required)
+                clauses.add(toIterator(clause));
+            include = clauses.size() == 1 ? clauses.get(0) : new Conjunction(clauses);
+        }
+        if (excluded.isEmpty())
+            return include;
+        return new Exclusion(include, toIterator(excluded.size() == 1 ? excluded.get(0) : new QueryNode.Or(excluded)));
+    }
+
+    private DocIdSet toSet(QueryNode node) {
+        if (node instanceof QueryNode.Phrase phrase) {
+            if (phrase.terms().size() == 1) {
+                PostingsEnum postings = Wildcard.postings(index, phrase.terms().get(0));
+                return postings == null ? DocIdSet.empty() : DocIdSet.of(postings);
+            }
+            DocIdSet docs = cachedMatches(phrase);
+            return docs != null ? docs : DocIdSet.of(phraseMatcher(phrase));
+        }
+        if (node instanceof QueryNode.Not not)
+            return index.liveDocs().andNot(toSet(not.clause()));
+        if (node instanceof QueryNode.Or or) {
+            DocIdSet union = DocIdSet.empty();
+            for (QueryNode clause : or.clauses())
+                union = union.or(toSet(clause));
+            return union;
+        }
+
+        // The smallest clause first, so the intersection shrinks as early as possible
+        List<QueryNode> clauses = new ArrayList<>(((QueryNode.And) node).clauses());
+        clauses.sort(Comparator.comparingLong(clause -> clause instanceof QueryNode.Not ? Long.MAX_VALUE : estimate(clause)));
+        DocIdSet result = clauses.get(0) instanceof QueryNode.Not ? index.liveDocs() : null;
+        for (QueryNode clause : clauses) {
+            if (result != null && result.isEmpty())
+                break;
+            if (clause instanceof QueryNode.Not not)
+                result = result.andNot(toSet(not.clause()));
+            else
+                result = result == null ? toSet(clause) : result.and(toSet(clause));
+        }
+        return result;
+    }
+
+    /**
+     * The cached docs of a phrase of two or more terms, collected now if the phrase was looked
+     * up before. Null if the phrase is not worth a set yet, or there is no cache.
+     */
+    private DocIdSet cachedMatches(QueryNode.Phrase phrase) {
+        if (cache == null || phrase.terms().size() == 1)
+            return null;
+        DocIdSet docs = cache.matches(index, phrase);
+        if (docs == null && cache.isRepeated(index, phrase)) {
+            docs = DocIdSet.of(phraseMatcher(phrase));
+            cache.putMatches(index, phrase, docs);
+        }
+        return docs;
+    }
+
+    private DocIdIterator phraseMatcher(QueryNode.Phrase phrase) {
+        DocIdIterator matcher = new PhraseMatcher(index, phrase.terms().toArray(String[]::new), phrase.slop());
+        if (usesBiwords(phrase)) {
+            List<DocIdIterator> pairs = new ArrayList<>();
+            List<Integer> docFreqs = new ArrayList<>();
+            List<String> terms = phrase.terms();
+            for (int i = 0; i + 1 < terms.size(); i++) {
+                DocIdIterator docs = biwords.docs(terms.get(i), terms.get(i + 1));
+                if (docs != null) {
+                    docFreqs.add(biwords.docFreq(terms.get(i), terms.get(i + 1)));
+                    pairs.add(docs);
+                }
+            }
+            // A biword list skips no deleted docs, so then it only narrows the candidates
+            if (terms.size() == 2 && pairs.size() == 1 && index.numLiveDocs() == index.numDocs())
+                matcher = pairs.get(0);
+            else if (!pairs.isEmpty()) {
+                Integer[] order = new Integer[pairs.size()];
+                for (int i = 0; i < order.length; i++)
+                    order[i] = i;
+                Arrays.sort(order, Comparator.comparingInt(docFreqs::get));
+                List<DocIdIterator> clauses = new ArrayList<>();
+                for (int i : order)
+                    clauses.add(pairs.get(i));
+                clauses.add(matcher); // positions are only read for the docs with every biword
+                matcher = new Conjunction(clauses);
+            }
+        }
+        return trace == null ? matcher : trace.timed(matcher, QueryMetrics.Stage.PHRASE_MATCH);
+    }
+
+    /** Exact phrases of plain terms can be matched through biwords */
+    private boolean usesBiwords(QueryNode.Phrase phrase) {
+        if (biwords == null || phrase.slop() > 0 || phrase.terms().size() < 2)
+            return false;
+        for (String term : phrase.terms()) {
+            if (Wildcard.isPattern(term))
+                return false;
+        }
+        return true;
+    }
+
+    /** Docs in all clauses, the first clause leads and the others are advanced to its candidates */
+    private static class Conjunction implements DocIdIterator {
+        private final DocIdIterator[] clauses;
+        private int doc = -1;
+
+        Conjunction(List<DocIdIterator> clauses) {
+            this.clauses = clauses.toArray(DocIdIterator[]::new);
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc == NO_MORE_DOCS ? doc : advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            int candidate = clauses[0].advance(target);
+            while (candidate != NO_MORE_DOCS) {
+                int i = 1;
+                for (; i < clauses.length; i++) {
+                    int other = clauses[i].advance(candidate);
+                    if (other != candidate) {
+                        candidate = clauses[0].advance(other);
+                        break;
+                    }
+                }
+                if (i == clauses.length)
+                    return doc = candidate;
+            }
+            return doc = NO_MORE_DOCS;
+        }
+    }
+
+    /** Docs in any clause */
+    private static class Disjunction implements DocIdIterator {
+        private final DocIdIterator[] clauses;
+        private int doc = -1;
+
+        Disjunction(List<DocIdIterator> clauses) {
+            this.clauses = clauses.toArray(DocIdIterator[]::new);
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc == NO_MORE_DOCS ? doc : advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            int min = NO_MORE_DOCS;
+            for (DocIdIterator clause : clauses) {
+                int current = clause.docID() < target ? clause.advance(target) : clause.docID();
+                min = Math.min(min, current);
+            }
+            return doc = min;
+        }
+    }
+
+    /** Docs of include that are not in exclude */
+    private static class Exclusion implements DocIdIterator {
+        private final DocIdIterator include, exclude;
+
+        Exclusion(DocIdIterator include, DocIdIterator exclude) {
+            this.include = include;
+            this.exclude = exclude;
+        }
+
+        @Override
+        public int docID() {
+            return include.docID();
+        }
+
+        @Override
+        public int nextDoc() {
+            return skipExcluded(include.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) {
+            return skipExcluded(include.advance(target));
+        }
+
+        private int skipExcluded(int doc) {
+            while (doc != NO_MORE_DOCS) {
+                int excluded = exclude.docID() < doc ? exclude.advance(doc) : exclude.docID();
+                if (excluded != doc)
+                    return doc;
+                doc = include.nextDoc();
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * Live docs that are not in the clause. The clause is collected into a DocIdSet on the first
+     * call and taken out of the live docs, so the time goes to the plan's set operations.
+     */
+    private static class Complement implements DocIdIterator {
+        private DocIdIterator clause;
+        private final PositionalIndex index;
+        private DocIdIterator docs;
+
+        Complement(DocIdIterator clause, PositionalIndex index) {
+            this.clause = clause;
+            this.index = index;
+        }
+
+        @Override
+        public int docID() {
+            return docs == null ? -1 : docs.docID();
+        }
+
+        @Override
+        public int nextDoc() {
+            return complement().nextDoc();
+        }
+
+        @Override
+        public int advance(int target) {
+            return complement().advance(target);
+        }
+
+        private DocIdIterator complement() {
+            if (docs == null) {
+                docs = index.liveDocs().andNot(DocIdSet.of(clause)).iterator();
+                clause = null;
+            }
+            return docs;
+        }
+    }
+}
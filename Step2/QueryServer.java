@@ -0,0 +1,201 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
+
+/**
+ * Serves ranked queries over HTTP on localhost, each request on its own virtual thread. All
+ * requests share one index, which is read-only, and get their own PhraseQuery.
+ *
+ * GET /search?q=<query>&k=<n> returns
+ * {"query":"...","took_ms":0.42,"hits":[{"doc":"name","score":0.1234},...]},
+ * or status 400 with {"error":"..."} when the query does not parse.
+ * GET /cache returns the hit, miss and eviction counts of the shared QueryCache.
+ * GET /metrics returns the QueryMetrics of all searches in the Prometheus text format, and the
+ * same metrics are registered as an MXBean for JMX clients.
+ *
+ * Usage: java QueryServer [index file] [port] [--no-cache]
+ */
+public class QueryServer {
+    static final int DEFAULT_PORT = 8080;
+    static final int DEFAULT_K = 10;
+
+    static {
+        // Without TCP_NODELAY a small response waits for the client's delayed ACK, about 40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final PositionalIndex index;
+    private final QueryCache cache;
+    private final QueryMetrics metrics;
+    private final HttpServer server;
+
+    /** A server whose queries share the cache, which may be null */
+    public QueryServer(PositionalIndex index, int port, QueryCache cache) throws IOException {
+        this(index, port, cache, new QueryMetrics(index));
+    }
+
+    /** A server whose queries also share the metrics */
+    public QueryServer(PositionalIndex index, int port, QueryCache cache, QueryMetrics metrics) throws IOException {
+        this.index = index;
+        this.cache = cache;
+        this.metrics = metrics;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/cache", this::handleCache);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public static void main(String[] args) throws IOException, JMException {
+        List<String> positional = new ArrayList<>(List.of(args));
+        boolean cached = !positional.remove("--no-cache");
+        String inputFile = positional.size() > 0 ? positional.get(0) : "positional_index.txt";
+        int port = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : DEFAULT_PORT;
+        long start = System.nanoTime();
+        PositionalIndex index = TFIDFCalculator.openIndex(inputFile);
+        System.out.printf("Loaded %d docs, %d terms in %.2f ms%n", index.numDocs(), index.numTerms(),
+                (System.nanoTime() - start) / 1e6);
+        QueryMetrics metrics = new QueryMetrics(index);
+        metrics.register();
+        QueryServer server = new QueryServer(index, port, cached ? new QueryCache() : null, metrics);
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.port() + "/search?q=<query>&k=<n>");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, "{\"error\":\"only GET is supported\"}");
+                return;
+            }
+            Map<String, String> params = parseQueryString(exchange.getRequestURI().getRawQuery());
+            String query = params.getOrDefault("q", "");
+            int k;
+            try {
+                k = Integer.parseInt(params.getOrDefault("k", String.valueOf(DEFAULT_K)));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, "{\"error\":\"k must be a number\"}");
+                return;
+            }
+
+            long start = System.nanoTime();
+            List<ScoredDoc> hits;
+            try {
+                PhraseQuery search = new PhraseQuery(index);
+                search.setCache(cache);
+                search.setMetrics(metrics);
+                hits = search.search(query, k);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+                return;
+            }
+            double tookMillis = (System.nanoTime() - start) / 1e6;
+
+            StringBuilder json = new StringBuilder(64 + 48 * hits.size());
+            json.append("{\"query\":").append(quote(query))
+                    .append(",\"took_ms\":").append(String.format(Locale.ROOT, "%.3f", tookMillis))
+                    .append(",\"hits\":[");
+            for (int i = 0; i < hits.size(); i++) {
+                if (i > 0)
+                    json.append(',');
+                json.append("{\"doc\":").append(quote(hits.get(i).name()))
+                        .append(",\"score\":").append(hits.get(i).score()).append('}');
+            }
+            send(exchange, 200, json.append("]}").toString());
+        }
+    }
+
+    private void handleCache(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (cache == null) {
+                send(exchange, 404, "{\"error\":\"the cache is disabled\"}");
+                return;
+            }
+            QueryCache.Stats stats = cache.stats();
+            send(exchange, 200, "{\"results\":" + json(stats.results()) + ",\"matches\":" + json(stats.matches())
+                    + ",\"invalidations\":" + stats.invalidations() + "}");
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = metrics.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static String json(TinyLfuCache.Stats stats) {
+        return String.format(Locale.ROOT,
+                "{\"hits\":%d,\"misses\":%d,\"hit_rate\":%.4f,\"evictions\":%d,\"rejections\":%d,\"entries\":%d,\"weight\":%d}",
+                stats.hits(), stats.misses(), stats.hitRate(), stats.evictions(), stats.rejections(), stats.entries(),
+                stats.weight());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static Map<String, String> parseQueryString(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null)
+            return params;
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+                params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /** JSON string literal */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    else
+                        quoted.append(c);
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.*;
+
+/**
+ * Term-at-a-time cosine scoring. The query weights are computed in one pass over the query
+ * terms, then the postings of each term are read once and its share of the dot product is
+ * added into a double[] indexed by doc id. Docs are stamped with the query number when they
+ * are first touched, so the arrays are reused by the next query without being cleared.
+ *
+ * The weights are kept in a HashMap filled in query order like PhraseQuery's query vector, and
+ * each doc adds up its terms in that map's order, so the scores are bit for bit the ones of
+ * the per-document cosine.
+ */
+public class ScoreAccumulator {
+    private final PositionalIndex index;
+    private final double[] dotProducts;
+    private final int[] stamps;
+    private int query;
+    private double queryVectorLength;
+
+    public ScoreAccumulator(PositionalIndex index) {
+        this.index = index;
+        dotProducts = new double[index.numDocs()];
+        stamps = new int[index.numDocs()];
+    }
+
+    /** tf_weight(count in query) * idf of each distinct query term */
+    public static Map<String, Double> queryWeights(PositionalIndex index, List<String> queryTerms) {
+        Map<String, Integer> counts = new LinkedHashMap<>(); // first occurrence order
+        for (String term : queryTerms)
+            counts.merge(term, 1, Integer::sum);
+        Map<String, Double> weights = new HashMap<>();
+        for (var entry : counts.entrySet())
+            weights.put(entry.getKey(), TFIDFCalculator.tf_weight(entry.getValue()) * index.idf(entry.getKey()));
+        return weights;
+    }
+
+    /**
+     * Length of the query vector. As in PhraseQuery.getQueryVectorLength a repeated term adds its
+     * squared weight once per occurrence, and terms missing from the index are left out.
+     */
+    public static double queryVectorLength(PositionalIndex index, Map<String, Double> weights,
+            List<String> queryTerms) {
+        double length = 0.0;
+        for (String term : queryTerms) {
+            if (index.docFreq(term) > 0)
+                length += Math.pow(weights.get(term), 2);
+        }
+        return Math.sqrt(length);
+    }
+
+    /** Accumulate the dot products of a query, replaces the scores of the previous one */
+    public void accumulate(List<String> queryTerms) {
+        if (++query == 0) { // wrapped around, old stamps could match again
+            Arrays.fill(stamps, 0);
+            query = 1;
+        }
+        Map<String, Double> weights = queryWeights(index, queryTerms);
+        queryVectorLength = queryVectorLength(index, weights, queryTerms);
+        for (var entry : weights.entrySet()) {
+            double queryWeight = entry.getValue();
+            PostingsEnum postings = index.postings(entry.getKey());
+            if (queryWeight == 0 || postings == null)
+                continue; // adds nothing to any dot product
+            double idf = index.idf(entry.getKey());
+            for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                double docWeight = TFIDFCalculator.tf_weight(postings.freq()) * idf;
+                if (stamps[doc] != query) {
+                    stamps[doc] = query;
+                    dotProducts[doc] = 0.0;
+                }
+                dotProducts[doc] += queryWeight * docWeight;
+            }
+        }
+    }
+
+    /** Cosine similarity of a doc to the last accumulated query, 0 if it has none of its terms */
+    public double score(int doc) {
+        double docVectorLength = index.docNorm(doc);
+        if (stamps[doc] != query || queryVectorLength == 0 || docVectorLength == 0)
+            return 0.0;
+        return dotProducts[doc] / (queryVectorLength * docVectorLength);
+    }
+}
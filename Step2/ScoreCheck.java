@@ -0,0 +1,47 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Checks that the term-at-a-time scores of PhraseQuery.search are exactly the per-document
+ * cosine scores it computed before, for every matching document of every query in a file.
+ *
+ * Usage: java ScoreCheck [index file] [query file]
+ */
+public class ScoreCheck {
+    public static void main(String[] args) throws IOException {
+        String inputFile = args.length > 0 ? args[0] : "positional_index.txt";
+        PositionalIndex index = TFIDFCalculator.openIndex(inputFile);
+        var query = new PhraseQuery(index);
+        var accumulator = new ScoreAccumulator(index);
+
+        int queries = 0, docs = 0, mismatches = 0;
+        try (BufferedReader reader = args.length > 1 ? new BufferedReader(new FileReader(args[1]))
+                : new BufferedReader(new InputStreamReader(System.in))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                Map<Integer, Double> expected;
+                try {
+                    expected = query.perDocumentScores(line);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                queries++;
+                accumulator.accumulate(query.queryTerms(line.toLowerCase()));
+                for (var entry : expected.entrySet()) {
+                    docs++;
+                    double actual = accumulator.score(entry.getKey());
+                    if (Double.compare(actual, entry.getValue()) != 0) {
+                        mismatches++;
+                        System.out.printf("%s: %s expected %s, got %s%n", line, index.docName(entry.getKey()),
+                                entry.getValue(), actual);
+                    }
+                }
+            }
+        }
+        System.out.printf("%d queries, %d scored documents, %d mismatches%n", queries, docs, mismatches);
+        if (mismatches > 0)
+            System.exit(1);
+    }
+}
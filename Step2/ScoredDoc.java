@@ -0,0 +1,8 @@
+/** A ranked document: its id, name and cosine similarity to the query */
+public record ScoredDoc(int doc, String name, double score) {
+
+    @Override
+    public String toString() {
+        return String.format("Document: %s, Similarity: %.4f", name, score);
+    }
+}
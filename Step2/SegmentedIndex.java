@@ -0,0 +1,400 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A point-in-time view of an IncrementalIndex: a list of immutable segments, each with the
+ * docs deleted from it so far. Doc ids run segment after segment, so segment s holds the ids
+ * [docBase[s], docBase[s + 1]). Postings skip deleted docs, and idf counts only live ones.
+ *
+ * A segment's own norms use the idf of that segment alone, so they are not used here. Adding
+ * or deleting a doc changes the total doc count, so the idf of every term and the norm of
+ * every doc. Instead of recomputing them all on each update, a view computes the norm of a doc
+ * from its terms the first time a query needs it and caches it, so only the docs that get
+ * scored pay for it. Racing threads compute the same values, so the caches need no locking.
+ */
+public class SegmentedIndex implements PositionalIndex {
+
+    /** Postings of a set of docs plus, per doc, its terms and their frequencies */
+    static final class Segment {
+        final CompactIndex index;
+        final String[] terms; // sorted, the position is the term ordinal
+        // The terms of local doc d are the ordinals docTerms[docTermStart[d] .. docTermStart[d + 1])
+        final int[] docTermStart, docTerms, docTermFreqs;
+
+        Segment(CompactIndex index) {
+            this.index = index;
+            terms = new String[index.numTerms()];
+            docTermStart = new int[index.numDocs() + 1];
+            int ord = 0;
+            for (String term : index.terms()) {
+                terms[ord++] = term;
+                PostingsEnum postings = index.postings(term);
+                for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc())
+                    docTermStart[doc + 1]++;
+            }
+            for (int doc = 0; doc < index.numDocs(); doc++)
+                docTermStart[doc + 1] += docTermStart[doc];
+            docTerms = new int[docTermStart[index.numDocs()]];
+            docTermFreqs = new int[docTerms.length];
+            int[] next = Arrays.copyOf(docTermStart, index.numDocs());
+            for (ord = 0; ord < terms.length; ord++) {
+                PostingsEnum postings = index.postings(terms[ord]);
+                for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    docTerms[next[doc]] = ord;
+                    docTermFreqs[next[doc]++] = postings.freq();
+                }
+            }
+        }
+
+        int numDocs() {
+            return index.numDocs();
+        }
+    }
+
+    /**
+     * The docs deleted from a segment as one view sees them. Docs are only ever deleted, never
+     * brought back, so every view of a segment shares one log of its deletions and sees the
+     * first count() of them: a delete appends the doc and its terms to the log instead of
+     * copying all the earlier deletions. Only the newest Deletions of a segment may delete, under
+     * the IncrementalIndex lock. Views read the log without locking while it grows, and ignore
+     * the entries past their count.
+     */
+    static final class Deletions {
+        private final Log log;
+        private final int count;
+
+        private Deletions(Log log, int count) {
+            this.log = log;
+            this.count = count;
+        }
+
+        /** No docs of the segment deleted yet */
+        static Deletions none(Segment segment) {
+            return new Deletions(new Log(segment), 0);
+        }
+
+        int count() {
+            return count;
+        }
+
+        boolean isDeleted(int doc) {
+            int deletedAt = log.deletedAt[doc];
+            return deletedAt != 0 && deletedAt <= count;
+        }
+
+        /** The doc of the i-th deletion, i below count() */
+        int deletedDoc(int i) {
+            return log.docs[i];
+        }
+
+        /** Number of the deleted docs that contain the term */
+        int docFreq(String term) {
+            int[] deletedAt = log.termDeletions.get(term);
+            return deletedAt == null ? 0 : Log.countUpTo(deletedAt, count);
+        }
+
+        /** These deletions and doc, the log must not have grown past them */
+        Deletions delete(int doc) {
+            if (log.size != count)
+                throw new IllegalStateException("Only the newest deletions of a segment can delete");
+            log.append(doc);
+            return new Deletions(log, count + 1);
+        }
+    }
+
+    /** The deletions of one segment in the order they were made, see Deletions */
+    private static final class Log {
+        private final Segment segment;
+        // Per local doc, the count of deletions up to and including its own, 0 while it is live
+        private final int[] deletedAt;
+        private volatile int[] docs = new int[4]; // docs[i] was deleted i-th
+        // Per term, the deletedAt of its deleted docs ascending, padded with MAX_VALUE
+        private final Map<String, int[]> termDeletions = new ConcurrentHashMap<>();
+        private int size;
+
+        Log(Segment segment) {
+            this.segment = segment;
+            deletedAt = new int[segment.numDocs()];
+        }
+
+        void append(int doc) {
+            int[] docs = this.docs;
+            if (size == docs.length)
+                docs = Arrays.copyOf(docs, size * 2);
+            docs[size] = doc;
+            this.docs = docs; // republished so views see a grown copy in full
+            for (int i = segment.docTermStart[doc]; i < segment.docTermStart[doc + 1]; i++) {
+                String term = segment.terms[segment.docTerms[i]];
+                int[] deleted = termDeletions.get(term);
+                int length = deleted == null ? 0 : countUpTo(deleted, size);
+                if (deleted == null || length == deleted.length) {
+                    int[] grown = new int[Math.max(4, length * 2)];
+                    Arrays.fill(grown, length, grown.length, Integer.MAX_VALUE);
+                    if (deleted != null)
+                        System.arraycopy(deleted, 0, grown, 0, length);
+                    deleted = grown;
+                }
+                deleted[length] = size + 1;
+                termDeletions.put(term, deleted);
+            }
+            deletedAt[doc] = ++size;
+        }
+
+        /** Entries of an ascending deletedAt list at most count, the rest are later deletions or padding */
+        static int countUpTo(int[] deletedAt, int count) {
+            int found = Arrays.binarySearch(deletedAt, count);
+            return found >= 0 ? found + 1 : -found - 1;
+        }
+    }
+
+    private final Segment[] segments;
+    private final Deletions[] deletions;
+    private final int[] docBase;
+    private final int liveDocs;
+    private final long version;
+    private final Map<String, Double> idfs = new ConcurrentHashMap<>();
+    private final double[][] segmentIdfs; // per segment and term ordinal, idf + 1 so that 0 means unknown
+    private volatile double[] norms; // 0 until computed
+    private volatile String[] terms;
+    private volatile DocIdSet live;
+
+    SegmentedIndex(List<Segment> segments, List<Deletions> deletions, long version) {
+        this.version = version;
+        this.segments = segments.toArray(Segment[]::new);
+        this.deletions = deletions.toArray(Deletions[]::new);
+        segmentIdfs = new double[this.segments.length][];
+        docBase = new int[this.segments.length + 1];
+        int live = 0;
+        for (int s = 0; s < this.segments.length; s++) {
+            docBase[s + 1] = docBase[s] + this.segments[s].numDocs();
+            live += this.segments[s].numDocs() - this.deletions[s].count();
+        }
+        liveDocs = live;
+    }
+
+    public int numSegments() {
+        return segments.length;
+    }
+
+    @Override
+    public int numDocs() {
+        return docBase[segments.length];
+    }
+
+    @Override
+    public int numLiveDocs() {
+        return liveDocs;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public boolean isDeleted(int doc) {
+        int s = segmentOf(doc);
+        return deletions[s].isDeleted(doc - docBase[s]);
+    }
+
+    /** Built on first use, a view never changes */
+    @Override
+    public DocIdSet liveDocs() {
+        DocIdSet docs = live;
+        if (docs == null) {
+            DocIdSet.Builder builder = new DocIdSet.Builder();
+            for (int s = 0; s < segments.length; s++) {
+                for (int doc = 0; doc < segments[s].numDocs(); doc++) {
+                    if (!deletions[s].isDeleted(doc))
+                        builder.add(docBase[s] + doc);
+                }
+            }
+            live = docs = builder.build();
+        }
+        return docs;
+    }
+
+    @Override
+    public String docName(int doc) {
+        int s = segmentOf(doc);
+        return segments[s].index.docName(doc - docBase[s]);
+    }
+
+    /** The live doc with this name, newer segments first */
+    @Override
+    public int docId(String name) {
+        for (int s = segments.length - 1; s >= 0; s--) {
+            int doc = segments[s].index.docId(name);
+            if (doc >= 0 && !deletions[s].isDeleted(doc))
+                return docBase[s] + doc;
+        }
+        return -1;
+    }
+
+    @Override
+    public int numTerms() {
+        return sortedTerms().length;
+    }
+
+    @Override
+    public Iterable<String> terms() {
+        return Arrays.asList(sortedTerms());
+    }
+
+    @Override
+    public Iterable<String> terms(String prefix) {
+        return Wildcard.withPrefix(sortedTerms(), prefix);
+    }
+
+    /** Terms with at least one live doc, merged from the segments on first use */
+    private String[] sortedTerms() {
+        String[] result = terms;
+        if (result == null) {
+            TreeSet<String> merged = new TreeSet<>();
+            for (Segment segment : segments) {
+                for (String term : segment.index.terms())
+                    merged.add(term);
+            }
+            merged.removeIf(term -> docFreq(term) == 0);
+            terms = result = merged.toArray(String[]::new);
+        }
+        return result;
+    }
+
+    @Override
+    public int docFreq(String term) {
+        int docFreq = 0;
+        for (int s = 0; s < segments.length; s++)
+            docFreq += segments[s].index.docFreq(term) - deletions[s].docFreq(term);
+        return docFreq;
+    }
+
+    @Override
+    public double idf(String term) {
+        return idfs.computeIfAbsent(term, PositionalIndex.super::idf);
+    }
+
+    @Override
+    public PostingsEnum postings(String term) {
+        PostingsEnum[] postings = new PostingsEnum[segments.length];
+        boolean found = false;
+        for (int s = 0; s < segments.length; s++) {
+            postings[s] = segments[s].index.postings(term);
+            found |= postings[s] != null;
+        }
+        return found ? new SegmentedPostings(postings) : null;
+    }
+
+    /** Deleted docs still take their space until a merge drops them */
+    @Override
+    public long postingsBytes() {
+        long bytes = 0;
+        for (Segment segment : segments)
+            bytes += segment.index.postingsBytes();
+        return bytes;
+    }
+
+    @Override
+    public double docNorm(int doc) {
+        double[] cache = norms;
+        if (cache == null)
+            norms = cache = new double[numDocs()];
+        if (cache[doc] == 0) {
+            int s = segmentOf(doc);
+            Segment segment = segments[s];
+            double[] termIdfs = segmentIdfs[s];
+            if (termIdfs == null)
+                segmentIdfs[s] = termIdfs = new double[segment.terms.length];
+            double squaredNorm = 0;
+            for (int i = segment.docTermStart[doc - docBase[s]]; i < segment.docTermStart[doc - docBase[s] + 1]; i++) {
+                int ord = segment.docTerms[i];
+                if (termIdfs[ord] == 0)
+                    termIdfs[ord] = idf(segment.terms[ord]) + 1;
+                double weight = TFIDFCalculator.tf_weight(segment.docTermFreqs[i]) * (termIdfs[ord] - 1);
+                squaredNorm += weight * weight;
+            }
+            cache[doc] = Math.sqrt(squaredNorm);
+        }
+        return cache[doc];
+    }
+
+    /**
+     * A term's weight is one of the components of the norm, so weight / norm is at most 1. The
+     * norms change with every update, so this view does not keep anything tighter.
+     */
+    @Override
+    public double maxImpact(String term) {
+        return docFreq(term) > 0 && idf(term) > 0 ? 1.0 : 0.0;
+    }
+
+    Segment segment(int s) {
+        return segments[s];
+    }
+
+    Deletions deletions(int s) {
+        return deletions[s];
+    }
+
+    private int segmentOf(int doc) {
+        int s = Arrays.binarySearch(docBase, doc);
+        if (s < 0)
+            return -s - 2;
+        while (docBase[s + 1] == doc) // skip empty segments that start at the same id
+            s++;
+        return s;
+    }
+
+    /** The postings of every segment one after the other, live docs only */
+    private class SegmentedPostings implements PostingsEnum {
+        private final PostingsEnum[] postings; // null where the segment lacks the term
+        private int segment, doc = -1;
+
+        SegmentedPostings(PostingsEnum[] postings) {
+            this.postings = postings;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc == NO_MORE_DOCS ? doc : advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target)
+                return doc;
+            for (; segment < segments.length; segment++) {
+                PostingsEnum current = postings[segment];
+                if (current == null || target >= docBase[segment + 1])
+                    continue;
+                int base = docBase[segment];
+                Deletions deleted = deletions[segment];
+                for (int local = current.advance(Math.max(0, target - base)); local != NO_MORE_DOCS; local = current.nextDoc()) {
+                    if (!deleted.isDeleted(local))
+                        return doc = base + local;
+                }
+            }
+            return doc = NO_MORE_DOCS;
+        }
+
+        @Override
+        public int freq() {
+            return postings[segment].freq();
+        }
+
+        @Override
+        public int nextPosition() {
+            return postings[segment].nextPosition();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedIndex[" + segments.length + " segments, " + liveDocs + " live docs, "
+                + (numDocs() - liveDocs) + " deleted]";
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scatter-gather search over an index split by document into shards, like the part files the
+ * Hadoop job writes with -D positional.index.shards=N. A query goes to every shard on a thread
+ * pool, each shard returns its own top k, and the lists are merged into the global top k.
+ *
+ * Scores use global statistics: N is the doc count of all shards and a term's df the sum of its
+ * shard dfs, so every shard is wrapped in a view whose idf, norms and max impacts come from
+ * those totals. Doc ids are also global, the rank of the name among all shards' names. The
+ * results are then exactly those of PhraseQuery.search(query, k) on the unsharded index.
+ *
+ * Usage: java ShardedSearcher [-k n] [--threads n] [--check unsharded index] <shard index>...
+ *        reads one query per line from stdin and prints its top k, or with --check compares
+ *        every result with the unsharded index and prints the mismatches
+ */
+public class ShardedSearcher implements Closeable {
+    private final Shard[] shards;
+    private final ExecutorService pool;
+
+    /** Wrap the shards with the global statistics, computing their norms on the pool */
+    public ShardedSearcher(List<? extends PositionalIndex> indexes, int threads) throws InterruptedException {
+        pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "shard-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Integer> docFreqs = new HashMap<>();
+        int numDocs = 0;
+        for (PositionalIndex index : indexes) {
+            numDocs += index.numLiveDocs();
+            for (String term : index.terms())
+                docFreqs.merge(term, index.docFreq(term), Integer::sum);
+        }
+        String[] allTerms = docFreqs.keySet().toArray(String[]::new);
+        Arrays.sort(allTerms);
+
+        // Global doc ids: shard names are sorted, so merging them keeps each shard's ids in order
+        TreeMap<String, int[]> names = new TreeMap<>(); // name -> {shard, local id}
+        for (int s = 0; s < indexes.size(); s++) {
+            for (int doc = 0; doc < indexes.get(s).numDocs(); doc++) {
+                if (names.put(indexes.get(s).docName(doc), new int[] { s, doc }) != null)
+                    throw new IllegalArgumentException(indexes.get(s).docName(doc) + " is in more than one shard");
+            }
+        }
+        int[][] globalIds = new int[indexes.size()][];
+        for (int s = 0; s < indexes.size(); s++)
+            globalIds[s] = new int[indexes.get(s).numDocs()];
+        int globalId = 0;
+        for (int[] location : names.values())
+            globalIds[location[0]][location[1]] = globalId++;
+
+        shards = new Shard[indexes.size()];
+        List<Callable<Shard>> tasks = new ArrayList<>();
+        for (int s = 0; s < indexes.size(); s++) {
+            int shard = s, totalDocs = numDocs;
+            tasks.add(() -> new Shard(indexes.get(shard), globalIds[shard], totalDocs, docFreqs, allTerms));
+        }
+        List<Future<Shard>> built = pool.invokeAll(tasks);
+        for (int s = 0; s < shards.length; s++)
+            shards[s] = result(built.get(s));
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+
+    /**
+     * Top k documents of the query over all shards, best first, ties by global doc id.
+     * Throws IllegalArgumentException if the query does not parse.
+     */
+    public List<ScoredDoc> search(String query, int k) throws InterruptedException {
+        List<Future<List<ScoredDoc>>> results = new ArrayList<>(shards.length);
+        for (Shard shard : shards)
+            results.add(pool.submit(() -> new PhraseQuery(shard).search(query, k)));
+
+        List<ScoredDoc> merged = new ArrayList<>();
+        for (int s = 0; s < shards.length; s++) {
+            for (ScoredDoc scored : result(results.get(s)))
+                merged.add(new ScoredDoc(shards[s].globalIds[scored.doc()], scored.name(), scored.score()));
+        }
+        merged.sort(Comparator.comparingDouble(ScoredDoc::score).reversed().thenComparingInt(ScoredDoc::doc));
+        return merged.size() > k ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /** The value of a finished task, with the task's own runtime exception rethrown as is */
+    private static <T> T result(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime)
+                throw runtime;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * A shard seen through the global statistics. docFreq and numLiveDocs are the global ones,
+     * so the default idf and the query vector length are those of the unsharded index, and the
+     * norms are recomputed from the global idf, adding each doc's terms in term order as the
+     * index builders do. Doc ids, terms and postings stay the shard's own, except that a wildcard
+     * expands over the terms of all shards, so every shard scores the same query terms.
+     */
+    static final class Shard implements PositionalIndex {
+        private final PositionalIndex index;
+        private final int[] globalIds;
+        private final int numDocs;
+        private final Map<String, Integer> docFreqs;
+        private final String[] allTerms; // of every shard, sorted
+        private final double[] norms;
+        private final Map<String, Float> maxImpacts = new HashMap<>();
+
+        Shard(PositionalIndex index, int[] globalIds, int numDocs, Map<String, Integer> docFreqs, String[] allTerms) {
+            this.index = index;
+            this.globalIds = globalIds;
+            this.numDocs = numDocs;
+            this.docFreqs = docFreqs;
+            this.allTerms = allTerms;
+            double[] squaredNorms = new double[index.numDocs()];
+            for (String term : index.terms()) {
+                double idf = idf(term);
+                PostingsEnum postings = index.postings(term);
+                for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    double weight = TFIDFCalculator.tf_weight(postings.freq()) * idf;
+                    squaredNorms[doc] += weight * weight;
+                }
+            }
+            norms = new double[squaredNorms.length];
+            for (int doc = 0; doc < norms.length; doc++)
+                norms[doc] = Math.sqrt(squaredNorms[doc]);
+            for (String term : index.terms()) {
+                double idf = idf(term), max = 0;
+                PostingsEnum postings = index.postings(term);
+                for (int doc = postings.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (norms[doc] > 0)
+                        max = Math.max(max, TFIDFCalculator.tf_weight(postings.freq()) * idf / norms[doc]);
+                }
+                maxImpacts.put(term, Math.nextUp((float) max));
+            }
+        }
+
+        @Override
+        public int numDocs() {
+            return index.numDocs();
+        }
+
+        @Override
+        public int numLiveDocs() {
+            return numDocs;
+        }
+
+        @Override
+        public boolean isDeleted(int doc) {
+            return index.isDeleted(doc);
+        }
+
+        @Override
+        public DocIdSet liveDocs() {
+            return index.liveDocs();
+        }
+
+        @Override
+        public String docName(int doc) {
+            return index.docName(doc);
+        }
+
+        @Override
+        public int docId(String name) {
+            return index.docId(name);
+        }
+
+        @Override
+        public int numTerms() {
+            return index.numTerms();
+        }
+
+        @Override
+        public Iterable<String> terms() {
+            return index.terms();
+        }
+
+        @Override
+        public Iterable<String> terms(String prefix) {
+            return Wildcard.withPrefix(allTerms, prefix);
+        }
+
+        @Override
+        public int docFreq(String term) {
+            return docFreqs.getOrDefault(term, 0);
+        }
+
+        @Override
+        public PostingsEnum postings(String term) {
+            return index.postings(term);
+        }
+
+        @Override
+        public long postingsBytes() {
+            return index.postingsBytes();
+        }
+
+        @Override
+        public double docNorm(int doc) {
+            return norms[doc];
+        }
+
+        @Override
+        public double maxImpact(String term) {
+            return maxImpacts.getOrDefault(term, 0f);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int k = 10, threads = Runtime.getRuntime().availableProcessors();
+        String check = null;
+        List<PositionalIndex> indexes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-k" -> k = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--check" -> check = args[++i];
+                default -> indexes.add(TFIDFCalculator.openIndex(args[i]));
+            }
+        }
+        if (indexes.isEmpty()) {
+            System.err.println("Usage: java ShardedSearcher [-k n] [--threads n] [--check unsharded index] <shard index>...");
+            System.exit(2);
+        }
+        PhraseQuery unsharded = check == null ? null : new PhraseQuery(TFIDFCalculator.openIndex(check));
+
+        try (ShardedSearcher searcher = new ShardedSearcher(indexes, threads);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+            int queries = 0, mismatches = 0;
+            long shardedNanos = 0, unshardedNanos = 0;
+            for (String line; (line = reader.readLine()) != null;) {
+                if (line.isBlank())
+                    continue;
+                List<ScoredDoc> ranked, expected;
+                long start = System.nanoTime();
+                try {
+                    ranked = searcher.search(line, k);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid query: " + e.getMessage());
+                    continue;
+                }
+                shardedNanos += System.nanoTime() - start;
+                queries++;
+                if (unsharded == null) {
+                    System.out.println(line + ":");
+                    ranked.forEach(System.out::println);
+                    continue;
+                }
+                start = System.nanoTime();
+                expected = unsharded.search(line, k);
+                unshardedNanos += System.nanoTime() - start;
+                if (!ranked.equals(expected)) {
+                    mismatches++;
+                    System.out.printf("%s: expected %s, got %s%n", line, expected, ranked);
+                }
+            }
+            if (unsharded != null) {
+                System.out.printf("%d queries over %d shards, %d mismatches%n", queries, searcher.numShards(), mismatches);
+                if (queries > 0)
+                    System.out.printf("Mean latency: %.3f ms sharded, %.3f ms unsharded%n",
+                            shardedNanos / 1e6 / queries, unshardedNanos / 1e6 / queries);
+                if (mismatches > 0)
+                    System.exit(1);
+            }
+        }
+    }
+}
@@ -1,79 +1,95 @@
 import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
 
 public class TFIDFCalculator {
     public static void main(String[] args) throws FileNotFoundException, IOException {
-        String inputFile = "positional_index.txt";
-        //  term        doc     positions
-        Map<String, Map<String, List<Integer>>> positionalIndex = new HashMap<>();
-        //  doc         term    tf-idf
-        Map<String, Map<String, Double>> tfidfMatrix = new HashMap<>();
-        
-        // Read the positional index file
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\t");
-                if (parts.length < 2) continue;
-                
-                String term = parts[0];
-                String docDetails = parts[1];
-                String[] entries = docDetails.split(";");
-                for (String entry : entries) {
-                    // Extract document ID and positions
-                    Pattern pattern = Pattern.compile("(\\S+):\\s+(.+)");
-                    Matcher matcher = pattern.matcher(entry.trim());
-
-                    if (matcher.find()) {
-                        String docID = matcher.group(1);
-                        String[] positions = matcher.group(2).split(",\\s*");
-                        List<Integer> positionList = new ArrayList<>();
-                        for (String pos : positions) {
-                            positionList.add(Integer.parseInt(pos));
-                            }
-
-                        positionalIndex
-                            .computeIfAbsent(term, _ -> new HashMap<>())
-                            .putIfAbsent(docID, positionList);
-                        tfidfMatrix
-                            .putIfAbsent(docID, new HashMap<>());
-                    }
-                }
-            }
+        // Either the text output of Step1 or a binary index written by PositionalIndexConverter,
+        // -k n shows only the top n documents, --no-maxscore scores every match for them,
+        // --tables prints the frequency, IDF and tf-idf tables of a text index before the prompt,
+        // --batch <query file> <output file> runs a file of queries instead, see BatchSearcher,
+        // --impact answers the top n from impact-ordered postings, see ImpactQuery, --budget f
+        // stops those after a fraction f of the postings, --biwords <file or directory> matches exact
+        // phrases through the biwords-r-* output of the Step1 job, see BiwordIndex
+        String inputFile = "positional_index.txt", batchQueries = null, batchOutput = null, biwordFile = null;
+        int topK = 0, threads = Runtime.getRuntime().availableProcessors();
+        boolean maxScore = true, tables = false, check = false, impact = false;
+        double budget = 1.0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-k") && i + 1 < args.length)
+                topK = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--batch") && i + 2 < args.length) {
+                batchQueries = args[++i];
+                batchOutput = args[++i];
+            } else if (args[i].equals("--threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--check"))
+                check = true;
+            else if (args[i].equals("--biwords") && i + 1 < args.length)
+                biwordFile = args[++i];
+            else if (args[i].equals("--impact"))
+                impact = true;
+            else if (args[i].equals("--budget") && i + 1 < args.length)
+                budget = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--no-maxscore"))
+                maxScore = false;
+            else if (args[i].equals("--tables"))
+                tables = true;
+            else
+                inputFile = args[i];
         }
-        int totalDocuments = tfidfMatrix.keySet().size();
-
-        Map<String, Term> terms = new HashMap<>();
-        for (var entry : positionalIndex.entrySet()) {
-            var docFreqMap = entry.getValue(); // doc, positions
-            int docsContainingTerm = docFreqMap.size();
-            double IDF = Math.log10((double) totalDocuments / docsContainingTerm); // calculating IDF
-
-            var newTerm = new Term(entry.getKey(), IDF, entry.getValue());
-            terms.putIfAbsent(newTerm.getTermName(), newTerm);
-            tfidfMatrix = calcTermsTF_IDF(newTerm, tfidfMatrix);
+        PositionalIndex index;
+        if (MappedIndex.isIndexFile(Path.of(inputFile))) {
+            long start = System.nanoTime();
+            index = new MappedIndex(Path.of(inputFile));
+            System.out.printf("Opened %s in %.2f ms%n", index, (System.nanoTime() - start) / 1e6);
+        } else if (tables)
+            index = loadTextIndex(inputFile);
+        else {
+            long start = System.nanoTime();
+            index = buildCompactIndex(inputFile);
+            System.out.printf("Loaded %d terms, %d docs in %.2f ms%n", index.numTerms(), index.numDocs(),
+                    (System.nanoTime() - start) / 1e6);
         }
 
-        int[] columnWidths = new int[totalDocuments + 1];
-        Arrays.fill(columnWidths, 10);
-        columnWidths[0] = 15;
-
-        displayFrequences(terms.values(), tfidfMatrix.keySet(), columnWidths);
-        displayIDF(terms.values());
-        displayTF_IDF(terms.values(), tfidfMatrix.keySet(), columnWidths);
+        if (batchQueries != null) {
+            runBatch(index, batchQueries, batchOutput, topK > 0 ? topK : QueryServer.DEFAULT_K, threads, check);
+            return;
+        }
 
-        var query = new PhraseQuery(positionalIndex, tfidfMatrix, terms);
+        var query = new PhraseQuery(index);
+        query.setMaxScore(maxScore);
+        if (biwordFile != null) {
+            long start = System.nanoTime();
+            BiwordIndex biwords = BiwordIndex.load(Path.of(biwordFile), index, 0);
+            System.out.printf("Loaded %d biwords in %.2f ms%n", biwords.numBiwords(), (System.nanoTime() - start) / 1e6);
+            query.setBiwords(biwords);
+        }
+        ImpactQuery impactQuery = null;
+        if (impact) {
+            if (topK == 0)
+                topK = QueryServer.DEFAULT_K; // impact order only ranks a top k
+            long start = System.nanoTime();
+            ImpactIndex impacts = ImpactIndex.build(index, ForkJoinPool.commonPool());
+            System.out.printf("Built impact-ordered postings, %d segments, in %.2f ms%n", impacts.numSegments(),
+                    (System.nanoTime() - start) / 1e6);
+            impactQuery = new ImpactQuery(index, impacts);
+            impactQuery.setBudget(budget);
+        }
         Scanner scanner = new Scanner(System.in);
         System.out.println("Enter phrase query, or press CTRL + Z to exit.");
 
         System.out.print("Enter query: ");
         while (scanner.hasNextLine()) { // Reads until EOF
             String queryStr = scanner.nextLine();
-            // var res =
-            query.search(queryStr);
-            // res.forEach(r -> System.out.println(r));
+            if (impactQuery != null)
+                printTopK(impactQuery::search, queryStr, topK);
+            else if (topK > 0)
+                printTopK(query::search, queryStr, topK);
+            else
+                query.search(queryStr);
             
             System.out.println("----------------------------------------");
             System.out.print("Enter query: ");
@@ -81,85 +97,168 @@ public class TFIDFCalculator {
         scanner.close();
     }
 
-    static void displayFrequences(Collection<Term> terms, Set<String> docsIDs, int[] columnWidths){
-        String[] docsIDsSorted = docsIDs.toArray(String[]::new);
-        Arrays.sort(docsIDsSorted);
-        
-        System.out.print(padString("Term", columnWidths[0]));
-        for (int i=0; i < docsIDsSorted.length; i++){
-            System.out.print(padString(docsIDsSorted[i], columnWidths[i+1]));
+    /** Open a binary index in place or load a text index, without displaying any tables */
+    static PositionalIndex openIndex(String inputFile) throws IOException {
+        if (MappedIndex.isIndexFile(Path.of(inputFile)))
+            return new MappedIndex(Path.of(inputFile));
+        return buildCompactIndex(inputFile);
+    }
+
+    /** Run a query file through a BatchSearcher and print the throughput */
+    static void runBatch(PositionalIndex index, String queryFile, String outputFile, int k, int threads, boolean check)
+            throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            BatchSearcher searcher = new BatchSearcher(index, pool, k);
+            searcher.setCheck(check);
+            BatchSearcher.Stats stats = searcher.run(Path.of(queryFile), Path.of(outputFile));
+            System.out.printf("%d queries (%d invalid) in %d batches on %d threads: %.2f s, %.0f queries/s%n",
+                    stats.queries(), stats.invalid(), stats.batches(), threads, stats.seconds(), stats.queriesPerSecond());
+            System.out.printf("%d posting lists decoded (%d postings) for %d requests%n", stats.listsDecoded(),
+                    stats.postingsDecoded(), stats.listsRequested());
+            if (check)
+                System.out.printf("One at a time: %.2f s, %.0f queries/s, %d mismatches%n", stats.checkSeconds(),
+                        stats.queries() / stats.checkSeconds(), stats.mismatches());
+            System.out.println("Wrote " + outputFile);
+        } finally {
+            pool.shutdown();
         }
-        System.out.println();
-        
-        boolean flag = true;
-        for (Term term : terms) {
-            System.out.print(padString(term.getTermName(), columnWidths[0]));
-            for (String docID : docsIDsSorted) {
-                int i = 1;
-                for (var entry : term.getDocFreq().entrySet()) {
-                    if (docID.equals(entry.getKey())){
-                        System.out.print(padString(entry.getValue().size() + "", columnWidths[i++]));
-                        flag = false;
-                        break;
-                    }
-                }
-                if (flag)
-                    System.out.print(padString("0", columnWidths[i++]));
+    }
 
-                flag = true;
+    /** Print the top k documents of a query */
+    static void printTopK(BiFunction<String, Integer, List<ScoredDoc>> search, String queryStr, int k) {
+        try {
+            List<ScoredDoc> ranked = search.apply(queryStr, k);
+            if (ranked.isEmpty())
+                System.out.println("There is no documents returned!");
+            else {
+                System.out.println("Top " + ranked.size() + " Documents:");
+                ranked.forEach(System.out::println);
             }
-            System.out.println();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid query: " + e.getMessage());
         }
     }
 
-    static void displayIDF(Collection<Term> terms){
-        for (Term term : terms) {
-            System.out.printf("%s\t%.4f\n", term.getTermName(), term.getIDF());
+    /** Load the text positional index and display its matrices */
+    static PositionalIndex loadTextIndex(String inputFile) throws FileNotFoundException, IOException {
+        CompactIndex index = buildCompactIndex(inputFile);
+
+        int[] columnWidths = new int[index.numDocs() + 1];
+        Arrays.fill(columnWidths, 10);
+        columnWidths[0] = 15;
+
+        displayFrequences(index, columnWidths);
+        displayIDF(index);
+        displayTF_IDF(index, columnWidths);
+
+        return index;
+    }
+
+    /** Read the positional index file into a CompactIndex, parsing and packing on every core */
+    static CompactIndex buildCompactIndex(String inputFile) throws FileNotFoundException, IOException {
+        return ParallelIndexLoader.load(inputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parse one "term\tdoc: p1,p2; doc2: p1" line into the builder without regex or split.
+     * Returns the positions buffer, which grows for documents with many positions.
+     */
+    static int[] parseLine(String line, CompactIndex.Builder builder, int[] positions) {
+        int tab = line.indexOf('\t');
+        if (tab < 0)
+            return positions;
+        String term = line.substring(0, tab);
+
+        int i = tab + 1, length = line.length();
+        while (i < length) {
+            int colon = line.indexOf(':', i);
+            if (colon < 0)
+                break;
+            String docID = line.substring(i, colon).trim();
+
+            int count = 0, value = 0;
+            boolean inNumber = false;
+            for (i = colon + 1; i < length && line.charAt(i) != ';'; i++) {
+                char c = line.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    inNumber = true;
+                } else if (c == ',' && inNumber) {
+                    if (count == positions.length)
+                        positions = Arrays.copyOf(positions, count * 2);
+                    positions[count++] = value;
+                    value = 0;
+                    inNumber = false;
+                }
+            }
+            if (inNumber) {
+                if (count == positions.length)
+                    positions = Arrays.copyOf(positions, count * 2);
+                positions[count++] = value;
+            }
+            if (count > 0) {
+                Arrays.sort(positions, 0, count);
+                builder.add(term, docID, positions, count);
+            }
+            i++; // skip ';'
         }
+        return positions;
     }
 
-    static void displayTF_IDF(Collection<Term> terms, Set<String> docsIDs, int[] columnWidths){
-        String[] docsIDsSorted = docsIDs.toArray(String[]::new);
-        Arrays.sort(docsIDsSorted);
+    static void displayFrequences(PositionalIndex index, int[] columnWidths){
+        printHeader(index, columnWidths);
+        int[] frequencies = new int[index.numDocs()];
+        for (String term : index.terms()) {
+            Arrays.fill(frequencies, 0);
+            var postings = index.postings(term);
+            for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc())
+                frequencies[doc] = postings.freq();
 
-        System.out.print(padString("Term", columnWidths[0]));
-        for (int i=0; i < docsIDsSorted.length; i++){
-            System.out.print(padString(docsIDsSorted[i], columnWidths[i+1]));
+            System.out.print(padString(term, columnWidths[0]));
+            for (int doc = 0; doc < frequencies.length; doc++)
+                System.out.print(padString(frequencies[doc] + "", columnWidths[doc + 1]));
+            System.out.println();
         }
-        System.out.println();
-        
-        boolean flag = true;
-        for (Term term : terms) {
-            System.out.print(padString(term.getTermName(), columnWidths[0]));
-            for (String docID : docsIDsSorted) {
-                int i = 1;
-                for (var entry : term.getDocFreq().entrySet()) {
-                    if (docID.equals(entry.getKey())){
-                        double TF_DIF = tf_weight(entry.getValue().size()) * term.getIDF();
-                        System.out.print(padString(String.format("%.4f", TF_DIF), columnWidths[i++]));
-                        flag = false;
-                        break;
-                    }
-                }
-                if (flag)
-                    System.out.print(padString("0", columnWidths[i++]));
+    }
+
+    static void displayIDF(PositionalIndex index){
+        for (String term : index.terms()) {
+            System.out.printf("%s\t%.4f\n", term, index.idf(term));
+        }
+    }
 
-                flag = true;
+    static void displayTF_IDF(PositionalIndex index, int[] columnWidths){
+        printHeader(index, columnWidths);
+        double[] weights = new double[index.numDocs()];
+        for (String term : index.terms()) {
+            Arrays.fill(weights, Double.NaN); // NaN marks documents without the term
+            double idf = index.idf(term);
+            var postings = index.postings(term);
+            for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc())
+                weights[doc] = tf_weight(postings.freq()) * idf;
+
+            System.out.print(padString(term, columnWidths[0]));
+            for (int doc = 0; doc < weights.length; doc++) {
+                String cell = Double.isNaN(weights[doc]) ? "0" : String.format("%.4f", weights[doc]);
+                System.out.print(padString(cell, columnWidths[doc + 1]));
             }
             System.out.println();
         }
     }
 
-    /** Method to calculate tf-idf weight for each term being sent */
-    static Map<String, Map<String, Double>> calcTermsTF_IDF(Term term, Map<String, Map<String, Double>> appendMap){
-        for (var docsContainingTerm : term.getDocFreq().entrySet()) {
-            double TF_DIF = tf_weight(docsContainingTerm.getValue().size()) * term.getIDF();
-            appendMap
-                .computeIfAbsent(docsContainingTerm.getKey(), _ -> new HashMap<>())
-                .putIfAbsent(term.getTermName(), TF_DIF);
+    /** Print the "Term doc1 doc2 ..." header, doc ids are in sorted name order */
+    private static void printHeader(PositionalIndex index, int[] columnWidths) {
+        System.out.print(padString("Term", columnWidths[0]));
+        for (int doc = 0; doc < index.numDocs(); doc++) {
+            System.out.print(padString(index.docName(doc), columnWidths[doc + 1]));
         }
-        
-        return appendMap;
+        System.out.println();
+    }
+
+    /** Inverse document frequency of a term contained in docsContainingTerm of totalDocuments */
+    public static double idf(int totalDocuments, int docsContainingTerm) {
+        return Math.log10((double) totalDocuments / docsContainingTerm);
     }
 
     /** logarithmically weighted term frequency */
@@ -176,4 +275,4 @@ public class TFIDFCalculator {
 
         return String.format("%-" + width + "s", str); // Left-align padding
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,303 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable sorted set of terms in one direct ByteBuffer, outside the Java heap, mapping each
+ * term to its ordinal, the rank in unsigned UTF-8 byte order. The index keeps its per-term
+ * arrays (the start of the postings, max impacts) by ordinal, so no String or map entry per
+ * term is left on the heap.
+ *
+ * Terms are front coded in blocks of BLOCK_TERMS: the first term of a block is written whole,
+ * every other term as the length of the prefix it shares with the term before it and the bytes
+ * that follow. A lookup binary searches the first terms through the block offsets at the end of
+ * the buffer, then scans one block. Layout, vint = 7 bits per byte, low bits first:
+ * <pre>
+ * blocks  vint length, bytes                        first term
+ *         (vint shared, vint suffix length, bytes)* the others
+ * index   int offset of every block
+ * </pre>
+ * The buffer is only read with absolute gets, so one instance can be shared between threads.
+ */
+public final class TermDictionary implements Iterable<String> {
+    static final int BLOCK_TERMS = 16;
+
+    private final ByteBuffer bytes;
+    private final int size, blockCount, indexOffset;
+
+    private TermDictionary(ByteBuffer bytes, int size, int blockCount, int indexOffset) {
+        this.bytes = bytes;
+        this.size = size;
+        this.blockCount = blockCount;
+        this.indexOffset = indexOffset;
+    }
+
+    /** Terms as UTF-8, distinct and sorted unsigned byte by byte, see sort */
+    public static TermDictionary build(byte[][] terms) {
+        int blockCount = (terms.length + BLOCK_TERMS - 1) / BLOCK_TERMS;
+        long length = 4L * blockCount;
+        for (int t = 0; t < terms.length; t++) {
+            if (t > 0 && Arrays.compareUnsigned(terms[t - 1], terms[t]) >= 0)
+                throw new IllegalArgumentException("Terms are not sorted and distinct at " + t);
+            int shared = t % BLOCK_TERMS == 0 ? 0 : sharedPrefix(terms[t - 1], terms[t]);
+            if (t % BLOCK_TERMS != 0)
+                length += vintSize(shared);
+            length += vintSize(terms[t].length - shared) + terms[t].length - shared;
+        }
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalStateException("Terms exceed 2 GB");
+
+        ByteBuffer bytes = ByteBuffer.allocateDirect((int) length);
+        int[] offsets = new int[blockCount];
+        for (int t = 0; t < terms.length; t++) {
+            int shared = 0;
+            if (t % BLOCK_TERMS == 0)
+                offsets[t / BLOCK_TERMS] = bytes.position();
+            else {
+                shared = sharedPrefix(terms[t - 1], terms[t]);
+                putVInt(bytes, shared);
+            }
+            putVInt(bytes, terms[t].length - shared);
+            bytes.put(terms[t], shared, terms[t].length - shared);
+        }
+        int indexOffset = bytes.position();
+        for (int offset : offsets)
+            bytes.putInt(offset);
+        return new TermDictionary(bytes, terms.length, blockCount, indexOffset);
+    }
+
+    /** The UTF-8 bytes of the terms in the order build expects */
+    public static byte[][] sort(Iterable<String> terms) {
+        return StreamSupport.stream(terms.spliterator(), false)
+                .map(term -> term.getBytes(StandardCharsets.UTF_8)).sorted(Arrays::compareUnsigned)
+                .toArray(byte[][]::new);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Bytes of the buffer, all of it off the heap */
+    public long sizeInBytes() {
+        return bytes.capacity();
+    }
+
+    /** Ordinal of the term, -1 if it is not in the dictionary */
+    public int ordinal(String term) {
+        int found = find(term.getBytes(StandardCharsets.UTF_8));
+        return found < 0 ? -1 : found;
+    }
+
+    /** Ordinal of the first term not less than the key, size() if there is none */
+    public int ceiling(byte[] key) {
+        int found = find(key);
+        return found < 0 ? -found - 1 : found;
+    }
+
+    /** The ordinal of the key if it is a term, else -(ceiling) - 1, as Arrays.binarySearch */
+    private int find(byte[] key) {
+        if (size == 0)
+            return -1;
+        // The last block whose first term is not greater than the key
+        int low = 0, high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (compareFirst(middle, key) <= 0)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return scan(low, key);
+    }
+
+    /** The term of an ordinal */
+    public String term(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException(ordinal);
+        Decoder decoder = new Decoder(ordinal / BLOCK_TERMS);
+        for (int skip = ordinal % BLOCK_TERMS; skip > 0; skip--)
+            decoder.next();
+        return decoder.next();
+    }
+
+    /** All terms in order */
+    @Override
+    public Iterator<String> iterator() {
+        return iterator(0);
+    }
+
+    /** The terms from an ordinal on, decoded one after the other */
+    public Iterator<String> iterator(int from) {
+        return new Iterator<String>() {
+            final Decoder decoder = from < size ? new Decoder(from / BLOCK_TERMS) : null;
+            int next = from;
+
+            {
+                if (decoder != null)
+                    for (int skip = from % BLOCK_TERMS; skip > 0; skip--)
+                        decoder.next();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public String next() {
+                if (next >= size)
+                    throw new NoSuchElementException();
+                next++;
+                return decoder.next();
+            }
+        };
+    }
+
+    /** The terms that start with prefix, in order */
+    public Iterable<String> withPrefix(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int from = ceiling(key);
+        return () -> new Iterator<String>() {
+            final Iterator<String> terms = iterator(from);
+            String next = advance();
+
+            private String advance() {
+                if (!terms.hasNext())
+                    return null;
+                String term = terms.next();
+                return term.startsWith(prefix) ? term : null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                String term = next;
+                next = advance();
+                return term;
+            }
+        };
+    }
+
+    /**
+     * Scan a block for the first term not less than key without decoding the terms: matched is
+     * how many bytes the previous term shares with the key. A term that shares fewer bytes with
+     * the previous one than that is greater than the key, one that shares more is still smaller,
+     * and only one that shares exactly matched bytes needs its suffix compared. Returns as find.
+     */
+    private int scan(int block, byte[] key) {
+        int pos = blockOffset(block);
+        int end = Math.min(size, (block + 1) * BLOCK_TERMS);
+        int matched = 0;
+        for (int ordinal = block * BLOCK_TERMS; ordinal < end; ordinal++) {
+            int shared = 0;
+            if (ordinal > block * BLOCK_TERMS) {
+                long vint = getVInt(pos);
+                shared = (int) vint;
+                pos = (int) (vint >>> 32);
+            }
+            long vint = getVInt(pos);
+            int suffix = (int) vint;
+            pos = (int) (vint >>> 32);
+            if (shared < matched)
+                return -ordinal - 1;
+            if (shared == matched) {
+                int i = 0;
+                while (i < suffix && shared + i < key.length && bytes.get(pos + i) == key[shared + i])
+                    i++;
+                matched = shared + i;
+                if (i == suffix) {
+                    if (matched == key.length)
+                        return ordinal; // equal
+                } else if (matched == key.length || Byte.compareUnsigned(bytes.get(pos + i), key[matched]) > 0)
+                    return -ordinal - 1;
+            }
+            pos += suffix;
+        }
+        return -end - 1; // the first term of the next block is greater, or there is none
+    }
+
+    private int compareFirst(int block, byte[] key) {
+        int pos = blockOffset(block);
+        long vint = getVInt(pos);
+        return compareBytes((int) (vint >>> 32), (int) vint, key);
+    }
+
+    private int compareBytes(int pos, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.compareUnsigned(bytes.get(pos + i), key[i]);
+            if (cmp != 0)
+                return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private int blockOffset(int block) {
+        return bytes.getInt(indexOffset + 4 * block);
+    }
+
+    /** The vint at pos in the low 32 bits and the position after it in the high ones */
+    private long getVInt(int pos) {
+        byte b = bytes.get(pos++);
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = bytes.get(pos++);
+            value |= (b & 0x7F) << shift;
+        }
+        return (long) pos << 32 | value & 0xFFFFFFFFL;
+    }
+
+    /** Decodes the terms of a block and the blocks after it, one by one */
+    private class Decoder {
+        private byte[] term = new byte[32];
+        private int length, pos, inBlock;
+
+        Decoder(int block) {
+            pos = blockOffset(block);
+        }
+
+        String next() {
+            int shared = 0;
+            if (inBlock++ % BLOCK_TERMS != 0) {
+                long vint = getVInt(pos);
+                shared = (int) vint;
+                pos = (int) (vint >>> 32);
+            }
+            long vint = getVInt(pos);
+            int suffix = (int) vint;
+            pos = (int) (vint >>> 32);
+            if (shared + suffix > term.length)
+                term = Arrays.copyOf(term, Math.max(shared + suffix, term.length * 2));
+            bytes.get(pos, term, shared, suffix);
+            pos += suffix;
+            length = shared + suffix;
+            return new String(term, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int sharedPrefix(byte[] a, byte[] b) {
+        int mismatch = Arrays.mismatch(a, b);
+        return mismatch < 0 ? a.length : Math.min(mismatch, Math.min(a.length, b.length));
+    }
+
+    private static int vintSize(int value) {
+        return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+    }
+
+    private static void putVInt(ByteBuffer bytes, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        bytes.put((byte) value);
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * A size-bounded LRU map with TinyLFU admission. Every lookup counts the key in a count-min
+ * sketch of recent key frequencies, whether it hits or not. When a new entry does not fit,
+ * it is only admitted if its key has been asked for more often than each of the least
+ * recently used entries it would push out, so a burst of one-off keys cannot flush the
+ * popular ones, and nothing is evicted for an entry that is rejected. The counters are halved
+ * every sampleSize lookups, so old popularity fades.
+ *
+ * Not thread-safe, the owner guards it.
+ */
+public class TinyLfuCache<K, V> {
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true); // LRU first
+    private final byte[][] sketch;
+    private final int mask, sampleSize;
+    private int lookups;
+    private long weight, hits, misses, evictions, rejections;
+
+    /** Statistics since the cache was created, weight and entries are the current ones */
+    public record Stats(long hits, long misses, long evictions, long rejections, int entries, long weight) {
+        public double hitRate() {
+            return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+        }
+    }
+
+    /**
+     * @param maxWeight    the total weight of the entries is kept at or below this
+     * @param weigher      weight of a value, for example 1 to bound the number of entries
+     * @param expectedKeys about how many distinct keys are worth telling apart, sizes the sketch
+     */
+    public TinyLfuCache(long maxWeight, ToLongFunction<V> weigher, int expectedKeys) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        int width = Integer.highestOneBit(Math.max(64, Math.min(expectedKeys, 1 << 24)) * 2 - 1);
+        sketch = new byte[ROWS][width];
+        mask = width - 1;
+        sampleSize = width * 10;
+    }
+
+    /** The cached value, null on a miss. Either way the lookup counts towards the key's frequency */
+    public V get(K key) {
+        increment(key);
+        V value = entries.get(key);
+        if (value == null)
+            misses++;
+        else
+            hits++;
+        return value;
+    }
+
+    /** Estimated number of recent lookups of the key */
+    public int frequency(K key) {
+        int hash = spread(key.hashCode()), min = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++)
+            min = Math.min(min, sketch[row][index(hash, row)]);
+        return min;
+    }
+
+    /** Cache the value, returns false if it was not admitted */
+    public boolean put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        V previous = entries.remove(key);
+        if (previous != null)
+            weight -= weigher.applyAsLong(previous);
+        if (valueWeight > maxWeight) {
+            rejections++;
+            return false;
+        }
+        // Find the least recently used entries the value needs the room of, evict them only if it is admitted
+        int frequency = frequency(key);
+        long freed = 0;
+        int victims = 0;
+        Iterator<Map.Entry<K, V>> lru = entries.entrySet().iterator();
+        while (weight - freed + valueWeight > maxWeight) {
+            Map.Entry<K, V> victim = lru.next();
+            if (previous == null && frequency <= frequency(victim.getKey())) {
+                rejections++;
+                return false;
+            }
+            freed += weigher.applyAsLong(victim.getValue());
+            victims++;
+        }
+        lru = entries.entrySet().iterator();
+        for (int i = 0; i < victims; i++) {
+            lru.next();
+            lru.remove();
+        }
+        weight -= freed;
+        evictions += victims;
+        entries.put(key, value);
+        weight += valueWeight;
+        return true;
+    }
+
+    /** Drop every entry, the frequencies are kept */
+    public void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public Stats stats() {
+        return new Stats(hits, misses, evictions, rejections, entries.size(), weight);
+    }
+
+    private void increment(K key) {
+        int hash = spread(key.hashCode());
+        for (int row = 0; row < ROWS; row++) {
+            int i = index(hash, row);
+            if (sketch[row][i] < MAX_COUNT)
+                sketch[row][i]++;
+        }
+        if (++lookups == sampleSize) {
+            for (byte[] counters : sketch) {
+                for (int i = 0; i < counters.length; i++)
+                    counters[i] >>= 1;
+            }
+            lookups = 0;
+        }
+    }
+
+    /** Column of the key in a row, each row mixes the hash with its own odd constant */
+    private int index(int hash, int row) {
+        int h = hash * (0x9E3779B9 + 2 * row * 0x632BE5AB);
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+}
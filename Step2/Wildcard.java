@@ -0,0 +1,203 @@
+import java.util.*;
+
+/**
+ * Query terms with wildcards: * matches any run of characters, ? exactly one. A pattern is
+ * expanded to the index terms it matches, found among the terms that start with its literal
+ * prefix, so "caes*" reads one range of the dictionary while "*ar" has to scan all of it.
+ * In a phrase the matching terms are one position, their postings merged by UnionPostings.
+ */
+final class Wildcard {
+    /** More matching terms than this is an error rather than a slow query */
+    static final int MAX_EXPANSIONS = 1024;
+
+    private Wildcard() {
+    }
+
+    static boolean isPattern(String word) {
+        return word.indexOf('*') >= 0 || word.indexOf('?') >= 0;
+    }
+
+    /**
+     * The pattern of a query word, lowercased with everything but letters, digits and the
+     * wildcards dropped, as the Analyzer drops punctuation. Wildcard words are not stemmed and
+     * never stopwords. Empty if the word has no letter or digit, so a lone "?" stays punctuation.
+     */
+    static String normalize(String word) {
+        StringBuilder pattern = new StringBuilder(word.length());
+        boolean literal = false;
+        for (int i = 0; i < word.length();) {
+            int c = word.codePointAt(i);
+            i += Character.charCount(c);
+            if (Character.isLetterOrDigit(c)) {
+                pattern.appendCodePoint(Character.toLowerCase(c));
+                literal = true;
+            } else if (c == '*' || c == '?')
+                pattern.appendCodePoint(c);
+        }
+        return literal ? pattern.toString() : "";
+    }
+
+    /** The part before the first wildcard */
+    static String prefix(String pattern) {
+        int i = 0;
+        while (i < pattern.length() && pattern.charAt(i) != '*' && pattern.charAt(i) != '?')
+            i++;
+        return pattern.substring(0, i);
+    }
+
+    /** Glob match by code point, backtracking to the last * */
+    static boolean matches(String pattern, String term) {
+        int p = 0, t = 0, star = -1, resume = 0;
+        while (t < term.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = ++p;
+                resume = t;
+            } else if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.codePointAt(p) == term.codePointAt(t))) {
+                t += Character.charCount(term.codePointAt(t));
+                p += pattern.charAt(p) == '?' ? 1 : Character.charCount(pattern.codePointAt(p));
+            } else if (star >= 0) {
+                p = star;
+                resume += Character.charCount(term.codePointAt(resume));
+                t = resume;
+            } else
+                return false;
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*')
+            p++;
+        return p == pattern.length();
+    }
+
+    /**
+     * The index terms matching a pattern, sorted, so every index expands a pattern the same way.
+     * Throws IllegalArgumentException past MAX_EXPANSIONS.
+     */
+    static List<String> expand(PositionalIndex index, String pattern) {
+        List<String> terms = new ArrayList<>();
+        for (String term : index.terms(prefix(pattern))) {
+            if (matches(pattern, term)) {
+                if (terms.size() == MAX_EXPANSIONS)
+                    throw new IllegalArgumentException(pattern + " matches more than " + MAX_EXPANSIONS + " terms");
+                terms.add(term);
+            }
+        }
+        Collections.sort(terms);
+        return terms;
+    }
+
+    /** The postings of a term, or of the terms a pattern matches merged into one; null if none */
+    static PostingsEnum postings(PositionalIndex index, String term) {
+        if (!isPattern(term))
+            return index.postings(term);
+        List<PostingsEnum> postings = new ArrayList<>();
+        for (String match : expand(index, term)) {
+            PostingsEnum matchPostings = index.postings(match);
+            if (matchPostings != null)
+                postings.add(matchPostings);
+        }
+        return postings.isEmpty() ? null : postings.size() == 1 ? postings.get(0) : new UnionPostings(postings);
+    }
+
+    /** docFreq of a term, or an upper bound for a pattern: the sum over its terms, at most the live docs */
+    static int docFreq(PositionalIndex index, String term) {
+        if (!isPattern(term))
+            return index.docFreq(term);
+        long sum = 0;
+        for (String match : expand(index, term))
+            sum += index.docFreq(match);
+        return (int) Math.min(sum, index.numLiveDocs());
+    }
+
+    /** The terms of a sorted array that start with prefix, for indexes that keep their terms that way */
+    static List<String> withPrefix(String[] sortedTerms, String prefix) {
+        int from = Arrays.binarySearch(sortedTerms, prefix);
+        if (from < 0)
+            from = -from - 1;
+        int to = from;
+        while (to < sortedTerms.length && sortedTerms[to].startsWith(prefix))
+            to++;
+        return Arrays.asList(sortedTerms).subList(from, to);
+    }
+
+    /**
+     * The docs of several postings, kept in a heap on their current doc. Positions are only
+     * collected from the postings on the doc when asked for, then sorted, so a doc-only caller
+     * decodes none. A position holds one term, so the merged positions are distinct.
+     */
+    private static final class UnionPostings implements PostingsEnum {
+        private final PostingsEnum[] heap;
+        private int size, doc = -1, freq = -1, next;
+        private int[] positions = new int[8];
+
+        UnionPostings(List<PostingsEnum> postings) {
+            heap = postings.toArray(PostingsEnum[]::new);
+            size = heap.length; // all at -1, already a heap
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc == NO_MORE_DOCS ? doc : advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target)
+                return doc;
+            while (size > 0 && heap[0].docID() < target) {
+                if (heap[0].advance(target) == NO_MORE_DOCS)
+                    heap[0] = heap[--size];
+                siftDown(0);
+            }
+            freq = -1;
+            return doc = size == 0 ? NO_MORE_DOCS : heap[0].docID();
+        }
+
+        @Override
+        public int freq() {
+            if (freq < 0) {
+                freq = 0;
+                collect(0);
+                Arrays.sort(positions, 0, freq);
+                next = 0;
+            }
+            return freq;
+        }
+
+        @Override
+        public int nextPosition() {
+            freq();
+            return positions[next++];
+        }
+
+        /** Add the positions of the postings on doc in the subtree under i */
+        private void collect(int i) {
+            if (i >= size || heap[i].docID() != doc)
+                return;
+            PostingsEnum postings = heap[i];
+            int count = postings.freq();
+            if (freq + count > positions.length)
+                positions = Arrays.copyOf(positions, Math.max(freq + count, positions.length * 2));
+            for (int p = 0; p < count; p++)
+                positions[freq++] = postings.nextPosition();
+            collect(2 * i + 1);
+            collect(2 * i + 2);
+        }
+
+        private void siftDown(int i) {
+            PostingsEnum postings = heap[i];
+            for (int child = 2 * i + 1; child < size; child = 2 * i + 1) {
+                if (child + 1 < size && heap[child + 1].docID() < heap[child].docID())
+                    child++;
+                if (heap[child].docID() >= postings.docID())
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = postings;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The term-at-a-time scores of ScoreAccumulator must be the same bits as the per-document
+ * cosine scores PhraseQuery computed before it, for every match of every query.
+ */
+class ScoreAccumulatorTest {
+    private static final String[] DOCS = {
+            "antony and cleopatra brutus caeser",
+            "julius caeser brutus killed caeser in the capitol",
+            "the tempest mercy worser fools rush in",
+            "hamlet brutus angels fear to tread where fools rush in",
+            "caeser brutus calpurnia antony antony antony",
+            "fools rush in where angels fear to tread the",
+            "worser mercy and the tempest the the",
+    };
+
+    private static final List<String> QUERIES = List.of(
+            "brutus", "caeser", "the", "antony antony", "fools rush in", "\"fools in\"~2",
+            "brutus or caeser", "brutus and caeser", "caeser and not calpurnia", "(antony or mercy) and not the",
+            "caes* or ang*", "\"fool* rush\"", "hamlet or tempest or worser or fools", "unknown or brutus",
+            "brutus brutus caeser", "the or in");
+
+    private static PositionalIndex index;
+
+    @BeforeAll
+    static void buildIndex() {
+        CompactIndex.Builder builder = new CompactIndex.Builder();
+        for (int d = 0; d < DOCS.length; d++) {
+            String[] words = DOCS[d].split(" ");
+            for (int i = 0; i < words.length; i++) {
+                boolean first = true;
+                for (int j = 0; j < i; j++)
+                    first &= !words[j].equals(words[i]);
+                if (!first)
+                    continue; // a term is added once per doc, with all of its positions
+                int[] positions = new int[words.length];
+                int count = 0;
+                for (int j = i; j < words.length; j++) {
+                    if (words[j].equals(words[i]))
+                        positions[count++] = j;
+                }
+                builder.add(words[i], (d + 1) + ".txt", positions, count);
+            }
+        }
+        index = builder.build();
+    }
+
+    @Test
+    void scoresMatchPerDocumentScores() {
+        PhraseQuery query = new PhraseQuery(index);
+        ScoreAccumulator accumulator = new ScoreAccumulator(index);
+        int scored = 0;
+        for (String text : QUERIES) {
+            Map<Integer, Double> expected = query.perDocumentScores(text);
+            accumulator.accumulate(query.queryTerms(text));
+            for (var entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), accumulator.score(entry.getKey()),
+                        text + " in " + index.docName(entry.getKey()));
+                scored++;
+            }
+        }
+        assertTrue(scored > QUERIES.size(), "the queries should match documents");
+    }
+
+    @Test
+    void searchRanksByPerDocumentScores() {
+        PhraseQuery query = new PhraseQuery(index);
+        for (String text : QUERIES) {
+            Map<Integer, Double> expected = query.perDocumentScores(text);
+            List<ScoredDoc> ranked = query.search(text, DOCS.length);
+            assertEquals(expected.size(), ranked.size(), text);
+            for (ScoredDoc doc : ranked)
+                assertEquals(expected.get(doc.doc()), doc.score(), text + " in " + doc.name());
+        }
+    }
+
+    /** Terms in every doc have idf 0, so the query vector has length 0 and every match scores 0 */
+    @Test
+    void termsInEveryDocScoreZero() {
+        CompactIndex.Builder builder = new CompactIndex.Builder();
+        for (int d = 0; d < 5; d++) {
+            builder.add("a", d + ".txt", new int[] {0}, 1);
+            builder.add("b", d + ".txt", new int[] {1}, 1);
+            if (d % 2 == 0)
+                builder.add("c", d + ".txt", new int[] {2}, 1);
+        }
+        PositionalIndex everyDoc = builder.build();
+        PhraseQuery query = new PhraseQuery(everyDoc);
+        ImpactQuery impact = new ImpactQuery(everyDoc, ImpactIndex.build(everyDoc, null));
+        for (String text : List.of("\"a b\"", "b or a", "a", "a and not c")) {
+            Map<Integer, Double> expected = query.perDocumentScores(text);
+            assertFalse(expected.isEmpty(), text);
+            for (double score : expected.values())
+                assertEquals(0.0, score, text);
+            for (List<ScoredDoc> ranked : List.of(query.search(text, 3), impact.search(text, 3))) {
+                assertEquals(Math.min(3, expected.size()), ranked.size(), text);
+                for (ScoredDoc doc : ranked)
+                    assertEquals(0.0, doc.score(), text + " in " + doc.name());
+            }
+        }
+    }
+}
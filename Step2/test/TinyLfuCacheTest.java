@@ -0,0 +1,42 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TinyLfuCacheTest {
+    @Test
+    void rejectedEntryEvictsNothing() {
+        TinyLfuCache<String, Long> cache = new TinyLfuCache<>(10, Long::longValue, 64);
+        cache.put("cold", 4L);
+        cache.put("hot", 4L);
+        for (int i = 0; i < 5; i++)
+            cache.get("hot");
+        cache.get("new");
+        cache.get("new");
+
+        // "new" beats "cold", the least recently used, but not "hot", which it also needs the room of
+        assertFalse(cache.put("new", 8L));
+        assertEquals(4L, cache.get("cold"));
+        assertEquals(4L, cache.get("hot"));
+        TinyLfuCache.Stats stats = cache.stats();
+        assertEquals(0, stats.evictions());
+        assertEquals(1, stats.rejections());
+        assertEquals(8, stats.weight());
+    }
+
+    @Test
+    void admittedEntryEvictsJustEnough() {
+        TinyLfuCache<String, Long> cache = new TinyLfuCache<>(10, Long::longValue, 64);
+        cache.put("a", 3L);
+        cache.put("b", 3L);
+        cache.put("c", 3L);
+        for (int i = 0; i < 3; i++)
+            cache.get("d");
+
+        assertTrue(cache.put("d", 5L));
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(3L, cache.get("c"));
+        assertEquals(2, cache.stats().evictions());
+        assertEquals(8, cache.stats().weight());
+    }
+}
@@ -0,0 +1,191 @@
+import bench.CorpusGenerator;
+import bench.Targets;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.ToIntFunction;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.ToolRunner;
+
+/** The Step1 and Step2 calls behind bench.Targets, see there why this class is in the unnamed package */
+public class BenchmarkTargets implements Targets {
+
+    @Override
+    public long runIndexJob(Path input, Path output, boolean inMapperCombining) throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+        // Every document is its own map task, the default 100 MB sort buffer per task would dominate
+        conf.setInt("mapreduce.task.io.sort.mb", 8);
+        conf.setBoolean(PositionalIndexMapper.IN_MAPPER_COMBINING, inMapperCombining);
+        if (ToolRunner.run(conf, new PositionalIndexDriver(), new String[] { input.toString(), output.toString() }) != 0)
+            throw new IllegalStateException("The index job failed");
+        try (var lines = Files.lines(output.resolve("part-r-00000"))) {
+            return lines.count();
+        }
+    }
+
+    @Override
+    public void convert(Path jobOutput, Path binaryIndex) throws IOException {
+        PositionalIndexConverter.convert(new org.apache.hadoop.fs.Path(jobOutput.toUri()), binaryIndex.toString(),
+                new Configuration());
+    }
+
+    @Override
+    public Object loadTextIndex(Path textIndex, int threads) throws IOException {
+        return ParallelIndexLoader.load(textIndex.toString(), threads);
+    }
+
+    @Override
+    public Object openBinaryIndex(Path binaryIndex) throws IOException {
+        return new MappedIndex(binaryIndex);
+    }
+
+    @Override
+    public Object buildIndex(CorpusGenerator corpus) {
+        CompactIndex.Builder builder = new CompactIndex.Builder();
+        Map<String, PositionList> docPositions = new HashMap<>();
+        for (int doc = 0; doc < corpus.numDocs(); doc++) {
+            String[] words = corpus.words(doc);
+            for (int position = 0; position < words.length; position++)
+                docPositions.computeIfAbsent(words[position], k -> new PositionList()).add(position);
+            String name = corpus.name(doc);
+            docPositions.forEach((term, positions) -> builder.add(term, name, positions.array(), positions.size()));
+            docPositions.clear();
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int numTerms(Object index) {
+        return ((PositionalIndex) index).numTerms();
+    }
+
+    @Override
+    public ToIntFunction<String> matcher(Object index) {
+        PhraseQuery query = new PhraseQuery((PositionalIndex) index);
+        return text -> {
+            DocIdIterator matches = query.evaluateQuery(text);
+            int count = 0;
+            while (matches.nextDoc() != DocIdIterator.NO_MORE_DOCS)
+                count++;
+            return count;
+        };
+    }
+
+    @Override
+    public ToIntFunction<String> setMatcher(Object index) {
+        PhraseQuery query = new PhraseQuery((PositionalIndex) index);
+        return text -> query.evaluateSet(text).cardinality();
+    }
+
+    @Override
+    public ToIntFunction<String> termLookup(String dictionary, String[] terms) {
+        switch (dictionary) {
+            case "hash" -> {
+                Map<String, Integer> ordinals = new HashMap<>();
+                for (String term : terms)
+                    ordinals.put(term, ordinals.size());
+                return term -> ordinals.getOrDefault(term, -1);
+            }
+            case "sorted" -> {
+                String[] sorted = terms.clone();
+                Arrays.sort(sorted);
+                return term -> Math.max(-1, Arrays.binarySearch(sorted, term));
+            }
+            default -> {
+                TermDictionary frontCoded = TermDictionary.build(TermDictionary.sort(Arrays.asList(terms)));
+                return frontCoded::ordinal;
+            }
+        }
+    }
+
+    @Override
+    public ToIntFunction<String> prefixLookup(String dictionary, String[] terms) {
+        switch (dictionary) {
+            case "hash" -> {
+                Set<String> all = new HashSet<>(Arrays.asList(terms));
+                return prefix -> {
+                    int count = 0;
+                    for (String term : all) {
+                        if (term.startsWith(prefix))
+                            count++;
+                    }
+                    return count;
+                };
+            }
+            case "sorted" -> {
+                String[] sorted = terms.clone();
+                Arrays.sort(sorted);
+                return prefix -> Wildcard.withPrefix(sorted, prefix).size();
+            }
+            default -> {
+                TermDictionary frontCoded = TermDictionary.build(TermDictionary.sort(Arrays.asList(terms)));
+                return prefix -> {
+                    int count = 0;
+                    for (String term : frontCoded.withPrefix(prefix))
+                        count++;
+                    return count;
+                };
+            }
+        }
+    }
+
+    @Override
+    public ToIntFunction<String> topK(Object index, int k, boolean maxScore) {
+        PhraseQuery query = new PhraseQuery((PositionalIndex) index);
+        query.setMaxScore(maxScore);
+        return text -> query.search(text, k).size();
+    }
+
+    @Override
+    public ToIntFunction<String> impactTopK(Object index, int k, double budget) {
+        ImpactQuery query = new ImpactQuery((PositionalIndex) index, ImpactIndex.build((PositionalIndex) index, null));
+        query.setBudget(budget);
+        return text -> query.search(text, k).size();
+    }
+
+    @Override
+    public ToIntFunction<Text> tokenizer(String kind) {
+        Text word = new Text();
+        if (kind.equals("split")) {
+            return line -> {
+                int count = 0;
+                for (String w : line.toString().split("\\s+")) {
+                    if (w.isEmpty())
+                        continue;
+                    word.set(w.toLowerCase());
+                    count++;
+                }
+                return count;
+            };
+        }
+        Analyzer analyzer = kind.equals("analyzer-full") ? new Analyzer(true, true) : new Analyzer();
+        return line -> {
+            analyzer.reset(line.getBytes(), 0, line.getLength());
+            int count = 0;
+            while (analyzer.next()) {
+                word.set(analyzer.term(), 0, analyzer.length());
+                count++;
+            }
+            return count;
+        };
+    }
+
+    @Override
+    public ToIntFunction<String> rankAll(Object index) {
+        PhraseQuery query = new PhraseQuery((PositionalIndex) index);
+        ScoreAccumulator accumulator = new ScoreAccumulator((PositionalIndex) index);
+        return text -> {
+            DocIdIterator matches = query.evaluateSet(text).iterator();
+            accumulator.accumulate(query.queryTerms(text));
+            List<ScoredDoc> ranked = new ArrayList<>();
+            for (int doc = matches.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = matches.nextDoc())
+                ranked.add(new ScoredDoc(doc, null, accumulator.score(doc)));
+            ranked.sort(Comparator.comparingDouble(ScoredDoc::score).reversed());
+            return ranked.size();
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Tokenizing the lines of a document into the mapper's output key: the old split and
+ * lowercase path against the Analyzer, plain and with stopwords and stemming. The corpus words
+ * are dressed up as prose, with capitalized sentence starts, commas and periods, so there is
+ * something to fold and strip. Each operation tokenizes the next of 256 documents, run with the
+ * GC profiler the allocation rate per operation shows the Strings the split path creates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AnalyzerBenchmark {
+    static final int WORDS_PER_LINE = 15;
+
+    @Param("300")
+    int wordsPerDoc;
+    @Param("20000")
+    int vocabulary;
+    @Param({ "split", "analyzer", "analyzer-full" })
+    String tokenizer;
+
+    private ToIntFunction<Text> tokenize;
+    private Text[][] documents;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        tokenize = Targets.load().tokenizer(tokenizer);
+        CorpusGenerator corpus = new CorpusGenerator(256, wordsPerDoc, vocabulary, 1.0, BenchmarkData.SEED);
+        Random random = new Random(BenchmarkData.SEED);
+        documents = new Text[256][];
+        for (int doc = 0; doc < documents.length; doc++) {
+            String[] words = corpus.words(doc);
+            List<Text> lines = new ArrayList<>();
+            StringBuilder line = new StringBuilder();
+            boolean sentenceStart = true;
+            for (int i = 0; i < words.length; i++) {
+                String word = words[i];
+                if (sentenceStart)
+                    word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                line.append(word);
+                int punctuation = random.nextInt(12);
+                sentenceStart = punctuation == 0;
+                line.append(punctuation == 0 ? ". " : punctuation == 1 ? ", " : " ");
+                if ((i + 1) % WORDS_PER_LINE == 0 || i == words.length - 1) {
+                    lines.add(new Text(line.toString()));
+                    line.setLength(0);
+                }
+            }
+            documents[doc] = lines.toArray(Text[]::new);
+        }
+    }
+
+    @Benchmark
+    public int tokenize() {
+        int terms = 0;
+        for (Text line : documents[next++ & 255])
+            terms += tokenize.applyAsInt(line);
+        return terms;
+    }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The corpus, text index and binary index a benchmark works on, built once per corpus shape
+ * under bench-data/ (or -Dbench.data=dir) and reused by later forks and runs.
+ */
+public record BenchmarkData(CorpusGenerator corpus, Path corpusDir, Path jobOutput, Path textIndex, Path binaryIndex) {
+    static final long SEED = 42;
+
+    public static BenchmarkData prepare(Targets targets, int docs, int wordsPerDoc, int vocabulary) throws Exception {
+        CorpusGenerator corpus = new CorpusGenerator(docs, wordsPerDoc, vocabulary, 1.0, SEED);
+        Path root = Path.of(System.getProperty("bench.data", "bench-data"),
+                String.format("d%d-w%d-v%d", docs, wordsPerDoc, vocabulary)).toAbsolutePath();
+        BenchmarkData data = new BenchmarkData(corpus, root.resolve("corpus"), root.resolve("job"),
+                root.resolve("job").resolve("part-r-00000"), root.resolve("index.pidx"));
+        Path complete = root.resolve("complete");
+        if (!Files.exists(complete)) {
+            delete(root);
+            corpus.writeTo(data.corpusDir);
+            targets.runIndexJob(data.corpusDir, data.jobOutput, false);
+            targets.convert(data.jobOutput, data.binaryIndex);
+            Files.createFile(complete);
+        }
+        return data;
+    }
+
+    static void delete(Path path) {
+        if (!Files.exists(path))
+            return;
+        try (var paths = Files.walk(path)) {
+            for (Path p : paths.sorted(java.util.Comparator.reverseOrder()).toList())
+                Files.delete(p);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of counting the documents of boolean queries with nested and, or and not clauses on
+ * large doc counts, evaluated by the lazy iterators of QueryPlan.compile or into DocIdSets by
+ * QueryPlan.evaluate. The index is built in memory from the generated corpus, the Hadoop job
+ * would take too long at these sizes. Every operation runs the next query of a fixed list of 256.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class BooleanBenchmark {
+    @Param({ "100000", "1000000" })
+    int docs;
+    @Param("10")
+    int wordsPerDoc;
+    @Param("20000")
+    int vocabulary;
+    @Param({ "BOOLEAN", "COMPLEX" })
+    CorpusGenerator.QueryKind kind;
+    @Param({ "iterators", "sets" })
+    String evaluation;
+
+    private ToIntFunction<String> matcher;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        Targets targets = Targets.load();
+        CorpusGenerator corpus = new CorpusGenerator(docs, wordsPerDoc, vocabulary, 1.0, BenchmarkData.SEED);
+        Object index = targets.buildIndex(corpus);
+        matcher = evaluation.equals("sets") ? targets.setMatcher(index) : targets.matcher(index);
+        List<String> list = corpus.queries(kind, 256, BenchmarkData.SEED);
+        queries = list.toArray(String[]::new);
+    }
+
+    @Benchmark
+    public int match() {
+        return matcher.applyAsInt(queries[next++ & 255]);
+    }
+}
@@ -0,0 +1,150 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Synthetic documents whose words follow a Zipf distribution: the word of rank r (from 1) is
+ * drawn with probability proportional to 1 / r^exponent, as in natural text, so a few words are
+ * in almost every document and most are rare. Each document has its own seeded generator, so
+ * any document can be produced again on its own, and queries are cut from the documents so
+ * phrases actually match.
+ *
+ * Usage: java bench.CorpusGenerator <output directory> [docs] [words per doc] [vocabulary] [exponent] [seed]
+ */
+public final class CorpusGenerator {
+    /** Words the query parser reads as operators */
+    private static final Set<String> OPERATORS = Set.of("and", "or", "not", "but");
+
+    public enum QueryKind { TERM, PHRASE, PROXIMITY, BOOLEAN, COMPLEX, WILDCARD }
+
+    private final int docs, wordsPerDoc;
+    private final long seed;
+    private final String[] words; // by rank
+    private final double[] cumulative; // cumulative[r] = weights of ranks 0 .. r
+
+    public CorpusGenerator(int docs, int wordsPerDoc, int vocabulary, double exponent, long seed) {
+        this.docs = docs;
+        this.wordsPerDoc = wordsPerDoc;
+        this.seed = seed;
+        words = new String[vocabulary];
+        cumulative = new double[vocabulary];
+        double total = 0;
+        for (int rank = 0; rank < vocabulary; rank++) {
+            words[rank] = word(rank);
+            cumulative[rank] = total += 1 / Math.pow(rank + 1, exponent);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java bench.CorpusGenerator <output directory> [docs] [words per doc]"
+                    + " [vocabulary] [exponent] [seed]");
+            System.exit(2);
+        }
+        int docs = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int wordsPerDoc = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+        int vocabulary = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+        double exponent = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+        new CorpusGenerator(docs, wordsPerDoc, vocabulary, exponent, seed).writeTo(Path.of(args[0]));
+        System.out.printf("Wrote %d documents to %s%n", docs, args[0]);
+    }
+
+    public int numDocs() {
+        return docs;
+    }
+
+    /** The distinct words, by rank */
+    public String[] vocabulary() {
+        return words.clone();
+    }
+
+    public String name(int doc) {
+        return String.format("doc%06d.txt", doc);
+    }
+
+    /** The words of a document, between half and one and a half times wordsPerDoc of them */
+    public String[] words(int doc) {
+        Random random = new Random(seed * 1_000_003 + doc);
+        String[] text = new String[wordsPerDoc / 2 + random.nextInt(wordsPerDoc + 1)];
+        for (int i = 0; i < text.length; i++)
+            text[i] = words[rank(random)];
+        return text;
+    }
+
+    /** One file per document, named by name(doc) */
+    public void writeTo(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (int doc = 0; doc < docs; doc++)
+            Files.writeString(directory.resolve(name(doc)), String.join(" ", words(doc)) + "\n");
+    }
+
+    /**
+     * Queries cut from random places of random documents: a word, two or three adjacent words,
+     * two words a little apart as a proximity phrase, words combined with and / or / and not,
+     * four to five words in nested boolean clauses with negations, or a word turned into a
+     * wildcard: a prefix and *, a letter replaced by ?, or a prefix* in a phrase.
+     */
+    public List<String> queries(QueryKind kind, int count, long querySeed) {
+        Random random = new Random(querySeed);
+        List<String> queries = new ArrayList<>(count);
+        while (queries.size() < count) {
+            String[] text = words(random.nextInt(docs));
+            if (text.length < 4)
+                continue;
+            int at = random.nextInt(text.length - 3);
+            queries.add(switch (kind) {
+                case TERM -> text[at];
+                case PHRASE -> String.join(" ", Arrays.copyOfRange(text, at, at + 2 + random.nextInt(2)));
+                case PROXIMITY -> "\"" + text[at] + " " + text[at + 3] + "\"~2";
+                case BOOLEAN -> switch (random.nextInt(3)) {
+                    case 0 -> text[at] + " and " + text[at + 2];
+                    case 1 -> text[at] + " or " + text[at + 2];
+                    default -> text[at] + " and not " + text[at + 2];
+                };
+                case COMPLEX -> {
+                    String[] w = Arrays.copyOfRange(text, at, at + 4);
+                    String fifth = text[random.nextInt(text.length)];
+                    yield switch (random.nextInt(4)) {
+                        case 0 -> "(" + w[0] + " or " + w[1] + " or " + w[2] + ") and not " + w[3];
+                        case 1 -> w[0] + " and (" + w[1] + " or " + w[2] + ") and not (" + w[3] + " or " + fifth + ")";
+                        case 2 -> "(" + w[0] + " or " + w[1] + ") and (" + w[2] + " or " + w[3] + ")";
+                        default -> w[0] + " or " + w[1] + " or not (" + w[2] + " and " + w[3] + ")";
+                    };
+                }
+                case WILDCARD -> {
+                    // Short prefixes of short words would match too many terms, a lone ? none
+                    String word = text[at];
+                    String prefix = word.length() == 1 ? word + "?"
+                            : word.substring(0, word.length() <= 2 ? word.length() : Math.max(2, word.length() - 2)) + "*";
+                    int letter = random.nextInt(word.length());
+                    yield switch (word.length() == 1 ? 0 : random.nextInt(3)) {
+                        case 0 -> prefix;
+                        case 1 -> word.substring(0, letter) + "?" + word.substring(letter + 1);
+                        default -> prefix + " " + text[at + 1];
+                    };
+                }
+            });
+        }
+        return queries;
+    }
+
+    private int rank(Random random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+    }
+
+    /** Letters for a rank: a, b, ..., z, ba, bb, ..., with operator words changed */
+    private static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append((char) ('a' + rank % 26));
+            rank /= 26;
+        } while (rank > 0);
+        String result = word.reverse().toString();
+        return OPERATORS.contains(result) ? result + "0" : result;
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The whole MapReduce job, mapper, combiner, shuffle and reducer, on Hadoop's local runner over
+ * a generated corpus. One job is one operation, so the mapper and reducer throughput is docs /
+ * the time reported, compared with and without in-mapper combining. Every document is its own
+ * map task, so the local runner's setup of each task is part of the cost, as it is in a real run.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexingBenchmark {
+    @Param("500")
+    int docs;
+    @Param("300")
+    int wordsPerDoc;
+    @Param("20000")
+    int vocabulary;
+    @Param({ "false", "true" })
+    boolean inMapperCombining;
+
+    private Targets targets;
+    private BenchmarkData data;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        targets = Targets.load();
+        data = BenchmarkData.prepare(targets, docs, wordsPerDoc, vocabulary);
+    }
+
+    @Setup(Level.Invocation)
+    public void newOutput() throws Exception {
+        output = Files.createTempDirectory("index-job").resolve("out");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteOutput() {
+        BenchmarkData.delete(output.getParent());
+    }
+
+    @Benchmark
+    public long indexJob() throws Exception {
+        return targets.runIndexJob(data.corpusDir(), output, inMapperCombining);
+    }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Time to get a searchable index: parsing the text index into a CompactIndex on 1 or 4 threads
+ * (text-1, text-4), or mapping the binary index (binary).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+    @Param("2000")
+    int docs;
+    @Param("300")
+    int wordsPerDoc;
+    @Param("20000")
+    int vocabulary;
+    @Param({ "text-1", "text-4", "binary" })
+    String loader;
+
+    private Targets targets;
+    private BenchmarkData data;
+    private int threads; // 0 for the binary index
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        targets = Targets.load();
+        data = BenchmarkData.prepare(targets, docs, wordsPerDoc, vocabulary);
+        threads = loader.startsWith("text-") ? Integer.parseInt(loader.substring(5)) : 0;
+    }
+
+    @Benchmark
+    public int load() throws Exception {
+        Object index = threads > 0 ? targets.loadTextIndex(data.textIndex(), threads)
+                : targets.openBinaryIndex(data.binaryIndex());
+        return targets.numTerms(index);
+    }
+}
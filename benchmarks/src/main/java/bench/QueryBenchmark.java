@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of finding the documents that match a query, without scoring them, for single
+ * terms, phrases, proximity phrases, boolean combinations and wildcards, on the in-memory and the mapped
+ * index. Every operation runs the next query of a fixed list of 256 cut from the corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+    @Param("2000")
+    int docs;
+    @Param("300")
+    int wordsPerDoc;
+    @Param("20000")
+    int vocabulary;
+    @Param({ "TERM", "PHRASE", "PROXIMITY", "BOOLEAN", "WILDCARD" })
+    CorpusGenerator.QueryKind kind;
+    @Param({ "compact", "mapped" })
+    String index;
+
+    private ToIntFunction<String> matcher;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        Targets targets = Targets.load();
+        BenchmarkData data = BenchmarkData.prepare(targets, docs, wordsPerDoc, vocabulary);
+        Object loaded = index.equals("mapped") ? targets.openBinaryIndex(data.binaryIndex())
+                : targets.loadTextIndex(data.textIndex(), 1);
+        matcher = targets.matcher(loaded);
+        List<String> list = data.corpus().queries(kind, 256, BenchmarkData.SEED);
+        queries = list.toArray(String[]::new);
+    }
+
+    @Benchmark
+    public int match() {
+        return matcher.applyAsInt(queries[next++ & 255]);
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of ranking the matches of a query by cosine similarity: the top 10 with MaxScore
+ * (topk), the top 10 scoring every match (topk-exhaustive), the top 10 from impact-ordered
+ * postings until they are known (topk-impact) or after a fifth of them (topk-impact-0.2), and
+ * scoring and sorting every match as the interactive search does (all).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RankingBenchmark {
+    @Param("2000")
+    int docs;
+    @Param("300")
+    int wordsPerDoc;
+    @Param("20000")
+    int vocabulary;
+    @Param({ "TERM", "BOOLEAN" })
+    CorpusGenerator.QueryKind kind;
+    @Param({ "topk", "topk-exhaustive", "topk-impact", "topk-impact-0.2", "all" })
+    String ranking;
+
+    private ToIntFunction<String> ranker;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        Targets targets = Targets.load();
+        BenchmarkData data = BenchmarkData.prepare(targets, docs, wordsPerDoc, vocabulary);
+        Object index = targets.loadTextIndex(data.textIndex(), 1);
+        ranker = switch (ranking) {
+            case "topk" -> targets.topK(index, 10, true);
+            case "topk-exhaustive" -> targets.topK(index, 10, false);
+            case "topk-impact" -> targets.impactTopK(index, 10, 1.0);
+            case "topk-impact-0.2" -> targets.impactTopK(index, 10, 0.2);
+            case "all" -> targets.rankAll(index);
+            default -> throw new IllegalArgumentException("Unknown ranking " + ranking);
+        };
+        // Multi-word queries: or-ed terms are where ranking and MaxScore have work to do
+        queries = data.corpus().queries(kind, 256, BenchmarkData.SEED).stream()
+                .map(query -> kind == CorpusGenerator.QueryKind.TERM ? query : query.replace(" and not ", " or ")
+                        .replace(" and ", " or "))
+                .toArray(String[]::new);
+    }
+
+    @Benchmark
+    public int rank() {
+        return ranker.applyAsInt(queries[next++ & 255]);
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.ToIntFunction;
+import org.apache.hadoop.io.Text;
+
+/**
+ * What the benchmarks measure. Step1 and Step2 are in the unnamed package, which named packages
+ * cannot import and JMH does not accept for benchmarks, so BenchmarkTargets in the unnamed
+ * package implements this interface and the benchmarks find it by name. Indexes are passed
+ * around as plain Objects, the calls that are measured go through ordinary interface and
+ * lambda calls, not reflection.
+ */
+public interface Targets {
+
+    /** Run the Hadoop job on the local runner, returns the number of terms written */
+    long runIndexJob(Path input, Path output, boolean inMapperCombining) throws Exception;
+
+    /** Convert the text output of the job to a binary index */
+    void convert(Path jobOutput, Path binaryIndex) throws IOException;
+
+    /** Parse a text index into memory on the given number of threads */
+    Object loadTextIndex(Path textIndex, int threads) throws IOException;
+
+    /** Map a binary index */
+    Object openBinaryIndex(Path binaryIndex) throws IOException;
+
+    /**
+     * Build the in-memory index of a generated corpus directly, without files or the Hadoop job,
+     * for doc counts the job would take too long to index
+     */
+    Object buildIndex(CorpusGenerator corpus);
+
+    int numTerms(Object index);
+
+    /** Counts the documents matching a boolean query, without scoring them */
+    ToIntFunction<String> matcher(Object index);
+
+    /** matcher, evaluating the query into a DocIdSet with set operations instead of iterators */
+    ToIntFunction<String> setMatcher(Object index);
+
+    /**
+     * Looks up terms in a dictionary of the given terms, returns the ordinal or -1: "hash" is a
+     * HashMap from term to ordinal, "sorted" a binary search of a sorted String array and
+     * "front-coded" the off-heap TermDictionary
+     */
+    ToIntFunction<String> termLookup(String dictionary, String[] terms);
+
+    /** Counts the terms that start with a prefix in a dictionary of termLookup, "hash" scans them all */
+    ToIntFunction<String> prefixLookup(String dictionary, String[] terms);
+
+    /** Returns the size of the top k of a query, with or without MaxScore */
+    ToIntFunction<String> topK(Object index, int k, boolean maxScore);
+
+    /**
+     * Returns the size of the top k of a query from ImpactQuery, over an ImpactIndex built for
+     * the index on the first call; a budget of 1 reads until the top k are known
+     */
+    ToIntFunction<String> impactTopK(Object index, int k, double budget);
+
+    /** Scores and sorts every match of a query the way the interactive search does, returns the count */
+    ToIntFunction<String> rankAll(Object index);
+
+    /**
+     * Tokenizes a line into the mapper's output key and returns the number of terms: "split" is
+     * the mapper before Analyzer (split on whitespace, lowercase each String), "analyzer" the
+     * Analyzer, "analyzer-full" the Analyzer with stopwords and stemming
+     */
+    ToIntFunction<Text> tokenizer(String kind);
+
+    static Targets load() {
+        try {
+            return (Targets) Class.forName("BenchmarkTargets").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkTargets is not on the class path", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of looking up a term and of listing the terms with a prefix, in the HashMap the
+ * index used to keep, a sorted String array and the front-coded off-heap TermDictionary. The
+ * terms are the words of the corpus generator, so they share prefixes as short words do. A
+ * quarter of the lookups miss. Every operation runs the next term or prefix of a list of 4096.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TermDictionaryBenchmark {
+    @Param({ "100000", "1000000" })
+    int vocabulary;
+    @Param({ "hash", "sorted", "front-coded" })
+    String dictionary;
+
+    private ToIntFunction<String> lookup, prefixes;
+    private String[] terms, prefixList;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        Targets targets = Targets.load();
+        String[] vocabularyWords = new CorpusGenerator(1, 1, vocabulary, 1.0, BenchmarkData.SEED).vocabulary();
+        lookup = targets.termLookup(dictionary, vocabularyWords);
+        prefixes = targets.prefixLookup(dictionary, vocabularyWords);
+        Random random = new Random(BenchmarkData.SEED);
+        terms = new String[4096];
+        prefixList = new String[4096];
+        for (int i = 0; i < terms.length; i++) {
+            String word = vocabularyWords[random.nextInt(vocabularyWords.length)];
+            terms[i] = i % 4 == 0 ? word + "q0" : word; // a generated word never ends in q0
+            prefixList[i] = word.substring(0, Math.min(word.length(), 3));
+        }
+    }
+
+    @Benchmark
+    public int lookup() {
+        return lookup.applyAsInt(terms[next++ & 4095]);
+    }
+
+    @Benchmark
+    public int prefix() {
+        return prefixes.applyAsInt(prefixList[next++ & 4095]);
+    }
+}